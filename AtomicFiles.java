@@ -0,0 +1,52 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// Crash-safe replacement of data files.
+// The new contents go to a temporary file next to the target, which is forced to disk and then
+// renamed over the target in one step, so a crash leaves either the old file or the new one.
+class AtomicFiles {
+    // Writes the contents of a file through the given channel
+    interface Content {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFiles() {
+    }
+
+    static void write(File target, Content content) throws IOException {
+        Path path = target.toPath();
+        Path temp = path.resolveSibling(target.getName() + TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                content.writeTo(channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    // Make the rename itself durable. Not every platform can open a directory, in which
+    // case the rename is left to the file system.
+    private static void syncDirectory(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here (e.g. on Windows)
+        }
+    }
+}
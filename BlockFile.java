@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Block-compressed snapshot of rows (issued_books.dat, users.dat).
+//
+// Rows are written in key order and grouped into blocks of about BLOCK_SIZE bytes, each
+// compressed on its own with Deflate. A block index at the end of the file holds every block's
+// offset, sizes, row count and first row, so a single row is read by binary searching the index
+// and inflating only its block.
+//
+// Layout: header (magic, version, sequence, row count, block count, index offset), the
+// compressed blocks, then the index. Rows are encoded as a field count and modified UTF-8 fields.
+class BlockFile {
+    private static final int MAGIC = 0x4C4D4231; // "LMB1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final long seq;
+    private final int rowCount;
+    private final long[] offsets;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] counts;
+    private final String[][] firstRows;
+
+    private BlockFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (!isBlockFile(buffer)) {
+            throw new IOException("Not a block file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported block file version " + version);
+        }
+        this.seq = buffer.getLong(8);
+        this.rowCount = buffer.getInt(16);
+        int blocks = buffer.getInt(20);
+        long indexOffset = buffer.getLong(24);
+        if (blocks < 0 || indexOffset < HEADER_SIZE || indexOffset > buffer.limit()) {
+            throw new IOException("Block file is truncated");
+        }
+        offsets = new long[blocks];
+        compressedSizes = new int[blocks];
+        sizes = new int[blocks];
+        counts = new int[blocks];
+        firstRows = new String[blocks][];
+        ByteBuffer index = buffer.duplicate();
+        index.position((int) indexOffset);
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(index));
+        for (int block = 0; block < blocks; block++) {
+            offsets[block] = in.readLong();
+            compressedSizes[block] = in.readInt();
+            sizes[block] = in.readInt();
+            counts[block] = in.readInt();
+            firstRows[block] = readRow(in);
+        }
+    }
+
+    // Map a block file for random access
+    static BlockFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file.getName() + " is too large to map");
+            }
+            return new BlockFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Read a block file that is already in memory
+    static BlockFile wrap(byte[] bytes) throws IOException {
+        return new BlockFile(ByteBuffer.wrap(bytes));
+    }
+
+    static boolean isBlockFile(byte[] bytes) {
+        return isBlockFile(ByteBuffer.wrap(bytes));
+    }
+
+    private static boolean isBlockFile(ByteBuffer buffer) {
+        return buffer.limit() >= HEADER_SIZE && buffer.getInt(0) == MAGIC;
+    }
+
+    // Last journal sequence contained in the snapshot
+    long getSeq() {
+        return seq;
+    }
+
+    int size() {
+        return rowCount;
+    }
+
+    int getBlockCount() {
+        return counts.length;
+    }
+
+    List<String[]> readAll() throws IOException {
+        List<String[]> rows = new ArrayList<>(rowCount);
+        for (int block = 0; block < counts.length; block++) {
+            rows.addAll(readBlock(block));
+        }
+        return rows;
+    }
+
+    List<String[]> readBlock(int block) throws IOException {
+        byte[] compressed = new byte[compressedSizes[block]];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offsets[block]);
+        view.get(compressed);
+
+        byte[] bytes = new byte[sizes[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != bytes.length) {
+                throw new IOException("Block " + block + " is damaged");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + block + " is damaged", e);
+        } finally {
+            inflater.end();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        List<String[]> rows = new ArrayList<>(counts[block]);
+        for (int i = 0; i < counts[block]; i++) {
+            rows.add(readRow(in));
+        }
+        return rows;
+    }
+
+    // Find the row that order considers equal to key, inflating only the block that can hold it.
+    // Rows must have been written in the same order.
+    String[] find(String[] key, Comparator<String[]> order) throws IOException {
+        int low = 0;
+        int high = firstRows.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order.compare(firstRows[middle], key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return null;
+        }
+        for (String[] row : readBlock(low - 1)) {
+            if (order.compare(row, key) == 0) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    // Encode rows, which must already be in key order, as a block file
+    static byte[] encode(long seq, List<String[]> rows) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        out.write(new byte[HEADER_SIZE]);
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+        DataOutputStream blockOut = new DataOutputStream(block);
+        Deflater deflater = new Deflater();
+        try {
+            int blocks = 0;
+            int count = 0;
+            String[] first = null;
+            for (String[] row : rows) {
+                if (first == null) {
+                    first = row;
+                }
+                writeRow(blockOut, row);
+                count++;
+                if (block.size() >= BLOCK_SIZE) {
+                    writeBlock(out, file, indexOut, deflater, block, count, first);
+                    blocks++;
+                    count = 0;
+                    first = null;
+                }
+            }
+            if (count > 0) {
+                writeBlock(out, file, indexOut, deflater, block, count, first);
+                blocks++;
+            }
+
+            long indexOffset = file.size();
+            index.writeTo(out);
+            out.flush();
+            ByteBuffer bytes = ByteBuffer.wrap(file.toByteArray());
+            bytes.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, seq).putInt(16, rows.size())
+                .putInt(20, blocks).putLong(24, indexOffset);
+            return bytes.array();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, ByteArrayOutputStream file, DataOutputStream index,
+                                   Deflater deflater, ByteArrayOutputStream block, int count, String[] first)
+            throws IOException {
+        byte[] bytes = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+
+        index.writeLong(file.size());
+        index.writeInt(compressed.size());
+        index.writeInt(bytes.length);
+        index.writeInt(count);
+        writeRow(index, first);
+        compressed.writeTo(out);
+        block.reset();
+    }
+
+    private static void writeRow(DataOutputStream out, String[] row) throws IOException {
+        out.writeByte(row.length);
+        for (String field : row) {
+            out.writeUTF(field == null ? "" : field);
+        }
+    }
+
+    private static String[] readRow(DataInputStream in) throws IOException {
+        String[] row = new String[in.readUnsignedByte()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = in.readUTF();
+        }
+        return row;
+    }
+
+    // Reads the remaining bytes of a buffer
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
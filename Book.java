@@ -0,0 +1,57 @@
+// A catalog entry. Year and copies are held as ints, so issuing and returning a book never parse
+// text; rows of text (the String[] layout of the stores and the journal) are only produced when
+// a book is written or exported. Books read from MappedBookList are copies; changes are made
+// through the list.
+final class Book {
+    final String id;
+    final String title;
+    final String author;
+    final String publisher;
+    final int year;
+    final int copies;
+    final String genre;
+
+    Book(String id, String title, String author, String publisher, int year, int copies, String genre) {
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.publisher = publisher;
+        this.year = year;
+        this.copies = copies;
+        this.genre = genre;
+    }
+
+    // Convert a store row (see MappedCatalogStore for the columns). Rows are validated before
+    // they are stored; a number that still does not parse reads as 0.
+    static Book fromRow(String[] row) {
+        return new Book(row[MappedCatalogStore.ID], row[MappedCatalogStore.TITLE], row[MappedCatalogStore.AUTHOR],
+            row[MappedCatalogStore.PUBLISHER], parseNumber(row[MappedCatalogStore.YEAR]),
+            parseNumber(row[MappedCatalogStore.COPIES]), row[MappedCatalogStore.GENRE]);
+    }
+
+    String[] toRow() {
+        return new String[] {id, title, author, publisher, String.valueOf(year), String.valueOf(copies), genre};
+    }
+
+    // Field in a store row column, as text
+    String get(int column) {
+        switch (column) {
+            case MappedCatalogStore.ID: return id;
+            case MappedCatalogStore.TITLE: return title;
+            case MappedCatalogStore.AUTHOR: return author;
+            case MappedCatalogStore.PUBLISHER: return publisher;
+            case MappedCatalogStore.YEAR: return String.valueOf(year);
+            case MappedCatalogStore.COPIES: return String.valueOf(copies);
+            case MappedCatalogStore.GENRE: return genre;
+            default: throw new IndexOutOfBoundsException("Column: " + column);
+        }
+    }
+
+    static int parseNumber(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Struct-of-arrays storage for books held on the heap.
+//
+// Each book is a slot in a set of parallel arrays: year and copies as ints, author, publisher and
+// genre as codes into per-column dictionaries, and ID and title as UTF-8 bytes in one shared byte
+// heap (ID first, then title). A million titles take a few dozen arrays rather than millions of
+// objects, and a scan over one column walks a single array. Slots of removed books are reused;
+// the text they leave behind in the heap is reclaimed once it makes up half of the heap.
+final class BookColumns {
+    private static final int[] DICTIONARY_COLUMNS = {
+        MappedCatalogStore.AUTHOR, MappedCatalogStore.PUBLISHER, MappedCatalogStore.GENRE
+    };
+
+    private int capacity;
+    private int size;
+    private int[] year;
+    private int[] copies;
+    private final int[][] codes = new int[MappedCatalogStore.COLUMNS][];
+    // ID bytes are text[idStart, titleStart), title bytes text[titleStart, titleEnd); idStart is -1
+    // for a free slot
+    private int[] idStart;
+    private int[] titleStart;
+    private int[] titleEnd;
+    private byte[] text;
+    private int textSize;
+    private int garbage;
+    private int[] free = new int[16];
+    private int freeCount;
+    private final Dictionary[] dictionaries = new Dictionary[MappedCatalogStore.COLUMNS];
+
+    BookColumns(int capacity) {
+        this.capacity = Math.max(capacity, 16);
+        year = new int[this.capacity];
+        copies = new int[this.capacity];
+        for (int column : DICTIONARY_COLUMNS) {
+            codes[column] = new int[this.capacity];
+            dictionaries[column] = new Dictionary();
+        }
+        idStart = new int[this.capacity];
+        titleStart = new int[this.capacity];
+        titleEnd = new int[this.capacity];
+        // Room for about 48 bytes of ID and title per book before the first resize
+        text = new byte[this.capacity * 48];
+    }
+
+    // Store a book in a free slot and return the slot
+    int add(Book book) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (size == capacity) {
+                grow();
+            }
+            slot = size++;
+        }
+        write(slot, book);
+        return slot;
+    }
+
+    // Replace the book in a slot
+    void set(int slot, Book book) {
+        checkSlot(slot);
+        garbage += titleEnd[slot] - idStart[slot];
+        // Not in use while it is rewritten, so a compaction does not keep the old text
+        idStart[slot] = -1;
+        write(slot, book);
+    }
+
+    // Free a slot for reuse by a later add
+    void remove(int slot) {
+        checkSlot(slot);
+        garbage += titleEnd[slot] - idStart[slot];
+        idStart[slot] = -1;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = slot;
+    }
+
+    Book get(int slot) {
+        checkSlot(slot);
+        return new Book(getId(slot), getTitle(slot), getValue(slot, MappedCatalogStore.AUTHOR),
+            getValue(slot, MappedCatalogStore.PUBLISHER), year[slot], copies[slot],
+            getValue(slot, MappedCatalogStore.GENRE));
+    }
+
+    String getId(int slot) {
+        checkSlot(slot);
+        return new String(text, idStart[slot], titleStart[slot] - idStart[slot], StandardCharsets.UTF_8);
+    }
+
+    String getTitle(int slot) {
+        checkSlot(slot);
+        return new String(text, titleStart[slot], titleEnd[slot] - titleStart[slot], StandardCharsets.UTF_8);
+    }
+
+    int getYear(int slot) {
+        checkSlot(slot);
+        return year[slot];
+    }
+
+    int getCopies(int slot) {
+        checkSlot(slot);
+        return copies[slot];
+    }
+
+    void setCopies(int slot, int value) {
+        checkSlot(slot);
+        copies[slot] = value;
+    }
+
+    // Author, publisher or genre; the dictionary's String, so nothing is allocated
+    String getValue(int slot, int column) {
+        checkSlot(slot);
+        return dictionaries[column].values.get(codes[column][slot]);
+    }
+
+    // Field in a store row column, as a String or, for year and copies, an Integer
+    Object getField(int slot, int column) {
+        switch (column) {
+            case MappedCatalogStore.ID: return getId(slot);
+            case MappedCatalogStore.TITLE: return getTitle(slot);
+            case MappedCatalogStore.YEAR: return getYear(slot);
+            case MappedCatalogStore.COPIES: return getCopies(slot);
+            default: return getValue(slot, column);
+        }
+    }
+
+    private void write(int slot, Book book) {
+        byte[] id = book.id.getBytes(StandardCharsets.UTF_8);
+        byte[] title = book.title.getBytes(StandardCharsets.UTF_8);
+        reserve(id.length + title.length);
+        idStart[slot] = textSize;
+        System.arraycopy(id, 0, text, textSize, id.length);
+        textSize += id.length;
+        titleStart[slot] = textSize;
+        System.arraycopy(title, 0, text, textSize, title.length);
+        textSize += title.length;
+        titleEnd[slot] = textSize;
+
+        year[slot] = book.year;
+        copies[slot] = book.copies;
+        codes[MappedCatalogStore.AUTHOR][slot] = dictionaries[MappedCatalogStore.AUTHOR].code(book.author);
+        codes[MappedCatalogStore.PUBLISHER][slot] = dictionaries[MappedCatalogStore.PUBLISHER].code(book.publisher);
+        codes[MappedCatalogStore.GENRE][slot] = dictionaries[MappedCatalogStore.GENRE].code(book.genre);
+    }
+
+    // Make room for length more bytes of text, first by dropping the text of replaced and
+    // removed books if that frees enough, otherwise by growing the heap
+    private void reserve(int length) {
+        if (textSize + length <= text.length) {
+            return;
+        }
+        if (garbage > textSize / 2 && textSize - garbage + length <= text.length) {
+            compact(text);
+            return;
+        }
+        long needed = (long) textSize - garbage + length;
+        long grown = Math.max(needed, text.length + (long) (text.length >> 1));
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Catalog text exceeds 2 GB");
+        }
+        compact(new byte[(int) Math.min(grown, Integer.MAX_VALUE - 8)]);
+    }
+
+    // Copy the text of the books in use to the start of target, in slot order
+    private void compact(byte[] target) {
+        byte[] source = text;
+        if (target == source) {
+            source = Arrays.copyOf(text, textSize);
+        }
+        int position = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (idStart[slot] < 0) {
+                continue;
+            }
+            int length = titleEnd[slot] - idStart[slot];
+            System.arraycopy(source, idStart[slot], target, position, length);
+            int shift = idStart[slot] - position;
+            idStart[slot] -= shift;
+            titleStart[slot] -= shift;
+            titleEnd[slot] -= shift;
+            position += length;
+        }
+        text = target;
+        textSize = position;
+        garbage = 0;
+    }
+
+    private void grow() {
+        capacity += capacity >> 1;
+        year = Arrays.copyOf(year, capacity);
+        copies = Arrays.copyOf(copies, capacity);
+        for (int column : DICTIONARY_COLUMNS) {
+            codes[column] = Arrays.copyOf(codes[column], capacity);
+        }
+        idStart = Arrays.copyOf(idStart, capacity);
+        titleStart = Arrays.copyOf(titleStart, capacity);
+        titleEnd = Arrays.copyOf(titleEnd, capacity);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= size || idStart[slot] < 0) {
+            throw new IndexOutOfBoundsException("Slot " + slot);
+        }
+    }
+
+    // Values of a low-cardinality column, each stored once and referred to by code. Codes are
+    // never reused, so a value stays in the dictionary after its last book is gone.
+    private static final class Dictionary {
+        final ArrayList<String> values = new ArrayList<>();
+        final HashMap<String, Integer> codes = new HashMap<>();
+
+        int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+    }
+}
@@ -0,0 +1,648 @@
+import java.util.*;
+
+// Inverted index over the title, author, publisher and genre of each book, for ranked search.
+//
+// Text is split into lower-case runs of letters and digits. Each term has a posting list of the
+// documents containing it, sorted by document, with the term's frequency in each; a document is
+// a book's index in its MappedBookList, so the list shifts documents when it inserts or removes
+// in the middle. Title words count three times and author words twice toward the frequency.
+//
+// Queries are words, all of which must match; OR between words separates alternatives
+// ("tolkien OR lewis fantasy"). The last word also matches longer terms it starts, so results
+// follow typing. Hits are ranked by BM25. Not thread-safe.
+//
+// Misspelled words are matched through terms a small edit distance away. Candidate terms come
+// from a trigram index over the terms, so finding them costs the length of a few trigram lists
+// rather than a pass over the dictionary, and are checked with a bounded edit distance in which
+// swapping two neighbouring letters counts as one edit. A word is matched to those variants
+// when it is not a term at all or when they are far more common; their hits score lower than
+// exact ones.
+final class BookSearchIndex {
+    static final int[] FIELDS = {
+        MappedCatalogStore.TITLE, MappedCatalogStore.AUTHOR, MappedCatalogStore.PUBLISHER, MappedCatalogStore.GENRE
+    };
+    private static final int[] FIELD_WEIGHTS = {3, 2, 1, 1};
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // The last word of a query is expanded to at most this many terms, the most frequent first
+    private static final int MAX_EXPANSIONS = 256;
+    // A term is a variant of a word that is itself a term only if it is this many times as common
+    private static final int VARIANT_RATIO = 10;
+    private static final int MAX_VARIANTS = 8;
+    // Scores of variant hits are scaled by this for each edit
+    private static final float VARIANT_WEIGHT = 0.5f;
+
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    // Terms containing each trigram of the term padded with a space at both ends
+    private final HashMap<Long, ArrayList<String>> trigramTerms = new HashMap<>();
+    // Terms in order for prefix lookups; rebuilt when terms are added or dropped
+    private String[] sortedTerms;
+    // Weighted number of terms in each document
+    private int[] lengths = new int[16];
+    private int documents;
+    private long totalLength;
+
+    // Per-document scratch for collecting a document's terms
+    private String[] docTerms = new String[16];
+    private int[] docFreqs = new int[16];
+    private int docTermCount;
+
+    BookSearchIndex() {
+    }
+
+    // An index of the given number of documents, which load and fill then describe instead of add
+    BookSearchIndex(int documents) {
+        this.documents = documents;
+        lengths = new int[Math.max(documents, 16)];
+    }
+
+    // Add the postings of a term as an index file stores them (see FileLibraryStore): pairs of
+    // a position and the term's weighted frequency there. positions maps each position to its
+    // document, or to -1 if the stored entry does not describe the document.
+    void load(String term, int[] stored, int[] positions) {
+        long[] pairs = new long[stored.length / 2];
+        int count = 0;
+        boolean sorted = true;
+        for (int i = 0; i < stored.length; i += 2) {
+            int doc = positions[stored[i]];
+            if (doc >= 0) {
+                pairs[count] = (long) doc << 32 | stored[i + 1];
+                sorted &= count == 0 || pairs[count - 1] < pairs[count];
+                count++;
+                lengths[doc] += stored[i + 1];
+                totalLength += stored[i + 1];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (!sorted) {
+            Arrays.sort(pairs, 0, count);
+        }
+        Postings postings = terms.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            postings.docs = new int[count];
+            postings.freqs = new byte[count];
+            terms.put(term, postings);
+            sortedTerms = null;
+            for (long trigram : trigrams(term)) {
+                trigramTerms.computeIfAbsent(trigram, k -> new ArrayList<>(4)).add(term);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            postings.insert((int) (pairs[i] >>> 32), (int) pairs[i]);
+        }
+    }
+
+    // Index one of the documents given to the constructor that load did not describe
+    void fill(int doc, Book book) {
+        index(doc, book);
+    }
+
+    // Distinct terms of a store row with their weighted frequencies, as documents are indexed
+    static Map<String, Integer> frequencies(String[] row) {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (int f = 0; f < FIELDS.length; f++) {
+            for (String token : tokenize(row[FIELDS[f]])) {
+                frequencies.merge(token, FIELD_WEIGHTS[f], Integer::sum);
+            }
+        }
+        return frequencies;
+    }
+
+    // Add a document at the end
+    void add(Book book) {
+        insert(documents, book);
+    }
+
+    // Add a document at index, shifting the documents from index on up by one
+    void insert(int index, Book book) {
+        if (index < documents) {
+            renumber(index, 1);
+        }
+        if (documents == lengths.length) {
+            lengths = Arrays.copyOf(lengths, lengths.length + (lengths.length >> 1));
+        }
+        System.arraycopy(lengths, index, lengths, index + 1, documents - index);
+        documents++;
+        lengths[index] = 0;
+        index(index, book);
+    }
+
+    // Replace the document at index; previous is the book it was built from
+    void replace(int index, Book previous, Book book) {
+        unindex(index, previous);
+        index(index, book);
+    }
+
+    // Remove the document at index, shifting the later documents down by one
+    void remove(int index, Book previous) {
+        unindex(index, previous);
+        System.arraycopy(lengths, index + 1, lengths, index, documents - index - 1);
+        documents--;
+        renumber(index + 1, -1);
+    }
+
+    // Documents matching the query, best first
+    int[] search(String query) {
+        Query parsed = new Query(query);
+        java.util.List<java.util.List<String>> groups = parsed.groups;
+        boolean prefix = parsed.prefix;
+        Hits result = null;
+        for (int g = 0; g < groups.size(); g++) {
+            java.util.List<String> tokens = groups.get(g);
+            Hits[] clauses = new Hits[tokens.size()];
+            for (int t = 0; t < tokens.size(); t++) {
+                boolean last = prefix && g == groups.size() - 1 && t == tokens.size() - 1;
+                String token = tokens.get(t);
+                clauses[t] = union(last ? prefixHits(token) : termHits(terms.get(token)), variantHits(token));
+            }
+            // Intersect starting from the rarest term
+            Arrays.sort(clauses, (a, b) -> Integer.compare(a.size, b.size));
+            Hits matches = clauses.length == 0 ? new Hits(0) : clauses[0];
+            for (int c = 1; c < clauses.length; c++) {
+                matches = intersect(matches, clauses[c]);
+            }
+            result = result == null ? matches : union(result, matches);
+        }
+        if (result == null) {
+            return new int[0];
+        }
+
+        // Highest score first, then in list order; scores are positive so their bits sort as ints
+        long[] keys = new long[result.size];
+        for (int i = 0; i < result.size; i++) {
+            keys[i] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(result.scores[i])) << 32 | result.docs[i];
+        }
+        Arrays.sort(keys);
+        int[] ranked = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ranked[i] = (int) keys[i];
+        }
+        return ranked;
+    }
+
+    // Books matching the query, found without an index: every word of an OR group is a term of
+    // the book, the last one still being typed may start one. For use until an index is built,
+    // so hits are not ranked and misspelled words are not matched.
+    static java.util.function.Predicate<Book> matcher(String query) {
+        Query parsed = new Query(query);
+        return book -> {
+            HashSet<String> bookTerms = new HashSet<>();
+            for (int field : FIELDS) {
+                bookTerms.addAll(tokenize(book.get(field)));
+            }
+            for (int g = 0; g < parsed.groups.size(); g++) {
+                java.util.List<String> tokens = parsed.groups.get(g);
+                boolean all = true;
+                for (int t = 0; t < tokens.size() && all; t++) {
+                    String token = tokens.get(t);
+                    boolean last = parsed.prefix && g == parsed.groups.size() - 1 && t == tokens.size() - 1;
+                    all = bookTerms.contains(token) || last && bookTerms.stream().anyMatch(term -> term.startsWith(token));
+                }
+                if (all) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    // The query with each misspelled word replaced by its closest common variant, or null if no
+    // word has one. A last word that is still being typed is left alone while it starts a longer
+    // term and is not a term itself.
+    String correct(String query) {
+        String[] words = query.trim().split("\\s+");
+        boolean typing = !query.isEmpty() && Character.isLetterOrDigit(query.charAt(query.length() - 1));
+        StringBuilder corrected = new StringBuilder();
+        boolean changed = false;
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            java.util.List<String> tokens = tokenize(word);
+            if (tokens.size() == 1 && !word.equals("OR") && !word.equals("AND")
+                    && !(typing && i == words.length - 1 && isIncomplete(tokens.get(0)))) {
+                java.util.List<Variant> variants = variants(tokens.get(0));
+                if (!variants.isEmpty()) {
+                    word = variants.get(0).term;
+                    changed = true;
+                }
+            }
+            if (corrected.length() > 0) {
+                corrected.append(' ');
+            }
+            corrected.append(word);
+        }
+        return changed ? corrected.toString() : null;
+    }
+
+    // Drop the spare capacity of the posting lists, after adding many documents
+    void trim() {
+        for (Postings postings : terms.values()) {
+            postings.docs = Arrays.copyOf(postings.docs, postings.size);
+            postings.freqs = Arrays.copyOf(postings.freqs, postings.size);
+        }
+    }
+
+    // Lower-case runs of letters and digits in text
+    static java.util.List<String> tokenize(String text) {
+        java.util.List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private void index(int doc, Book book) {
+        collect(book);
+        int length = 0;
+        for (int t = 0; t < docTermCount; t++) {
+            Postings postings = terms.get(docTerms[t]);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(docTerms[t], postings);
+                sortedTerms = null;
+                for (long trigram : trigrams(docTerms[t])) {
+                    trigramTerms.computeIfAbsent(trigram, k -> new ArrayList<>(4)).add(docTerms[t]);
+                }
+            }
+            postings.insert(doc, docFreqs[t]);
+            length += docFreqs[t];
+        }
+        lengths[doc] = length;
+        totalLength += length;
+    }
+
+    private void unindex(int doc, Book book) {
+        collect(book);
+        for (int t = 0; t < docTermCount; t++) {
+            Postings postings = terms.get(docTerms[t]);
+            if (postings != null && postings.remove(doc) && postings.size == 0) {
+                terms.remove(docTerms[t]);
+                sortedTerms = null;
+                for (long trigram : trigrams(docTerms[t])) {
+                    ArrayList<String> list = trigramTerms.get(trigram);
+                    list.remove(docTerms[t]);
+                    if (list.isEmpty()) {
+                        trigramTerms.remove(trigram);
+                    }
+                }
+            }
+        }
+        totalLength -= lengths[doc];
+        lengths[doc] = 0;
+    }
+
+    // Gather the distinct terms of a book with their weighted frequencies
+    private void collect(Book book) {
+        docTermCount = 0;
+        for (int f = 0; f < FIELDS.length; f++) {
+            for (String token : tokenize(book.get(FIELDS[f]))) {
+                int t = 0;
+                while (t < docTermCount && !docTerms[t].equals(token)) {
+                    t++;
+                }
+                if (t == docTermCount) {
+                    if (t == docTerms.length) {
+                        docTerms = Arrays.copyOf(docTerms, t * 2);
+                        docFreqs = Arrays.copyOf(docFreqs, t * 2);
+                    }
+                    docTerms[t] = token;
+                    docFreqs[t] = 0;
+                    docTermCount++;
+                }
+                docFreqs[t] += FIELD_WEIGHTS[f];
+            }
+        }
+    }
+
+    // Shift the documents >= from by delta in every posting list
+    private void renumber(int from, int delta) {
+        for (Postings postings : terms.values()) {
+            for (int i = postings.find(from); i < postings.size; i++) {
+                postings.docs[i] += delta;
+            }
+        }
+    }
+
+    // Whether word is not a term but starts one
+    private boolean isIncomplete(String word) {
+        if (terms.containsKey(word)) {
+            return false;
+        }
+        int from = lowerBound(word);
+        return from < sortedTerms.length && sortedTerms[from].startsWith(word);
+    }
+
+    // Documents with variants of the word, at lower scores the more edits away they are
+    private Hits variantHits(String word) {
+        Hits hits = new Hits(0);
+        for (Variant variant : variants(word)) {
+            Hits variantHits = termHits(terms.get(variant.term));
+            float weight = (float) Math.pow(VARIANT_WEIGHT, variant.distance);
+            for (int i = 0; i < variantHits.size; i++) {
+                variantHits.scores[i] *= weight;
+            }
+            hits = union(hits, variantHits);
+        }
+        return hits;
+    }
+
+    // Terms within one edit of word (two for words of eight or more characters), closest and
+    // then most common first. Words under four characters have none, and a word that is a term
+    // of under five characters has none either: too many of its neighbours are real words.
+    private java.util.List<Variant> variants(String word) {
+        java.util.List<Variant> variants = new ArrayList<>();
+        Postings exact = terms.get(word);
+        int maxDistance = word.length() < 4 ? 0 : word.length() < 8 ? 1 : 2;
+        if (maxDistance == 0 || (exact != null && word.length() < 5)) {
+            return variants;
+        }
+        int minCount = exact == null ? 1 : exact.size * VARIANT_RATIO;
+
+        // An edit changes at most three of the word's trigrams, a swap four
+        long[] trigrams = trigrams(word);
+        int needed = Math.max(1, trigrams.length - 4 * maxDistance);
+        HashMap<String, int[]> shared = new HashMap<>();
+        for (long trigram : trigrams) {
+            ArrayList<String> candidates = trigramTerms.get(trigram);
+            if (candidates == null) {
+                continue;
+            }
+            for (String candidate : candidates) {
+                if (Math.abs(candidate.length() - word.length()) <= maxDistance) {
+                    shared.computeIfAbsent(candidate, c -> new int[1])[0]++;
+                }
+            }
+        }
+        for (Map.Entry<String, int[]> candidate : shared.entrySet()) {
+            String term = candidate.getKey();
+            if (candidate.getValue()[0] < needed || term.equals(word) || terms.get(term).size < minCount) {
+                continue;
+            }
+            int distance = distance(word, term, maxDistance);
+            if (distance <= maxDistance) {
+                variants.add(new Variant(term, distance, terms.get(term).size));
+            }
+        }
+        variants.sort((a, b) -> a.distance != b.distance ? Integer.compare(a.distance, b.distance)
+            : a.count != b.count ? Integer.compare(b.count, a.count) : a.term.compareTo(b.term));
+        return variants.size() > MAX_VARIANTS ? variants.subList(0, MAX_VARIANTS) : variants;
+    }
+
+    // Distinct trigrams of a term padded with a space at both ends, three characters to a long
+    private static long[] trigrams(String term) {
+        String padded = " " + term + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    // Edit distance between a and b counting insertions, deletions, substitutions and swaps of
+    // neighbouring characters, or max + 1 once it is known to exceed max
+    static int distance(String a, String b, int max) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] rotate = previous2;
+            previous2 = previous;
+            previous = current;
+            current = rotate;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    private Hits termHits(Postings postings) {
+        if (postings == null) {
+            return new Hits(0);
+        }
+        Hits hits = new Hits(postings.size);
+        double idf = Math.log(1 + (documents - postings.size + 0.5) / (postings.size + 0.5));
+        double averageLength = documents == 0 ? 1 : Math.max(1.0, (double) totalLength / documents);
+        for (int i = 0; i < postings.size; i++) {
+            int doc = postings.docs[i];
+            int frequency = postings.freqs[i];
+            double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+            hits.docs[i] = doc;
+            hits.scores[i] = (float) (idf * frequency * (K1 + 1) / (frequency + norm));
+        }
+        hits.size = postings.size;
+        return hits;
+    }
+
+    // Position in sortedTerms of the first term not below word, sorting the terms if needed
+    private int lowerBound(String word) {
+        if (sortedTerms == null) {
+            sortedTerms = terms.keySet().toArray(new String[0]);
+            Arrays.sort(sortedTerms);
+        }
+        int found = Arrays.binarySearch(sortedTerms, word);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    // Documents with a term starting with prefix, each scored by its best such term
+    private Hits prefixHits(String prefix) {
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < sortedTerms.length && sortedTerms[to].startsWith(prefix)) {
+            to++;
+        }
+        String[] expansions = Arrays.copyOfRange(sortedTerms, from, to);
+        if (expansions.length > MAX_EXPANSIONS) {
+            Arrays.sort(expansions, (a, b) -> Integer.compare(terms.get(b).size, terms.get(a).size));
+            expansions = Arrays.copyOf(expansions, MAX_EXPANSIONS);
+        }
+        if (expansions.length == 1) {
+            return termHits(terms.get(expansions[0]));
+        }
+
+        // Document in the high half and score bits in the low half, so sorting groups by document
+        int total = 0;
+        for (String term : expansions) {
+            total += terms.get(term).size;
+        }
+        long[] entries = new long[total];
+        int count = 0;
+        for (String term : expansions) {
+            Hits hits = termHits(terms.get(term));
+            for (int i = 0; i < hits.size; i++) {
+                entries[count++] = (long) hits.docs[i] << 32 | Float.floatToIntBits(hits.scores[i]);
+            }
+        }
+        Arrays.sort(entries);
+        Hits hits = new Hits(total);
+        for (int i = 0; i < total; i++) {
+            int doc = (int) (entries[i] >>> 32);
+            float score = Float.intBitsToFloat((int) entries[i]);
+            if (hits.size > 0 && hits.docs[hits.size - 1] == doc) {
+                hits.scores[hits.size - 1] = score;  // entries of a document are in rising score order
+            } else {
+                hits.docs[hits.size] = doc;
+                hits.scores[hits.size++] = score;
+            }
+        }
+        return hits;
+    }
+
+    // Documents in both, with their scores added
+    private static Hits intersect(Hits small, Hits large) {
+        Hits hits = new Hits(small.size);
+        int from = 0;
+        for (int i = 0; i < small.size && from < large.size; i++) {
+            int found = Arrays.binarySearch(large.docs, from, large.size, small.docs[i]);
+            if (found >= 0) {
+                hits.docs[hits.size] = small.docs[i];
+                hits.scores[hits.size++] = small.scores[i] + large.scores[found];
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+        }
+        return hits;
+    }
+
+    // Documents in either, with the scores of those in both added
+    private static Hits union(Hits a, Hits b) {
+        Hits hits = new Hits(a.size + b.size);
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.docs[i] < b.docs[j])) {
+                hits.docs[hits.size] = a.docs[i];
+                hits.scores[hits.size++] = a.scores[i++];
+            } else if (i == a.size || b.docs[j] < a.docs[i]) {
+                hits.docs[hits.size] = b.docs[j];
+                hits.scores[hits.size++] = b.scores[j++];
+            } else {
+                hits.docs[hits.size] = a.docs[i];
+                hits.scores[hits.size++] = a.scores[i++] + b.scores[j++];
+            }
+        }
+        return hits;
+    }
+
+    // A query split into alternatives at OR, each a list of tokens that must all match
+    private static final class Query {
+        final java.util.List<java.util.List<String>> groups = new ArrayList<>();
+        // The last token is a prefix when the query ends in the middle of a word
+        boolean prefix;
+
+        Query(String query) {
+            java.util.List<String> group = new ArrayList<>();
+            String[] words = query.trim().split("\\s+");
+            boolean typing = !query.isEmpty() && Character.isLetterOrDigit(query.charAt(query.length() - 1));
+            for (int i = 0; i < words.length; i++) {
+                String word = words[i];
+                if (word.equals("OR")) {
+                    if (!group.isEmpty()) {
+                        groups.add(group);
+                        group = new ArrayList<>();
+                    }
+                } else if (!word.equals("AND")) {
+                    java.util.List<String> tokens = tokenize(word);
+                    group.addAll(tokens);
+                    prefix = typing && i == words.length - 1 && !tokens.isEmpty();
+                }
+            }
+            if (!group.isEmpty()) {
+                groups.add(group);
+            }
+        }
+    }
+
+    // Documents in order with their frequencies, which are capped at 127
+    private static final class Postings {
+        int[] docs = new int[2];
+        byte[] freqs = new byte[2];
+        int size;
+
+        // Position of the first document >= doc
+        int find(int doc) {
+            int found = Arrays.binarySearch(docs, 0, size, doc);
+            return found >= 0 ? found : -found - 1;
+        }
+
+        void insert(int doc, int frequency) {
+            // Documents are mostly added at the end
+            int at = size > 0 && docs[size - 1] < doc ? size : find(doc);
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, Math.max(size * 2, 2));
+                freqs = Arrays.copyOf(freqs, docs.length);
+            }
+            System.arraycopy(docs, at, docs, at + 1, size - at);
+            System.arraycopy(freqs, at, freqs, at + 1, size - at);
+            docs[at] = doc;
+            freqs[at] = (byte) Math.min(frequency, Byte.MAX_VALUE);
+            size++;
+        }
+
+        boolean remove(int doc) {
+            int at = Arrays.binarySearch(docs, 0, size, doc);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(docs, at + 1, docs, at, size - at - 1);
+            System.arraycopy(freqs, at + 1, freqs, at, size - at - 1);
+            size--;
+            return true;
+        }
+    }
+
+    private static final class Variant {
+        final String term;
+        final int distance;
+        final int count;
+
+        Variant(String term, int distance, int count) {
+            this.term = term;
+            this.distance = distance;
+            this.count = count;
+        }
+    }
+
+    // Matching documents in order with their scores
+    private static final class Hits {
+        final int[] docs;
+        final float[] scores;
+        int size;
+
+        Hits(int capacity) {
+            docs = new int[capacity];
+            scores = new float[capacity];
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+// Streaming export of books, loans or users to CSV, TSV or JSON Lines.
+//
+// Rows are fetched from the source a chunk of CHUNK_ROWS at a time and encoded straight into a
+// fixed direct buffer that is written to the file channel whenever it fills up, so memory use
+// does not depend on the number of rows. The file is replaced atomically once it is complete.
+class BulkExporter {
+    static final int CHUNK_ROWS = 10000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Returns up to count rows starting at from; an empty list ends the export
+    interface Source {
+        List<String[]> read(int from, int count) throws Exception;
+    }
+
+    // Totals reported at the end of an export
+    static final class Report {
+        long scanned;
+        long written;
+        long bytes;
+        long elapsedNanos;
+
+        String summary() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Exported %,d of %,d rows in %.1f s (%,.0f rows/s)%nFile size: %,d KB",
+                written, scanned, seconds, seconds > 0 ? scanned / seconds : scanned, bytes / 1024);
+        }
+    }
+
+    private final String[] columns;
+    private final Predicate<String[]> filter;
+
+    // columns name the fields of each row (CSV header, JSON keys); only rows accepted by filter
+    // are written
+    BulkExporter(String[] columns, Predicate<String[]> filter) {
+        this.columns = columns;
+        this.filter = filter;
+    }
+
+    // Export every row of source. The format follows the file name: .jsonl or .json for JSON
+    // Lines, .tsv for tab-separated, otherwise CSV. progress is called with the rows read so far.
+    Report run(File output, Source source, LongConsumer progress) throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        String name = output.getName().toLowerCase(Locale.ROOT);
+        boolean json = name.endsWith(".jsonl") || name.endsWith(".json");
+        char delimiter = name.endsWith(".tsv") ? '\t' : ',';
+
+        AtomicFiles.write(output, channel -> {
+            Writer writer = new Writer(channel);
+            StringBuilder line = new StringBuilder(256);
+            if (!json) {
+                writer.write(line.append(BulkImporter.CsvReader.join(columns, delimiter)).append('\n'));
+            }
+            int from = 0;
+            while (true) {
+                List<String[]> rows;
+                try {
+                    rows = source.read(from, CHUNK_ROWS);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Export stopped: " + e.getMessage(), e);
+                }
+                if (rows.isEmpty()) {
+                    break;
+                }
+                from += rows.size();
+                for (String[] row : rows) {
+                    if (!filter.test(row)) {
+                        continue;
+                    }
+                    line.setLength(0);
+                    if (json) {
+                        appendJson(line, row);
+                    } else {
+                        line.append(BulkImporter.CsvReader.join(row, delimiter));
+                    }
+                    writer.write(line.append('\n'));
+                    report.written++;
+                }
+                report.scanned += rows.size();
+                progress.accept(report.scanned);
+            }
+            writer.flush();
+            report.bytes = channel.position();
+        });
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void appendJson(StringBuilder line, String[] row) {
+        line.append('{');
+        for (int i = 0; i < columns.length && i < row.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            appendJsonString(line, columns[i]);
+            line.append(':');
+            appendJsonString(line, row[i] == null ? "" : row[i]);
+        }
+        line.append('}');
+    }
+
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    // Encodes text as UTF-8 into one reused buffer and writes it out whenever the buffer is full
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+// Streaming import of books or users from a CSV or TSV file (e.g. a vendor catalog dump).
+//
+// The file is parsed a chunk of CHUNK_ROWS records at a time, so memory use does not grow with
+// the size of the file. Each chunk is validated in parallel; duplicate IDs are then rejected in
+// file order against a hash set of the existing IDs and those imported so far. Rejected rows go
+// to an error file with their line number and reason, and the accepted rows of each chunk are
+// handed on as one batch, which the caller persists with a single journal commit.
+class BulkImporter {
+    static final int CHUNK_ROWS = 10000;
+
+    // Receives each batch of accepted rows; the next chunk is parsed once it returns
+    interface Sink {
+        void accept(List<String[]> batch) throws Exception;
+    }
+
+    // Totals reported at the end of an import
+    static final class Report {
+        long read;
+        long imported;
+        long rejected;
+        long elapsedNanos;
+        long peakHeapBytes;
+        File errorFile;
+
+        String summary() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("Read %,d rows in %.1f s (%,.0f rows/s)%n", read, seconds,
+                seconds > 0 ? read / seconds : read));
+            text.append(String.format("Imported: %,d%n", imported));
+            text.append(String.format("Rejected: %,d%n", rejected));
+            if (rejected > 0) {
+                text.append("Rejected rows were written to ").append(errorFile.getName()).append('\n');
+            }
+            text.append(String.format("Peak heap in use: %,d MB", peakHeapBytes / (1024 * 1024)));
+            return text.toString();
+        }
+    }
+
+    private final int columns;
+    private final Function<String[], String> validator;
+    private final Set<String> existingIds;
+
+    // validator returns the reason a row is invalid, or null; rows whose ID (first field) is in
+    // existingIds are rejected as duplicates
+    BulkImporter(int columns, Function<String[], String> validator, Set<String> existingIds) {
+        this.columns = columns;
+        this.validator = validator;
+        this.existingIds = existingIds;
+    }
+
+    // Import every row of input. progress is called with the number of rows read after each chunk.
+    Report run(File input, File errorFile, Sink sink, LongConsumer progress) throws IOException {
+        Report report = new Report();
+        report.errorFile = errorFile;
+        long start = System.nanoTime();
+        Runtime runtime = Runtime.getRuntime();
+        Set<String> importedIds = new HashSet<>();
+        char delimiter = input.getName().toLowerCase(Locale.ROOT).endsWith(".tsv") ? '\t' : ',';
+
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8), delimiter);
+             BufferedWriter errors = Files.newBufferedWriter(errorFile.toPath(), StandardCharsets.UTF_8)) {
+            errors.write("line,reason,row");
+            errors.newLine();
+            boolean first = true;
+            List<String[]> records = new ArrayList<>(CHUNK_ROWS);
+            List<Long> lines = new ArrayList<>(CHUNK_ROWS);
+            while (true) {
+                records.clear();
+                lines.clear();
+                String[] record;
+                while (records.size() < CHUNK_ROWS && (record = reader.next()) != null) {
+                    if (first) {
+                        first = false;
+                        if (isHeader(record)) {
+                            continue;
+                        }
+                    }
+                    records.add(record);
+                    lines.add(reader.getRecordLine());
+                }
+                if (records.isEmpty()) {
+                    break;
+                }
+
+                String[] reasons = validate(records);
+                List<String[]> batch = new ArrayList<>(records.size());
+                for (int i = 0; i < records.size(); i++) {
+                    String[] row = records.get(i);
+                    String reason = reasons[i];
+                    if (reason == null && (existingIds.contains(row[0]) || !importedIds.add(row[0]))) {
+                        reason = "Duplicate ID " + row[0];
+                    }
+                    if (reason == null) {
+                        batch.add(row);
+                    } else {
+                        errors.write(lines.get(i) + "," + CsvReader.quote(reason, ',') + ","
+                            + CsvReader.quote(CsvReader.join(row, ','), ','));
+                        errors.newLine();
+                        report.rejected++;
+                    }
+                }
+                report.read += records.size();
+                report.peakHeapBytes = Math.max(report.peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+                if (!batch.isEmpty()) {
+                    try {
+                        sink.accept(batch);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException("Import stopped: " + e.getMessage(), e);
+                    }
+                    report.imported += batch.size();
+                }
+                progress.accept(report.read);
+            }
+        }
+        if (report.rejected == 0) {
+            Files.deleteIfExists(errorFile.toPath());
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Check the rows of a chunk in parallel; each check only looks at its own row
+    private String[] validate(List<String[]> records) {
+        String[] reasons = new String[records.size()];
+        IntStream.range(0, records.size()).parallel().forEach(i -> {
+            String[] row = records.get(i);
+            if (row.length != columns) {
+                reasons[i] = "Expected " + columns + " fields but found " + row.length;
+                return;
+            }
+            for (int field = 0; field < row.length; field++) {
+                row[field] = row[field].trim();
+            }
+            reasons[i] = validator.apply(row);
+        });
+        return reasons;
+    }
+
+    // A first line such as "Book ID,Title,..." is a header rather than a rejected row
+    private boolean isHeader(String[] record) {
+        return record.length == columns && record[0].toLowerCase(Locale.ROOT).contains("id")
+            && validator.apply(record.clone()) != null;
+    }
+
+    // Reads delimited records one at a time. Fields may be quoted with ", in which case they can
+    // contain the delimiter, line breaks and doubled quotes.
+    static final class CsvReader implements Closeable {
+        private final Reader reader;
+        private final char delimiter;
+        private long line = 1;
+        private long recordLine;
+        private int pending = -2;
+
+        CsvReader(Reader reader, char delimiter) {
+            this.reader = reader;
+            this.delimiter = delimiter;
+        }
+
+        // Next record, or null at the end of the input; blank lines are skipped
+        String[] next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean empty = true;
+            recordLine = line;
+            int c;
+            while ((c = read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            unread(next);
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    empty = false;
+                } else if (c == delimiter) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    empty = false;
+                } else if (c == '\r') {
+                    // Handled with the \n that follows
+                } else if (c == '\n') {
+                    line++;
+                    if (empty && field.length() == 0) {
+                        recordLine = line;
+                        continue;
+                    }
+                    break;
+                } else {
+                    field.append((char) c);
+                    empty = false;
+                }
+            }
+            if (c == -1 && empty && field.length() == 0) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+
+        // Line on which the last record started
+        long getRecordLine() {
+            return recordLine;
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return reader.read();
+        }
+
+        private void unread(int c) {
+            pending = c;
+        }
+
+        static String quote(String value, char delimiter) {
+            if (value.indexOf(delimiter) < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+
+        static String join(String[] fields, char delimiter) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    text.append(delimiter);
+                }
+                text.append(quote(fields[i], delimiter));
+            }
+            return text.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
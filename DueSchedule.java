@@ -0,0 +1,246 @@
+import java.util.*;
+import java.util.function.LongSupplier;
+
+// Loans ordered by the next time their status changes, so the overdue, due-today and due-soon
+// sets are kept current without looking at every loan.
+//
+// Statuses follow Loan.daysRemaining: a loan is due today while it is less than a day either side
+// of its due time and overdue from a day after it. It is due soon from dueSoonMillis before its
+// due time until the due time. Each loan sits in a binary min-heap keyed by the next of those
+// boundaries; advance pops the loans whose boundary has passed, moves them between the sets and
+// pushes them back with their following boundary. Counts are the sizes of the sets.
+class DueSchedule {
+    // Called after the sets change
+    interface Listener {
+        void dueChanged();
+    }
+
+    private final long dueSoonMillis;
+    private final LongSupplier clock;
+    private final IdentityHashMap<Loan, Entry> entries = new IdentityHashMap<>();
+    private Entry[] heap = new Entry[16];
+    private int heapSize;
+    private final Set<Loan> overdue = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int dueToday;
+    // Ordered by due time, then by when the loan was added
+    private final TreeSet<Entry> dueSoon = new TreeSet<>((a, b) -> a.loan.dueAtEpochMillis != b.loan.dueAtEpochMillis
+        ? Long.compare(a.loan.dueAtEpochMillis, b.loan.dueAtEpochMillis) : Long.compare(a.order, b.order));
+    private long added;
+    private Listener listener;
+
+    DueSchedule(long dueSoonMillis, LongSupplier clock) {
+        this.dueSoonMillis = dueSoonMillis;
+        this.clock = clock;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void add(Loan loan) {
+        Entry entry = new Entry(loan, added++);
+        entries.put(loan, entry);
+        update(entry, clock.getAsLong());
+        if (entry.next != Long.MAX_VALUE) {
+            push(entry);
+        }
+        changed();
+    }
+
+    void remove(Loan loan) {
+        Entry entry = entries.remove(loan);
+        if (entry == null) {
+            return;
+        }
+        if (entry.position >= 0) {
+            removeAt(entry.position);
+        }
+        if (entry.overdue) {
+            overdue.remove(loan);
+        }
+        if (entry.dueToday) {
+            dueToday--;
+        }
+        if (entry.dueSoon) {
+            dueSoon.remove(entry);
+        }
+        changed();
+    }
+
+    // Move the loans whose status has changed since the last call
+    void advance() {
+        long now = clock.getAsLong();
+        boolean moved = false;
+        while (heapSize > 0 && heap[0].next <= now) {
+            Entry entry = heap[0];
+            removeAt(0);
+            update(entry, now);
+            if (entry.next != Long.MAX_VALUE) {
+                push(entry);
+            }
+            moved = true;
+        }
+        if (moved) {
+            changed();
+        }
+    }
+
+    int getOverdueCount() {
+        return overdue.size();
+    }
+
+    int getDueTodayCount() {
+        return dueToday;
+    }
+
+    Set<Loan> getOverdue() {
+        return Collections.unmodifiableSet(overdue);
+    }
+
+    // Loans due within dueSoonMillis and not yet due, soonest first
+    Collection<Loan> getDueSoon() {
+        return new AbstractCollection<Loan>() {
+            @Override
+            public Iterator<Loan> iterator() {
+                Iterator<Entry> due = dueSoon.iterator();
+                return new Iterator<Loan>() {
+                    @Override
+                    public boolean hasNext() {
+                        return due.hasNext();
+                    }
+
+                    @Override
+                    public Loan next() {
+                        return due.next().loan;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return dueSoon.size();
+            }
+        };
+    }
+
+    long getDueSoonMillis() {
+        return dueSoonMillis;
+    }
+
+    // Put an entry in the sets for its status at now and find its next boundary
+    private void update(Entry entry, long now) {
+        long due = entry.loan.dueAtEpochMillis;
+        boolean isOverdue = now >= due + Loan.DAY_MILLIS;
+        boolean isDueToday = now > due - Loan.DAY_MILLIS && !isOverdue;
+        boolean isDueSoon = now >= due - dueSoonMillis && now < due;
+        if (isOverdue != entry.overdue) {
+            if (isOverdue) {
+                overdue.add(entry.loan);
+            } else {
+                overdue.remove(entry.loan);
+            }
+            entry.overdue = isOverdue;
+        }
+        if (isDueToday != entry.dueToday) {
+            dueToday += isDueToday ? 1 : -1;
+            entry.dueToday = isDueToday;
+        }
+        if (isDueSoon != entry.dueSoon) {
+            if (isDueSoon) {
+                dueSoon.add(entry);
+            } else {
+                dueSoon.remove(entry);
+            }
+            entry.dueSoon = isDueSoon;
+        }
+
+        long next = Long.MAX_VALUE;
+        for (long boundary : new long[] {due - dueSoonMillis, due - Loan.DAY_MILLIS + 1, due, due + Loan.DAY_MILLIS}) {
+            if (boundary > now && boundary < next) {
+                next = boundary;
+            }
+        }
+        entry.next = next;
+    }
+
+    private void changed() {
+        if (listener != null) {
+            listener.dueChanged();
+        }
+    }
+
+    private void push(Entry entry) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        heap[heapSize] = entry;
+        entry.position = heapSize++;
+        siftUp(entry.position);
+    }
+
+    private void removeAt(int position) {
+        Entry removed = heap[position];
+        removed.position = -1;
+        heapSize--;
+        if (position == heapSize) {
+            heap[heapSize] = null;
+            return;
+        }
+        heap[position] = heap[heapSize];
+        heap[position].position = position;
+        heap[heapSize] = null;
+        siftDown(position);
+        siftUp(position);
+    }
+
+    private void siftUp(int position) {
+        Entry entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].next <= entry.next) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heap[position].position = position;
+            position = parent;
+        }
+        heap[position] = entry;
+        entry.position = position;
+    }
+
+    private void siftDown(int position) {
+        Entry entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1].next < heap[child].next) {
+                child++;
+            }
+            if (entry.next <= heap[child].next) {
+                break;
+            }
+            heap[position] = heap[child];
+            heap[position].position = position;
+            position = child;
+        }
+        heap[position] = entry;
+        entry.position = position;
+    }
+
+    private static final class Entry {
+        final Loan loan;
+        final long order;
+        long next;
+        int position = -1;
+        boolean overdue;
+        boolean dueToday;
+        boolean dueSoon;
+
+        Entry(Loan loan, long order) {
+            this.loan = loan;
+            this.order = order;
+        }
+    }
+}
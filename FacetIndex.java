@@ -0,0 +1,391 @@
+import java.util.*;
+
+// Bitmap indexes for slicing the catalog by genre, publisher, decade and availability.
+//
+// Each genre, publisher and decade has a bitmap of the books that have it, and one more bitmap
+// holds the books with copies left. Books are their indices in a MappedBookList, which shifts
+// them when it inserts or removes in the middle. A bitmap is a sorted array of indices while it
+// holds under 1/32 of the books, four bytes a book for values most books do not have, and a
+// plain bitset beyond that, one bit a book. Selected values of a facet are ORed and the facets
+// ANDed, a word at a time. Counts for a facet's values are taken within the other facets'
+// selections, so they show what selecting one more value would add. Not thread-safe.
+final class FacetIndex {
+    static final int GENRE = 0;
+    static final int PUBLISHER = 1;
+    static final int DECADE = 2;
+    static final int FACETS = 3;
+    static final String UNKNOWN_DECADE = "Unknown";
+    // Selection result while no index is available: every book matches and no value is counted
+    static final Result EMPTY = new Result(null, Collections.nCopies(FACETS, Collections.<Count>emptyList()), 0);
+
+    private final List<HashMap<String, Bitmap>> values = new ArrayList<>();
+    private final Bitmap available = new Bitmap();
+    private int size;
+    // Bitmaps go dense against this many books at least, so a bulk build does not make values
+    // dense while the catalog is still small
+    private final int expectedSize;
+
+    FacetIndex(int expectedSize) {
+        this.expectedSize = expectedSize;
+        for (int facet = 0; facet < FACETS; facet++) {
+            values.add(new HashMap<>());
+        }
+    }
+
+    // Add count books at the end, which add, setCopies and fill then describe; for loading values
+    // that were stored rather than inserting book by book
+    void extend(int count) {
+        size += count;
+    }
+
+    // Give a book added by extend a value of a facet
+    void add(int facet, String value, int index) {
+        values.get(facet).computeIfAbsent(value, v -> new Bitmap()).add(index, universe());
+    }
+
+    // Index a book added by extend from the book itself
+    void fill(int index, Book book) {
+        index(index, book);
+    }
+
+    // Add a book at index, shifting the books from index on up by one
+    void insert(int index, Book book) {
+        if (index < size) {
+            for (HashMap<String, Bitmap> facet : values) {
+                for (Bitmap bitmap : facet.values()) {
+                    bitmap.open(index);
+                }
+            }
+            available.open(index);
+        }
+        size++;
+        index(index, book);
+    }
+
+    void replace(int index, Book previous, Book book) {
+        unindex(index, previous);
+        index(index, book);
+    }
+
+    // Remove the book at index, shifting the later books down by one
+    void remove(int index, Book previous) {
+        unindex(index, previous);
+        for (HashMap<String, Bitmap> facet : values) {
+            for (Bitmap bitmap : facet.values()) {
+                bitmap.close(index);
+            }
+        }
+        available.close(index);
+        size--;
+    }
+
+    void setCopies(int index, int copies) {
+        if (copies > 0) {
+            available.add(index, universe());
+        } else {
+            available.remove(index);
+        }
+    }
+
+    // The books in within (all books if null) with one of the selected values of each facet that
+    // has any, and with copies left if availableOnly, and the counts of every facet value
+    Result select(List<? extends Set<String>> selected, boolean availableOnly, int[] within) {
+        int words = (size + 63) >>> 6;
+        long[] base = null;
+        if (within != null) {
+            base = new long[words];
+            for (int index : within) {
+                base[index >>> 6] |= 1L << index;
+            }
+        }
+        long[][] filters = new long[FACETS + 1][];
+        for (int facet = 0; facet < FACETS; facet++) {
+            if (!selected.get(facet).isEmpty()) {
+                filters[facet] = new long[words];
+                for (String value : selected.get(facet)) {
+                    Bitmap bitmap = values.get(facet).get(value);
+                    if (bitmap != null) {
+                        bitmap.orInto(filters[facet]);
+                    }
+                }
+            }
+        }
+        if (availableOnly) {
+            filters[FACETS] = new long[words];
+            available.orInto(filters[FACETS]);
+        }
+
+        List<List<Count>> counts = new ArrayList<>();
+        for (int facet = 0; facet < FACETS; facet++) {
+            long[] restrict = intersect(base, filters, facet);
+            List<Count> facetCounts = new ArrayList<>();
+            for (Map.Entry<String, Bitmap> value : values.get(facet).entrySet()) {
+                Bitmap bitmap = value.getValue();
+                facetCounts.add(new Count(value.getKey(), restrict == null ? bitmap.size : bitmap.countIn(restrict)));
+            }
+            if (facet == DECADE) {
+                facetCounts.sort((a, b) -> Integer.compare(decadeOrder(a.value), decadeOrder(b.value)));
+            } else {
+                facetCounts.sort((a, b) -> a.count != b.count ? Integer.compare(b.count, a.count) : a.value.compareTo(b.value));
+            }
+            counts.add(facetCounts);
+        }
+        long[] restrict = intersect(base, filters, FACETS);
+        int availableCount = restrict == null ? available.size : available.countIn(restrict);
+        return new Result(intersect(base, filters, -1), counts, availableCount);
+    }
+
+    static String decade(int year) {
+        return year <= 0 ? UNKNOWN_DECADE : year / 10 * 10 + "s";
+    }
+
+    // Decades in time order, unknown last
+    private static int decadeOrder(String decade) {
+        return decade.equals(UNKNOWN_DECADE) ? Integer.MAX_VALUE
+            : Integer.parseInt(decade.substring(0, decade.length() - 1));
+    }
+
+    private static String value(Book book, int facet) {
+        switch (facet) {
+            case GENRE: return book.genre;
+            case PUBLISHER: return book.publisher;
+            default: return decade(book.year);
+        }
+    }
+
+    private void index(int index, Book book) {
+        for (int facet = 0; facet < FACETS; facet++) {
+            values.get(facet).computeIfAbsent(value(book, facet), v -> new Bitmap()).add(index, universe());
+        }
+        setCopies(index, book.copies);
+    }
+
+    private void unindex(int index, Book book) {
+        for (int facet = 0; facet < FACETS; facet++) {
+            String value = value(book, facet);
+            Bitmap bitmap = values.get(facet).get(value);
+            if (bitmap != null) {
+                bitmap.remove(index);
+                if (bitmap.size == 0) {
+                    values.get(facet).remove(value);
+                }
+            }
+        }
+        available.remove(index);
+    }
+
+    private int universe() {
+        return Math.max(size, expectedSize);
+    }
+
+    // AND of base and the filters other than skip (-1 skips none); null when all are null
+    private static long[] intersect(long[] base, long[][] filters, int skip) {
+        long[] result = base == null ? null : base.clone();
+        for (int f = 0; f < filters.length; f++) {
+            if (f == skip || filters[f] == null) {
+                continue;
+            }
+            if (result == null) {
+                result = filters[f].clone();
+            } else {
+                for (int w = 0; w < result.length; w++) {
+                    result[w] &= filters[f][w];
+                }
+            }
+        }
+        return result;
+    }
+
+    static final class Count {
+        final String value;
+        final int count;
+
+        Count(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+    }
+
+    static final class Result {
+        // Books matching, or null when nothing restricts them
+        private final long[] matches;
+        // Per facet, the values with their counts: most books first, decades in time order
+        final List<List<Count>> counts;
+        final int availableCount;
+
+        Result(long[] matches, List<List<Count>> counts, int availableCount) {
+            this.matches = matches;
+            this.counts = counts;
+            this.availableCount = availableCount;
+        }
+
+        // The books of within (all books if null, of which there are size) that match, in the
+        // order of within; null for all books
+        int[] filter(int[] within, int size) {
+            if (matches == null) {
+                return within;
+            }
+            int count = 0;
+            if (within == null) {
+                for (long word : matches) {
+                    count += Long.bitCount(word);
+                }
+                int[] rows = new int[count];
+                int row = 0;
+                for (int w = 0; w < matches.length; w++) {
+                    for (long word = matches[w]; word != 0; word &= word - 1) {
+                        rows[row++] = w << 6 | Long.numberOfTrailingZeros(word);
+                    }
+                }
+                return rows;
+            }
+            int[] rows = new int[within.length];
+            for (int index : within) {
+                if ((matches[index >>> 6] & 1L << index) != 0) {
+                    rows[count++] = index;
+                }
+            }
+            return Arrays.copyOf(rows, count);
+        }
+    }
+
+    // Set of book indices: sorted members while sparse, words once dense
+    private static final class Bitmap {
+        private int[] members = new int[4];
+        private long[] words;
+        int size;
+
+        void add(int index, int universe) {
+            if (words != null) {
+                ensure(index);
+                long bit = 1L << index;
+                if ((words[index >>> 6] & bit) == 0) {
+                    words[index >>> 6] |= bit;
+                    size++;
+                }
+                return;
+            }
+            int at = size > 0 && members[size - 1] < index ? size : find(index);
+            if (at < size && members[at] == index) {
+                return;
+            }
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            System.arraycopy(members, at, members, at + 1, size - at);
+            members[at] = index;
+            size++;
+            if (size > 64 && size * 32L > universe) {
+                densify();
+            }
+        }
+
+        void remove(int index) {
+            if (words != null) {
+                long bit = 1L << index;
+                if (index >>> 6 < words.length && (words[index >>> 6] & bit) != 0) {
+                    words[index >>> 6] &= ~bit;
+                    size--;
+                }
+                return;
+            }
+            int at = find(index);
+            if (at < size && members[at] == index) {
+                System.arraycopy(members, at + 1, members, at, size - at - 1);
+                size--;
+            }
+        }
+
+        // Move the indices from index on up by one, leaving index out
+        void open(int index) {
+            if (words == null) {
+                for (int i = find(index); i < size; i++) {
+                    members[i]++;
+                }
+                return;
+            }
+            int first = index >>> 6;
+            if (first >= words.length) {
+                return;
+            }
+            if (words[words.length - 1] < 0) {
+                words = Arrays.copyOf(words, words.length + 1);
+            }
+            for (int w = words.length - 1; w > first; w--) {
+                words[w] = words[w] << 1 | words[w - 1] >>> 63;
+            }
+            long low = (1L << index) - 1;
+            words[first] = words[first] & low | (words[first] & ~low) << 1;
+        }
+
+        // Drop index and move the indices above it down by one
+        void close(int index) {
+            remove(index);
+            if (words == null) {
+                for (int i = find(index); i < size; i++) {
+                    members[i]--;
+                }
+                return;
+            }
+            int first = index >>> 6;
+            if (first >= words.length) {
+                return;
+            }
+            long low = (1L << index) - 1;
+            words[first] = words[first] & low | words[first] >>> 1 & ~low;
+            for (int w = first; w < words.length - 1; w++) {
+                words[w] |= words[w + 1] << 63;
+                words[w + 1] >>>= 1;
+            }
+        }
+
+        void orInto(long[] bits) {
+            if (words == null) {
+                for (int i = 0; i < size; i++) {
+                    bits[members[i] >>> 6] |= 1L << members[i];
+                }
+            } else {
+                for (int w = 0; w < Math.min(words.length, bits.length); w++) {
+                    bits[w] |= words[w];
+                }
+            }
+        }
+
+        // Number of members set in bits
+        int countIn(long[] bits) {
+            int count = 0;
+            if (words == null) {
+                for (int i = 0; i < size; i++) {
+                    if ((bits[members[i] >>> 6] & 1L << members[i]) != 0) {
+                        count++;
+                    }
+                }
+            } else {
+                for (int w = 0; w < Math.min(words.length, bits.length); w++) {
+                    count += Long.bitCount(words[w] & bits[w]);
+                }
+            }
+            return count;
+        }
+
+        // Position of the first member >= index
+        private int find(int index) {
+            int found = Arrays.binarySearch(members, 0, size, index);
+            return found >= 0 ? found : -found - 1;
+        }
+
+        private void ensure(int index) {
+            if (index >>> 6 >= words.length) {
+                words = Arrays.copyOf(words, Math.max((index >>> 6) + 1, words.length + (words.length >> 1)));
+            }
+        }
+
+        private void densify() {
+            words = new long[(members[size - 1] >>> 6) + 1];
+            for (int i = 0; i < size; i++) {
+                words[members[i] >>> 6] |= 1L << members[i];
+            }
+            members = null;
+        }
+    }
+}
@@ -0,0 +1,588 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+// Store backed by the data files in one directory (the default, -Dlibrary.store=file):
+// the memory-mapped catalog (books-<seq>.bin) and the block-compressed issued_books.dat and
+// users.dat.
+//
+// Changes are kept in memory on top of the files and only written out by checkpoint(). The
+// catalog file is sorted by book ID, so lookups and range scans binary search it and overlay
+// the changed, deleted and added books. A change to nothing but the copies of a book in the
+// file (an issue or return) is written into the file in place; the catalog is only rewritten
+// when books are added, deleted or otherwise changed. Loans and users are small and kept in
+// memory whole.
+//
+// Each catalog generation has an index next to it, books-<seq>.idx, holding the search terms of
+// the books and their publishers and genres. Scans hand it to MappedBookList, which loads its
+// search and facet indexes from it instead of reading every book. An index that is missing or
+// was built from a different catalog file is rebuilt on a background thread; until it is ready,
+// scans come without one.
+class FileLibraryStore implements LibraryStore {
+    static final String LEGACY_BOOKS_FILE = "books.dat";
+    static final String ISSUED_FILE = "issued_books.dat";
+    static final String USERS_FILE = "users.dat";
+    // Sections of books-<seq>.idx: each search term with (slot, weighted frequency) postings as
+    // BookSearchIndex counts them, and the slots of each publisher and genre
+    static final int TERMS_SECTION = 1;
+    static final int PUBLISHER_SECTION = 2;
+    static final int GENRE_SECTION = 3;
+
+    private static final Pattern INDEX_NAME = Pattern.compile("books(-\\d+)?\\.idx");
+
+    private final File dir;
+    private volatile MappedCatalogStore catalog;
+    // Catalog slots in book ID order (files written by older versions may not be sorted)
+    private int[] order = new int[0];
+    // Changes to books in the catalog file, by slot, and books that are not in it
+    private String[][] replaced = new String[0][];
+    private BitSet replacedSlots = new BitSet();
+    private BitSet deleted = new BitSet();
+    // New copies of books that are otherwise unchanged in the catalog file, by slot
+    private final HashMap<Integer, Integer> copies = new HashMap<>();
+    private final TreeMap<String, String[]> added = new TreeMap<>();
+    private final TreeSet<String[]> loans = new TreeSet<>(LOAN_ORDER);
+    private final TreeMap<String, String[]> users = new TreeMap<>();
+    private long booksSeq, loansSeq, usersSeq;
+    private boolean booksDirty, loansDirty, usersDirty;
+
+    private volatile IndexFile bookIndex;
+    // Index builds run one at a time, in the order the catalog files were written
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "library-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileLibraryStore(File dir) {
+        this.dir = dir;
+    }
+
+    // Open the data files in dir; the catalog, loans and users are read concurrently
+    static FileLibraryStore open(File dir) throws IOException {
+        FileLibraryStore store = new FileLibraryStore(dir);
+        CompletableFuture<Void> catalog = CompletableFuture.runAsync(() -> unchecked(store::loadCatalog));
+        CompletableFuture<Void> loans = CompletableFuture.runAsync(() -> unchecked(store::loadLoans));
+        CompletableFuture<Void> users = CompletableFuture.runAsync(() -> unchecked(store::loadUsers));
+        try {
+            CompletableFuture.allOf(catalog, loans, users).join();
+        } catch (CompletionException e) {
+            store.close();
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        return store;
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private static void unchecked(IOAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Map the newest catalog generation, or read the old books.dat so the first checkpoint migrates it
+    @SuppressWarnings("unchecked")
+    private void loadCatalog() throws IOException {
+        if (!MappedCatalogStore.findGenerations(dir).isEmpty()) {
+            setCatalog(MappedCatalogStore.openLatest(dir));
+            MappedCatalogStore.deleteGenerations(dir, catalog.getFile());
+            openBookIndex();
+            return;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(dir, LEGACY_BOOKS_FILE))))) {
+            for (String[] book : (List<String[]>) ois.readObject()) {
+                added.put(book[0], book);
+            }
+            booksDirty = true;
+        } catch (FileNotFoundException e) {
+            // No catalog yet
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable " + LEGACY_BOOKS_FILE, e);
+        }
+    }
+
+    private void loadLoans() throws IOException {
+        Object[] data = readSnapshot(dir, ISSUED_FILE);
+        loansSeq = (Long) data[0];
+        for (String[] loan : rows(data)) {
+            if (loan.length == 4) {
+                // Old format without the user ID: book ID, user name, contact, issue date/time
+                loan = new String[] {loan[0], "", loan[1], loan[2], loan[3]};
+            }
+            loans.add(loan);
+        }
+        // Older versions kept an index of the loans by user; the loans are indexed in memory
+        new File(dir, "issued_books.idx").delete();
+    }
+
+    private void loadUsers() throws IOException {
+        LibraryStore.Snapshot snapshot = readUsers(dir);
+        usersSeq = snapshot.seq;
+        for (String[] user : snapshot.rows) {
+            users.put(user[0], user);
+        }
+    }
+
+    // The users file of dir on its own, without the catalog and loans
+    static LibraryStore.Snapshot readUsers(File dir) throws IOException {
+        Object[] data = readSnapshot(dir, USERS_FILE);
+        return new LibraryStore.Snapshot((Long) data[0], rows(data));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String[]> rows(Object[] data) {
+        return (List<String[]>) data[1];
+    }
+
+    // Read a loans or users file as {sequence, rows}. Files are block-compressed; older
+    // serialized files are still read (those from before the sequence prefix as sequence 0).
+    // A missing file loads as no rows.
+    private static Object[] readSnapshot(File dir, String fileName) throws IOException {
+        File file = new File(dir, fileName);
+        if (!file.exists()) {
+            return new Object[] {0L, new ArrayList<String[]>()};
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (BlockFile.isBlockFile(bytes)) {
+            BlockFile blocks = BlockFile.wrap(bytes);
+            return new Object[] {blocks.getSeq(), blocks.readAll()};
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            long seq = 0;
+            Object data = ois.readObject();
+            if (data instanceof Long) {
+                seq = (Long) data;
+                data = ois.readObject();
+            }
+            return new Object[] {seq, data};
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable " + fileName, e);
+        }
+    }
+
+    private void setCatalog(MappedCatalogStore newCatalog) {
+        catalog = newCatalog;
+        booksSeq = newCatalog.getCopiesSeq();
+        int count = newCatalog.size();
+        replaced = new String[count][];
+        replacedSlots = new BitSet();
+        deleted = new BitSet();
+        copies.clear();
+        added.clear();
+
+        order = new int[count];
+        String previous = null;
+        boolean sorted = true;
+        String[] ids = new String[count];
+        for (int slot = 0; slot < count; slot++) {
+            order[slot] = slot;
+            ids[slot] = newCatalog.readId(slot);
+            if (previous != null && previous.compareTo(ids[slot]) >= 0) {
+                sorted = false;
+            }
+            previous = ids[slot];
+        }
+        if (!sorted) {
+            Integer[] slots = new Integer[count];
+            for (int slot = 0; slot < count; slot++) {
+                slots[slot] = slot;
+            }
+            Arrays.sort(slots, (a, b) -> ids[a].compareTo(ids[b]));
+            for (int i = 0; i < count; i++) {
+                order[i] = slots[i];
+            }
+        }
+    }
+
+    @Override
+    public String[] getBook(String id) {
+        int slot = findSlot(id);
+        if (slot < 0) {
+            return added.get(id);
+        }
+        if (deleted.get(slot)) {
+            return null;
+        }
+        return replaced[slot] != null ? replaced[slot] : fileRow(slot);
+    }
+
+    @Override
+    public void putBook(String[] book) {
+        int slot = findSlot(book[0]);
+        if (slot < 0) {
+            added.put(book[0], book);
+        } else if (replaced[slot] == null && !deleted.get(slot) && catalog.isWritable()
+                && sameExceptCopies(catalog.readRow(slot), book)) {
+            copies.put(slot, parseCopies(book));
+            return;
+        } else {
+            replaced[slot] = book;
+            replacedSlots.set(slot);
+            deleted.clear(slot);
+            copies.remove(slot);
+        }
+        booksDirty = true;
+    }
+
+    @Override
+    public void deleteBook(String id) {
+        int slot = findSlot(id);
+        if (slot < 0) {
+            added.remove(id);
+        } else {
+            replaced[slot] = null;
+            replacedSlots.clear(slot);
+            deleted.set(slot);
+            copies.remove(slot);
+        }
+        booksDirty = true;
+    }
+
+    // A row of the catalog file with its pending copies
+    private String[] fileRow(int slot) {
+        String[] row = catalog.readRow(slot);
+        Integer changed = copies.get(slot);
+        if (changed != null) {
+            row[MappedCatalogStore.COPIES] = String.valueOf(changed);
+        }
+        return row;
+    }
+
+    // Whether a book differs from its row in the file only in copies, as the file would store it
+    private static boolean sameExceptCopies(String[] row, String[] book) {
+        for (int column = 0; column < MappedCatalogStore.COLUMNS; column++) {
+            if (column == MappedCatalogStore.YEAR) {
+                if (Book.parseNumber(row[column]) != Book.parseNumber(book[column])) {
+                    return false;
+                }
+            } else if (column != MappedCatalogStore.COPIES && !row[column].equals(book[column])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseCopies(String[] book) {
+        return Book.parseNumber(book[MappedCatalogStore.COPIES]);
+    }
+
+    // Merge the catalog file with the changes. Only slot numbers and changed rows are collected;
+    // rows that are still in the file are decoded when the returned list is read.
+    @Override
+    public List<String[]> scanBooks(String fromId, String toId) {
+        int start = fromId == null ? 0 : lowerBound(fromId);
+        int end = toId == null ? order.length : Math.max(start, lowerBound(toId));
+        Collection<String[]> extra = InMemoryLibraryStore.range(added, fromId, toId).values();
+
+        int capacity = end - start + extra.size();
+        int[] slots = new int[capacity];
+        String[][] rows = new String[capacity][];
+        int size = 0;
+        int position = start;
+        for (String[] book : extra) {
+            int insertAt = lowerBound(book[0]);
+            for (; position < insertAt; position++) {
+                size = addSlot(slots, rows, size, order[position]);
+            }
+            slots[size] = -1;
+            rows[size++] = book;
+        }
+        for (; position < end; position++) {
+            size = addSlot(slots, rows, size, order[position]);
+        }
+        IndexFile index = bookIndex;
+        if (catalog == null || index == null
+                || !index.matches(catalog.getVersion(), catalog.getChecksum(), catalog.getSnapshotSeq())) {
+            index = null;
+        }
+        return new CatalogView(catalog, index, Arrays.copyOf(slots, size), Arrays.copyOf(rows, size));
+    }
+
+    // Edited books keep no slot, since the file and its index no longer describe them
+    private int addSlot(int[] slots, String[][] rows, int size, int slot) {
+        if (deleted.get(slot)) {
+            return size;
+        }
+        slots[size] = replaced[slot] != null ? -1 : slot;
+        rows[size] = replaced[slot] != null ? replaced[slot] : copies.containsKey(slot) ? fileRow(slot) : null;
+        return size + 1;
+    }
+
+    // Position in ID order of the first catalog book with an ID >= id
+    private int lowerBound(String id) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (catalog.readId(order[middle]).compareTo(id) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int findSlot(String id) {
+        int position = lowerBound(id);
+        if (position < order.length && catalog.readId(order[position]).equals(id)) {
+            return order[position];
+        }
+        return -1;
+    }
+
+    @Override
+    public void putLoan(String[] loan) {
+        loansDirty |= loans.add(loan);
+    }
+
+    @Override
+    public void deleteLoan(String[] loan) {
+        loansDirty |= loans.remove(loan);
+    }
+
+    @Override
+    public List<String[]> scanLoans(String fromBookId, String toBookId) {
+        return new ArrayList<>(InMemoryLibraryStore.loanRange(loans, fromBookId, toBookId));
+    }
+
+    @Override
+    public String[] getUser(String id) {
+        return users.get(id);
+    }
+
+    @Override
+    public void putUser(String[] user) {
+        users.put(user[0], user);
+        usersDirty = true;
+    }
+
+    @Override
+    public void deleteUser(String id) {
+        usersDirty |= users.remove(id) != null;
+    }
+
+    @Override
+    public List<String[]> scanUsers(String fromId, String toId) {
+        return new ArrayList<>(InMemoryLibraryStore.range(users, fromId, toId).values());
+    }
+
+    // Write the data sets that changed. Changed copies alone are written into the mapped catalog;
+    // other changes to the catalog go to a new generation, which replaces the mapped one, and
+    // lists returned by earlier scans keep reading the old mapping.
+    @Override
+    public void checkpoint(long seq) throws IOException {
+        if (!booksDirty && !copies.isEmpty()) {
+            for (Map.Entry<Integer, Integer> change : copies.entrySet()) {
+                catalog.writeCopies(change.getKey(), change.getValue());
+            }
+            catalog.commitCopies(seq);
+            copies.clear();
+            booksSeq = seq;
+        }
+        if (booksDirty) {
+            File generation = MappedCatalogStore.generationFile(dir, seq);
+            MappedCatalogStore.write(generation, scanBooks(null, null), seq);
+            MappedCatalogStore previous = catalog;
+            setCatalog(MappedCatalogStore.open(generation));
+            if (previous != null) {
+                previous.close();
+            }
+            MappedCatalogStore.deleteGenerations(dir, generation);
+            openBookIndex();
+            booksDirty = false;
+        }
+        if (loansDirty) {
+            writeSnapshot(ISSUED_FILE, new ArrayList<>(loans), seq);
+            loansSeq = seq;
+            loansDirty = false;
+        }
+        if (usersDirty) {
+            writeSnapshot(USERS_FILE, new ArrayList<>(users.values()), seq);
+            usersSeq = seq;
+            usersDirty = false;
+        }
+    }
+
+    // Loans and users files hold the last journal sequence they contain and the rows in key
+    // order, in compressed blocks
+    private void writeSnapshot(String fileName, ArrayList<String[]> rows, long seq) throws IOException {
+        byte[] contents = BlockFile.encode(seq, rows);
+        AtomicFiles.write(new File(dir, fileName), channel -> {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        });
+    }
+
+    // Map the index of the current catalog generation, or rebuild it in the background
+    private void openBookIndex() {
+        MappedCatalogStore target = catalog;
+        File file = indexFile(target.getFile());
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File candidate : files) {
+                if (INDEX_NAME.matcher(candidate.getName()).matches() && !candidate.equals(file)) {
+                    candidate.delete();
+                }
+            }
+        }
+        int version = target.getVersion();
+        int checksum = target.getChecksum();
+        long seq = target.getSnapshotSeq();
+        IndexFile index = IndexFile.open(file);
+        if (index != null && index.matches(version, checksum, seq)) {
+            replaceIndex(index);
+            return;
+        }
+        closeQuietly(index);
+        indexer.execute(() -> {
+            if (catalog != target) {
+                return; // superseded by a newer generation
+            }
+            IndexFile.Builder builder = new IndexFile.Builder();
+            for (int slot = 0; slot < target.size(); slot++) {
+                String[] book = target.readRow(slot);
+                for (Map.Entry<String, Integer> term : BookSearchIndex.frequencies(book).entrySet()) {
+                    builder.add(TERMS_SECTION, term.getKey(), slot, term.getValue());
+                }
+                builder.add(PUBLISHER_SECTION, book[MappedCatalogStore.PUBLISHER], slot);
+                builder.add(GENRE_SECTION, book[MappedCatalogStore.GENRE], slot);
+            }
+            replaceIndex(build(file, version, checksum, seq, builder));
+        });
+    }
+
+    // Runs on the index thread; a failed build leaves scans without an index
+    private static IndexFile build(File file, int version, int checksum, long seq, IndexFile.Builder builder) {
+        try {
+            IndexFile.write(file, version, checksum, seq, builder);
+            return IndexFile.open(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void replaceIndex(IndexFile index) {
+        if (index == null) {
+            return;
+        }
+        IndexFile previous = bookIndex;
+        bookIndex = index;
+        // Scans still using the previous index keep working: closing does not unmap it
+        closeQuietly(previous);
+    }
+
+    private static File indexFile(File catalogFile) {
+        String name = catalogFile.getName();
+        return new File(catalogFile.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".idx");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // Read-only mapping; nothing to lose
+        }
+    }
+
+    // Data sets that have not changed keep older files, so replay starts after the oldest one
+    @Override
+    public long getCheckpointSeq() {
+        return Math.min(booksSeq, Math.min(loansSeq, usersSeq));
+    }
+
+    @Override
+    public void close() throws IOException {
+        indexer.shutdown();
+        closeQuietly(bookIndex);
+        if (catalog != null) {
+            catalog.close();
+        }
+    }
+
+    // Books from a scan: slots of rows still in the catalog file, or the changed rows themselves,
+    // and the catalog's index if it is ready
+    static final class CatalogView extends AbstractList<String[]> implements RandomAccess {
+        private final MappedCatalogStore catalog;
+        private final IndexFile index;
+        private final int[] slots;
+        private final String[][] rows;
+
+        CatalogView(MappedCatalogStore catalog, IndexFile index, int[] slots, String[][] rows) {
+            this.catalog = catalog;
+            this.index = index;
+            this.slots = slots;
+            this.rows = rows;
+        }
+
+        @Override
+        public String[] get(int index) {
+            String[] row = rows[index];
+            return row != null ? row : catalog.readRow(slots[index]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+
+        // Book ID, without decoding the rest of the row
+        String getId(int index) {
+            String[] row = rows[index];
+            return row != null ? row[0] : catalog.readId(slots[index]);
+        }
+
+        // One field of a row, as a String or, for year and copies, an Integer
+        Object getField(int index, int column) {
+            String[] row = rows[index];
+            if (column == MappedCatalogStore.YEAR || column == MappedCatalogStore.COPIES) {
+                return row != null ? Book.parseNumber(row[column]) : catalog.getInt(slots[index], column);
+            }
+            return row != null ? row[column] : catalog.readString(slots[index], column);
+        }
+
+        // Dictionary code of an author, publisher or genre, or -1 if the row is not from the file
+        int getCode(int index, int column) {
+            return rows[index] == null ? catalog.getCode(slots[index], column) : -1;
+        }
+
+        // Code of a value in the catalog file's dictionary, or -1
+        int findCode(int column, String value) {
+            return catalog == null ? -1 : catalog.findCode(column, value);
+        }
+
+        // Index of the catalog file (see TERMS_SECTION), or null
+        IndexFile getIndex() {
+            return index;
+        }
+
+        // Slot of the catalog file whose text the row has, so the index describes it; -1 for
+        // books that were added or edited since the file was written
+        int getSlot(int row) {
+            return slots[row];
+        }
+
+        // Number of slots in the catalog file
+        int getSlotCount() {
+            return catalog == null ? 0 : catalog.size();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+
+// Store that keeps everything on the heap and never touches the disk.
+// Used for tests and benchmarks (-Dlibrary.store=memory); nothing survives a restart.
+class InMemoryLibraryStore implements LibraryStore {
+    private final TreeMap<String, String[]> books = new TreeMap<>();
+    private final TreeSet<String[]> loans = new TreeSet<>(LOAN_ORDER);
+    private final TreeMap<String, String[]> users = new TreeMap<>();
+    private long checkpointSeq;
+
+    @Override
+    public String[] getBook(String id) {
+        return books.get(id);
+    }
+
+    @Override
+    public void putBook(String[] book) {
+        books.put(book[0], book);
+    }
+
+    @Override
+    public void deleteBook(String id) {
+        books.remove(id);
+    }
+
+    @Override
+    public List<String[]> scanBooks(String fromId, String toId) {
+        return new ArrayList<>(range(books, fromId, toId).values());
+    }
+
+    @Override
+    public void putLoan(String[] loan) {
+        loans.add(loan);
+    }
+
+    @Override
+    public void deleteLoan(String[] loan) {
+        loans.remove(loan);
+    }
+
+    @Override
+    public List<String[]> scanLoans(String fromBookId, String toBookId) {
+        return new ArrayList<>(loanRange(loans, fromBookId, toBookId));
+    }
+
+    @Override
+    public String[] getUser(String id) {
+        return users.get(id);
+    }
+
+    @Override
+    public void putUser(String[] user) {
+        users.put(user[0], user);
+    }
+
+    @Override
+    public void deleteUser(String id) {
+        users.remove(id);
+    }
+
+    @Override
+    public List<String[]> scanUsers(String fromId, String toId) {
+        return new ArrayList<>(range(users, fromId, toId).values());
+    }
+
+    @Override
+    public void checkpoint(long seq) {
+        checkpointSeq = seq;
+    }
+
+    @Override
+    public long getCheckpointSeq() {
+        return checkpointSeq;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Entries with from <= key < to; null bounds are open
+    static <V> SortedMap<String, V> range(NavigableMap<String, V> map, String from, String to) {
+        if (from == null && to == null) {
+            return map;
+        } else if (from == null) {
+            return map.headMap(to, false);
+        } else if (to == null) {
+            return map.tailMap(from, true);
+        }
+        return from.compareTo(to) < 0 ? map.subMap(from, true, to, false) : new TreeMap<>();
+    }
+
+    // Loans with fromBookId <= book ID < toBookId; a single-field key sorts before every
+    // loan of that book
+    static NavigableSet<String[]> loanRange(NavigableSet<String[]> loans, String fromBookId, String toBookId) {
+        if (fromBookId == null && toBookId == null) {
+            return loans;
+        } else if (fromBookId == null) {
+            return loans.headSet(new String[] {toBookId}, false);
+        } else if (toBookId == null) {
+            return loans.tailSet(new String[] {fromBookId}, true);
+        }
+        return fromBookId.compareTo(toBookId) < 0
+            ? loans.subSet(new String[] {fromBookId}, true, new String[] {toBookId}, false)
+            : new TreeSet<>(LOAN_ORDER);
+    }
+}
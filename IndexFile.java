@@ -0,0 +1,243 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Memory-mapped secondary index (e.g. books-<seq>.idx next to books-<seq>.bin).
+//
+// An index maps string keys to postings in one or more sections. A posting is a fixed number of
+// ints per section, its width: a position in the data file, followed by any values stored with
+// it. Each section is a sorted array of (key ref, postings start, postings count) entries that
+// is binary searched in place, followed by the postings themselves; key bytes live in a UTF-8
+// heap at the end. Nothing is decoded when the file is opened.
+//
+// The header records the version, sequence and checksum of the data file the index was built
+// from. An index whose data file has since been replaced is stale and must be rebuilt.
+class IndexFile implements Closeable {
+    private static final int MAGIC = 0x4C4D5831; // "LMX1"
+    private static final int VERSION = 2;
+    // magic, version, data version, data checksum, data sequence, section count, reserved
+    private static final int HEADER_SIZE = 32;
+    private static final int SECTION_SIZE = 20;  // id, width, key count, entries offset, postings offset
+    private static final int ENTRY_SIZE = 16;    // key offset, key length, postings start, count
+    private static final int[] NONE = new int[0];
+
+    // Collects postings in memory before they are written
+    static final class Builder {
+        private final TreeMap<Integer, Section> sections = new TreeMap<>();
+
+        // Add a posting: values are the ints of the posting, as many as the section's width
+        void add(int section, String key, int... values) {
+            Section target = sections.computeIfAbsent(section, s -> new Section(values.length));
+            if (values.length != target.width) {
+                throw new IllegalArgumentException("Section " + section + " has postings of " + target.width + " ints");
+            }
+            target.keys.computeIfAbsent(key, k -> new Postings()).add(values);
+        }
+    }
+
+    private static final class Section {
+        final int width;
+        final TreeMap<String, Postings> keys = new TreeMap<>();
+
+        Section(int width) {
+            this.width = width;
+        }
+    }
+
+    private static final class Postings {
+        int[] values = new int[4];
+        int size;
+
+        void add(int[] posting) {
+            if (size + posting.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + posting.length, values.length * 2));
+            }
+            System.arraycopy(posting, 0, values, size, posting.length);
+            size += posting.length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int dataVersion;
+    private final int dataChecksum;
+    private final long dataSeq;
+    private final int heapOffset;
+    // Section id -> offset of its entry in the section table
+    private final Map<Integer, Integer> sections = new HashMap<>();
+
+    private IndexFile(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        this.dataVersion = buffer.getInt(8);
+        this.dataChecksum = buffer.getInt(12);
+        this.dataSeq = buffer.getLong(16);
+        int count = buffer.getInt(24);
+        this.heapOffset = buffer.getInt(28);
+        if (count < 0 || HEADER_SIZE + (long) count * SECTION_SIZE > heapOffset || heapOffset > buffer.capacity()) {
+            throw new IOException("Index file is truncated");
+        }
+        for (int i = 0; i < count; i++) {
+            int table = HEADER_SIZE + i * SECTION_SIZE;
+            sections.put(buffer.getInt(table), table);
+        }
+    }
+
+    // Map an index file, or return null if it is missing or unreadable
+    static IndexFile open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return new IndexFile(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // True if the index was built from this exact data file
+    boolean matches(int version, int checksum, long seq) {
+        return dataVersion == version && dataChecksum == checksum && dataSeq == seq;
+    }
+
+    // Postings stored under key in a section, in the order they were added, one after another
+    int[] find(int section, String key) {
+        Integer table = sections.get(section);
+        if (table == null) {
+            return NONE;
+        }
+        int low = 0;
+        int high = buffer.getInt(table + 8);
+        int entries = buffer.getInt(table + 12);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int entry = entries + middle * ENTRY_SIZE;
+            int order = readKey(entry).compareTo(key);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle;
+            } else {
+                return readPostings(table, entry);
+            }
+        }
+        return NONE;
+    }
+
+    // Pass every key of a section with its postings to action, in key order
+    void forEach(int section, java.util.function.BiConsumer<String, int[]> action) {
+        Integer table = sections.get(section);
+        if (table == null) {
+            return;
+        }
+        int count = buffer.getInt(table + 8);
+        int entries = buffer.getInt(table + 12);
+        for (int i = 0; i < count; i++) {
+            int entry = entries + i * ENTRY_SIZE;
+            action.accept(readKey(entry), readPostings(table, entry));
+        }
+    }
+
+    private int[] readPostings(int table, int entry) {
+        int width = buffer.getInt(table + 4);
+        int[] values = new int[buffer.getInt(entry + 12) * width];
+        int start = buffer.getInt(table + 16) + buffer.getInt(entry + 8) * width * 4;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getInt(start + i * 4);
+        }
+        return values;
+    }
+
+    private String readKey(int entry) {
+        byte[] bytes = new byte[buffer.getInt(entry + 4)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(heapOffset + buffer.getInt(entry));
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Write an index for the data file with the given version, checksum and sequence.
+    // The file is replaced atomically.
+    static void write(File file, int dataVersion, int dataChecksum, long dataSeq, Builder builder) throws IOException {
+        AtomicFiles.write(file, channel -> writeTo(channel, dataVersion, dataChecksum, dataSeq, builder));
+    }
+
+    private static void writeTo(FileChannel channel, int dataVersion, int dataChecksum, long dataSeq,
+                                Builder builder) throws IOException {
+        long position = HEADER_SIZE + (long) builder.sections.size() * SECTION_SIZE;
+        long heapSize = 0;
+        List<int[]> table = new ArrayList<>();
+        for (Map.Entry<Integer, Section> section : builder.sections.entrySet()) {
+            long postingInts = 0;
+            for (Map.Entry<String, Postings> key : section.getValue().keys.entrySet()) {
+                postingInts += key.getValue().size;
+                heapSize += key.getKey().getBytes(StandardCharsets.UTF_8).length;
+            }
+            int entries = (int) position;
+            position += (long) section.getValue().keys.size() * ENTRY_SIZE;
+            table.add(new int[] {section.getKey(), section.getValue().width, section.getValue().keys.size(), entries, (int) position});
+            position += postingInts * 4;
+        }
+        if (position + heapSize > Integer.MAX_VALUE) {
+            throw new IOException("Index is too large for a single index file");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dataVersion);
+        out.writeInt(dataChecksum);
+        out.writeLong(dataSeq);
+        out.writeInt(table.size());
+        out.writeInt((int) position);
+        for (int[] section : table) {
+            for (int value : section) {
+                out.writeInt(value);
+            }
+        }
+        for (Section section : builder.sections.values()) {
+            int start = 0;
+            for (Map.Entry<String, Postings> key : section.keys.entrySet()) {
+                byte[] bytes = key.getKey().getBytes(StandardCharsets.UTF_8);
+                int count = key.getValue().size / section.width;
+                out.writeInt(heap.size());
+                out.writeInt(bytes.length);
+                out.writeInt(start);
+                out.writeInt(count);
+                heap.write(bytes);
+                start += count;
+            }
+            for (Postings postings : section.keys.values()) {
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.values[i]);
+                }
+            }
+        }
+        heap.writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
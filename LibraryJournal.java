@@ -0,0 +1,215 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only journal of library mutations (issue, return, book and user changes).
+// The LibraryStore only has to be durable at checkpoints; on startup the journal is replayed on
+// top of it, so the cost of persisting a single operation does not depend on the size of the
+// catalog. Sequence numbers are assigned by the caller and must increase.
+class LibraryJournal implements Closeable {
+    // Record types. Every record carries the resulting rows, so replaying it twice is harmless.
+    static final byte BOOK_PUT = 1;      // book row
+    static final byte BOOK_DELETE = 2;   // book ID
+    static final byte ISSUE = 3;         // loan, then the book row with its new copies
+    static final byte RETURN = 4;        // loan, then the book row with its new copies
+    static final byte USER_PUT = 5;      // user row
+    static final byte USER_DELETE = 6;   // user ID
+
+    private static final int MAGIC = 0x4C4D4A31; // "LMJ1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;   // magic, version, base sequence
+    private static final int FRAME_SIZE = 8;     // payload length, CRC32 of payload
+
+    // Callback used while replaying the journal
+    interface Handler {
+        void apply(long seq, byte type, String[] fields) throws IOException;
+    }
+
+    // A single journalled change
+    static final class Record {
+        final long seq;
+        final byte type;
+        final String[] fields;
+
+        Record(long seq, byte type, String[] fields) {
+            this.seq = seq;
+            this.type = type;
+            this.fields = fields;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private long baseSeq = 0;
+    private long lastSeq = 0;
+    private long recordCount = 0;
+
+    LibraryJournal(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Replay all intact records in order and position the journal for appending.
+    // A torn record at the tail (e.g. the process was killed mid-write) is discarded.
+    long replay(Handler handler) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            writeHeader(0);
+            return 0;
+        }
+
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file.getName() + " is not a library journal");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        baseSeq = in.readLong();
+
+        long validEnd = HEADER_SIZE;
+        long lastSeq = baseSeq;
+        long count = 0;
+        CRC32 crc = new CRC32();
+        while (validEnd + FRAME_SIZE <= size) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || validEnd + FRAME_SIZE + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            long seq = record.readLong();
+            byte type = record.readByte();
+            String[] fields = new String[record.readUnsignedByte()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = record.readUTF();
+            }
+            handler.apply(seq, type, fields);
+
+            lastSeq = seq;
+            validEnd += FRAME_SIZE + length;
+            count++;
+        }
+
+        if (validEnd < size) {
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+        this.lastSeq = lastSeq;
+        this.recordCount = count;
+        return count;
+    }
+
+    // Append a batch of records with a single write and force them to disk (group commit).
+    // If the write fails the journal is cut back to where the batch started, so a retry
+    // never follows a torn record.
+    synchronized void appendAll(List<Record> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        long seq = lastSeq;
+        for (Record record : records) {
+            if (record.seq <= seq) {
+                throw new IOException("Journal sequence " + record.seq + " is out of order");
+            }
+            seq = record.seq;
+            writeFrame(out, record);
+        }
+        out.flush();
+
+        long start = channel.position();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException ignored) {
+                // The original failure is the one worth reporting
+            }
+            throw e;
+        }
+        lastSeq = seq;
+        recordCount += records.size();
+    }
+
+    private static void writeFrame(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(record.seq);
+        payload.writeByte(record.type);
+        payload.writeByte(record.fields.length);
+        for (String field : record.fields) {
+            payload.writeUTF(field == null ? "" : field);
+        }
+        payload.flush();
+
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        out.writeInt(data.length);
+        out.writeInt((int) crc.getValue());
+        out.write(data);
+    }
+
+    // Drop every record up to seq once they are all contained in durable snapshots (checkpoint).
+    // The new base sequence is written before the records are cut off, so a crash in between
+    // only leaves records that replay skips anyway.
+    synchronized void truncate(long seq) throws IOException {
+        if (seq < lastSeq) {
+            throw new IOException("Journal has records after checkpoint " + seq);
+        }
+        writeHeader(seq);
+        channel.force(true);
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    // Records since the last checkpoint
+    synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    private void writeHeader(long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(base);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+        baseSeq = base;
+        lastSeq = base;
+        recordCount = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
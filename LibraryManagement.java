@@ -2,6 +2,7 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.*;
 import javax.swing.text.JTextComponent;
 
@@ -10,7 +11,11 @@ import java.awt.event.*;
 import java.util.*;
 import java.io.*;
 import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
 public class LibraryManagement extends JFrame {
     // Modern color scheme
@@ -43,21 +48,76 @@ public class LibraryManagement extends JFrame {
     private static final int ISSUED_CONTACT_INDEX = 3;
     private static final int ISSUED_DATE_TIME_INDEX = 4;
 
-    // Borrowing period constant
-    private static final int BORROWING_PERIOD_DAYS = 14;
+    // Data sets that can be exported
+    private static final int EXPORT_BOOKS = 0;
+    private static final int EXPORT_LOANS = 1;
+    private static final int EXPORT_USERS = 2;
+    private static final String[] EXPORT_NAMES = {"books", "issued_books", "users"};
+    private static final String[][] EXPORT_COLUMNS = {
+        {"id", "title", "author", "publisher", "year", "copies", "genre"},
+        {"bookId", "userId", "userName", "contact", "issued"},
+        {"id", "name", "contact"}  // passwords are never exported
+    };
 
     // Data structures
-    private ArrayList<String[]> books = new ArrayList<>();
-    private ArrayList<String[]> issuedBooks = new ArrayList<>();
-    private ArrayList<String[]> users = new ArrayList<>();
+    private MappedBookList books = new MappedBookList(new ArrayList<>());
+    private LoanList issuedBooks = new LoanList(new ArrayList<>(), DUE_SOON_MILLIS);
+    private UserList users = new UserList(0);
+    private SuggestionIndex suggestions = new SuggestionIndex(Collections.emptyList(), Collections.emptyList());
     private boolean isAdmin = false;
     private String currentUserId, currentUserName, currentUserContact;
 
+    // Data lives in a LibraryStore (-Dlibrary.store=file|paged|memory) in -Dlibrary.dataDir.
+    // The append-only journal in front of it is replayed on top of the last checkpoint.
+    private static final File DATA_DIR = new File(System.getProperty("library.dataDir", "."));
+    private static final String JOURNAL_FILE = "library.journal";
+    private LibraryStore store;
+    private LibraryJournal journal;
+
+    // Data is loaded in the background. Both futures complete on the Swing thread once the
+    // data has been handed over, the catalog once its indexes are attached too; login only
+    // waits for the users.
+    private final CompletableFuture<Void> usersLoaded = new CompletableFuture<>();
+    private final CompletableFuture<Void> catalogLoaded = new CompletableFuture<>();
+
+    // Background writes: the store is checkpointed once no change has been made for a while
+    // Both can be tuned with -Dlibrary.checkpointIdleMs=... and -Dlibrary.commitWindowMs=...
+    private static final long CHECKPOINT_IDLE_MS = Long.getLong("library.checkpointIdleMs", 5000);
+    // Changes arriving within this window of each other are committed to the journal together
+    private static final long COMMIT_WINDOW_MS = Long.getLong("library.commitWindowMs", 20);
+    // The store is also checkpointed once the journal holds this many records or bytes
+    private static final long CHECKPOINT_RECORDS = Long.getLong("library.checkpointRecords", 10000);
+    private static final long CHECKPOINT_BYTES = Long.getLong("library.checkpointBytes", 4L * 1024 * 1024);
+    private static final long SHUTDOWN_FLUSH_MS = 10000;
+
+    // The dashboard lists loans due within this many hours (-Dlibrary.dueSoonHours=...)
+    private static final long DUE_SOON_HOURS = Long.getLong("library.dueSoonHours", 24);
+    private static final long DUE_SOON_MILLIS = DUE_SOON_HOURS * 60 * 60 * 1000;
+    // How often the due schedule is moved on to the current time
+    private static final int DUE_CHECK_MS = 60 * 1000;
+    private static final int DUE_SOON_SHOWN = 50;
+    // Completions shown under the catalog search field
+    private static final int SUGGESTIONS_SHOWN = 8;
+    // Values listed per facet next to the catalog, most books first (selected ones always show)
+    private static final int FACET_VALUES_SHOWN = 30;
+    private PersistenceService persistence;
+    private int pendingWrites;
+    private String persistenceError;
+    // Exports in progress, and whether an import is; both only change on the Swing thread
+    private int exportsRunning;
+    private boolean importRunning;
+
     // UI components
     private BooksTableModel booksTableModel;
     private JLabel statusLabel;
+    private JLabel pendingLabel;
     private JPanel mainPanel;
     private JTabbedPane tabbedPane;
+    // Dashboard figures, pushed from the due schedule when loans change status
+    private JLabel issuedCountLabel, overdueCountLabel, dueTodayCountLabel, dueSoonCountLabel;
+    private DefaultListModel<String> dueSoonListModel;
+    private boolean dueUpdateQueued;
+    private javax.swing.Timer dueTimer;
 
     // Theme properties
     private Color primaryColor = new Color(63, 81, 181); // Indigo
@@ -73,9 +133,7 @@ public class LibraryManagement extends JFrame {
 
     public LibraryManagement() {
         initializeUI();
-        loadData();
-        loadIssuedData();
-        loadUsersData();
+        startLoading();
         showLoginDialog();
     }
 
@@ -162,6 +220,12 @@ public class LibraryManagement extends JFrame {
         buttonPanel.add(loginButton);
         buttonPanel.add(registerButton);
         formPanel.add(buttonPanel, gbc);
+        
+        // Logging in needs the users, registering also needs the journal
+        loginButton.setEnabled(false);
+        registerButton.setEnabled(false);
+        usersLoaded.thenRun(() -> SwingUtilities.invokeLater(() -> loginButton.setEnabled(true)));
+        catalogLoaded.thenRun(() -> SwingUtilities.invokeLater(() -> registerButton.setEnabled(true)));
     
         loginButton.addActionListener(e -> {
             String userId = idField.getText().trim();
@@ -174,16 +238,15 @@ public class LibraryManagement extends JFrame {
                 loginDialog.dispose();
                 showMainPanel();
             } else {
-                for (String[] user : users) {
-                    if (user[USER_ID_INDEX].equals(userId) && user[USER_PASSWORD_INDEX].equals(password)) {
-                        isAdmin = false;
-                        currentUserId = user[USER_ID_INDEX];
-                        currentUserName = user[USER_NAME_INDEX];
-                        currentUserContact = user[USER_CONTACT_INDEX];
-                        loginDialog.dispose();
-                        showMainPanel();
-                        return;
-                    }
+                User user = users.findById(userId);
+                if (user != null && user.password.equals(password)) {
+                    isAdmin = false;
+                    currentUserId = user.id;
+                    currentUserName = user.name;
+                    currentUserContact = user.contact;
+                    loginDialog.dispose();
+                    showMainPanel();
+                    return;
                 }
                 JOptionPane.showMessageDialog(this, "Invalid credentials", "Login Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -285,17 +348,22 @@ public class LibraryManagement extends JFrame {
                 return;
             }
             
-            String[] user = {
-                "USER-" + (users.size() + 1000),
+            // Numbered after the user count, skipping IDs still taken after deletions
+            int number = users.size() + 1000;
+            while (users.findById("USER-" + number) != null) {
+                number++;
+            }
+            User user = new User(
+                "USER-" + number,
                 nameField.getText().trim(),
                 contactField.getText().trim(),
                 password
-            };
-            if (validateRegistration(user)) {
+            );
+            if (validateRegistration(user) && canSave()) {
                 users.add(user);
-                saveUsersData();
+                logMutation(LibraryJournal.USER_PUT, user.toRow());
                 JOptionPane.showMessageDialog(dialog, 
-                    "Registration successful!\nYour User ID: " + user[USER_ID_INDEX], 
+                    "Registration successful!\nYour User ID: " + user.id, 
                     "Registration Complete", 
                     JOptionPane.INFORMATION_MESSAGE);
                 dialog.dispose();
@@ -318,27 +386,34 @@ public class LibraryManagement extends JFrame {
     }
 
     // Validate user registration
-    private boolean validateRegistration(String[] user) {
+    private boolean validateRegistration(User user) {
+        String error = checkUser(user.toRow());
+        if (error != null) {
+            JOptionPane.showMessageDialog(this, error, "Registration Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+    // Field rules for a user row; returns the problem or null. Also used by the bulk import.
+    private static String checkUser(String[] user) {
         for (String field : user) {
             if (field.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "All fields are mandatory!", "Registration Error", JOptionPane.ERROR_MESSAGE);
-                return false;
+                return "All fields are mandatory!";
             }
         }
         
         // Validate contact number (only digits)
         if (!user[USER_CONTACT_INDEX].matches("\\d+")) {
-            JOptionPane.showMessageDialog(this, "Contact number should contain only digits!", "Registration Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return "Contact number should contain only digits!";
         }
         
         // Validate password length
         if (user[USER_PASSWORD_INDEX].length() < 6) {
-            JOptionPane.showMessageDialog(this, "Password should be at least 6 characters long!", "Registration Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return "Password should be at least 6 characters long!";
         }
         
-        return true;
+        return null;
     }
 
     // Main panel with tabs
@@ -397,7 +472,18 @@ public class LibraryManagement extends JFrame {
         
         statusLabel = new JLabel("Logged in as: " + currentUserName);
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
-        statusPanel.add(statusLabel, BorderLayout.WEST);
+        
+        // Pending background writes
+        pendingLabel = new JLabel();
+        pendingLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        updatePendingLabel();
+        
+        JPanel statusLeftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        statusLeftPanel.setBackground(BACKGROUND_COLOR);
+        statusLeftPanel.add(statusLabel);
+        statusLeftPanel.add(Box.createHorizontalStrut(20));
+        statusLeftPanel.add(pendingLabel);
+        statusPanel.add(statusLeftPanel, BorderLayout.WEST);
         
         JLabel dateLabel = new JLabel(new SimpleDateFormat("EEEE, MMMM d, yyyy").format(new Date()));
         dateLabel.setFont(new Font("Arial", Font.PLAIN, 12));
@@ -456,6 +542,24 @@ public class LibraryManagement extends JFrame {
         searchPanel.add(searchLabel);
         searchPanel.add(searchField);
         titlePanel.add(searchPanel, BorderLayout.EAST);
+        SearchSuggestions searchSuggestions = new SearchSuggestions(searchField);
+        
+        // Offers the search with misspelled words corrected; a click runs it
+        JLabel didYouMeanLabel = new JLabel(" ");
+        didYouMeanLabel.setFont(new Font("Arial", Font.ITALIC, 13));
+        didYouMeanLabel.setForeground(PRIMARY_COLOR);
+        didYouMeanLabel.setHorizontalAlignment(JLabel.RIGHT);
+        didYouMeanLabel.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        didYouMeanLabel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                String corrected = books.correct(searchField.getText());
+                if (corrected != null) {
+                    searchField.setText(corrected);
+                }
+            }
+        });
+        titlePanel.add(didYouMeanLabel, BorderLayout.SOUTH);
         
         // Table
         booksTableModel = new BooksTableModel();
@@ -507,18 +611,17 @@ public class LibraryManagement extends JFrame {
             }
         });
         
-        // Search functionality
+        // Search functionality: the model shows the ranked matches from the catalog's search index
         searchField.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) { filter(); }
             public void removeUpdate(DocumentEvent e) { filter(); }
             public void changedUpdate(DocumentEvent e) { filter(); }
             private void filter() {
                 String text = searchField.getText();
-                if (text.trim().length() == 0) {
-                    sorter.setRowFilter(null);
-                } else {
-                    sorter.setRowFilter(RowFilter.regexFilter("(?i)" + text));
-                }
+                booksTableModel.setQuery(text);
+                searchSuggestions.update();
+                String corrected = text.trim().isEmpty() ? null : books.correct(text);
+                didYouMeanLabel.setText(corrected == null ? " " : "Did you mean: " + corrected + "?");
             }
         });
 
@@ -541,9 +644,14 @@ public class LibraryManagement extends JFrame {
             deleteButton.setBackground(ERROR_COLOR);
             deleteButton.addActionListener(e -> deleteBook(table));
             
+            JButton importButton = createStyledButton("Import Books", 130, 40, "Import books from a CSV or TSV file");
+            importButton.addActionListener(e -> importFile(true));
+            
             buttonPanel.add(addButton);
             buttonPanel.add(editButton);
             buttonPanel.add(deleteButton);
+            buttonPanel.add(importButton);
+            buttonPanel.add(createExportButton(EXPORT_BOOKS));
         } else {
             JButton issueButton = createStyledButton("Issue Book", 120, 40, "Issue selected book");
             issueButton.setBackground(SUCCESS_COLOR);
@@ -557,6 +665,7 @@ public class LibraryManagement extends JFrame {
         }
         
         panel.add(titlePanel, BorderLayout.NORTH);
+        panel.add(new FacetPanel(booksTableModel), BorderLayout.WEST);
         panel.add(scrollPane, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
         
@@ -572,7 +681,8 @@ public class LibraryManagement extends JFrame {
         }
         
         int modelRow = table.convertRowIndexToModel(selectedRow);
-        String[] book = books.get(modelRow);
+        Book book = books.get(((BooksTableModel) table.getModel()).getBookIndex(modelRow));
+        String[] values = book.toRow();
         
         JDialog dialog = new JDialog(this, "Book Details", true);
         dialog.setLayout(new BorderLayout());
@@ -602,7 +712,7 @@ public class LibraryManagement extends JFrame {
             detailsPanel.add(label, gbc);
             
             gbc.gridx = 1;
-            JLabel value = new JLabel(book[i]);
+            JLabel value = new JLabel(values[i]);
             value.setFont(new Font("Arial", Font.PLAIN, 14));
             detailsPanel.add(value, gbc);
         }
@@ -618,7 +728,7 @@ public class LibraryManagement extends JFrame {
             buttonPanel.add(issueButton);
             issueButton.addActionListener(e -> {
                 dialog.dispose();
-                issueBook(book[BOOK_ID_INDEX], currentUserId, currentUserName, currentUserContact);
+                issueBook(book.id, currentUserId, currentUserName, currentUserContact);
                 booksTableModel.fireTableDataChanged();
             });
         }
@@ -676,13 +786,13 @@ public class LibraryManagement extends JFrame {
         table.getTableHeader().setBackground(PRIMARY_COLOR);
         table.getTableHeader().setForeground(Color.BLACK);
         
-        TableRowSorter<IssuedBooksTableModel> sorter = new TableRowSorter<>(model);
+        TableRowSorter<IssuedBooksTableModel> sorter = model.createSorter();
         table.setRowSorter(sorter);
 
         // Color-code overdue books
-        IssuedBooksTableRenderer renderer = new IssuedBooksTableRenderer();
+        // One renderer per column, so its alignment stays the same from cell to cell
         for (int i = 0; i < table.getColumnCount(); i++) {
-            table.getColumnModel().getColumn(i).setCellRenderer(renderer);
+            table.getColumnModel().getColumn(i).setCellRenderer(new IssuedBooksTableRenderer());
         }
         
         // Set column widths
@@ -705,7 +815,7 @@ public class LibraryManagement extends JFrame {
                 if (text.trim().length() == 0) {
                     sorter.setRowFilter(null);
                 } else {
-                    sorter.setRowFilter(RowFilter.regexFilter("(?i)" + text));
+                    sorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(text)));
                 }
             }
         });
@@ -734,6 +844,7 @@ public class LibraryManagement extends JFrame {
         buttonPanel.add(issueButton);
         buttonPanel.add(returnButton);
         buttonPanel.add(refreshButton);
+        buttonPanel.add(createExportButton(EXPORT_LOANS));
         
         panel.add(titlePanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
@@ -744,12 +855,8 @@ public class LibraryManagement extends JFrame {
 
     // User's issued books panel
     private JPanel createMyIssuedBooksPanel() {
-        ArrayList<String[]> myIssuedBooks = new ArrayList<>();
-        for (String[] issuedBook : issuedBooks) {
-            if (issuedBook[ISSUED_USER_ID_INDEX].equals(currentUserId)) {
-                myIssuedBooks.add(issuedBook);
-            }
-        }
+        // Copied, so the table keeps the loans it was built with until the tab is refreshed
+        java.util.List<Loan> myIssuedBooks = new ArrayList<>(issuedBooks.findByUser(currentUserId));
 
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBackground(BACKGROUND_COLOR);
@@ -774,12 +881,12 @@ public class LibraryManagement extends JFrame {
         table.getTableHeader().setBackground(PRIMARY_COLOR);
         table.getTableHeader().setForeground(Color.BLACK);
         
-        TableRowSorter<IssuedBooksTableModel> sorter = new TableRowSorter<>(model);
+        TableRowSorter<IssuedBooksTableModel> sorter = model.createSorter();
         table.setRowSorter(sorter);
 
-        IssuedBooksTableRenderer renderer = new IssuedBooksTableRenderer();
+        // One renderer per column, so its alignment stays the same from cell to cell
         for (int i = 0; i < table.getColumnCount(); i++) {
-            table.getColumnModel().getColumn(i).setCellRenderer(renderer);
+            table.getColumnModel().getColumn(i).setCellRenderer(new IssuedBooksTableRenderer());
         }
         
         // Set column widths
@@ -818,7 +925,7 @@ public class LibraryManagement extends JFrame {
             }
             
             int modelRow = table.convertRowIndexToModel(selectedRow);
-            String[] issuedBook = myIssuedBooks.get(modelRow);
+            Loan issuedBook = myIssuedBooks.get(modelRow);
             showIssuedBookDetailsDialog(issuedBook);
         });
         
@@ -834,16 +941,9 @@ public class LibraryManagement extends JFrame {
     }
     
     // Show issued book details dialog
-    private void showIssuedBookDetailsDialog(String[] issuedBook) {
-        String bookId = issuedBook[ISSUED_BOOK_ID_INDEX];
-        String[] book = null;
-        
-        for (String[] b : books) {
-            if (b[BOOK_ID_INDEX].equals(bookId)) {
-                book = b;
-                break;
-            }
-        }
+    private void showIssuedBookDetailsDialog(Loan issuedBook) {
+        String bookId = issuedBook.bookId;
+        Book book = findBook(bookId);
         
         if (book == null) {
             JOptionPane.showMessageDialog(this, "Book details not found.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -874,10 +974,9 @@ public class LibraryManagement extends JFrame {
         };
         
         String[] values = {
-            book[BOOK_ID_INDEX], book[BOOK_TITLE_INDEX], book[BOOK_AUTHOR_INDEX],
-            book[BOOK_PUBLISHER_INDEX], book[BOOK_YEAR_INDEX], book[BOOK_GENRE_INDEX],
-            issuedBook[ISSUED_DATE_TIME_INDEX], getDueDate(issuedBook[ISSUED_DATE_TIME_INDEX]),
-            getDaysRemaining(issuedBook[ISSUED_DATE_TIME_INDEX])
+            book.id, book.title, book.author, book.publisher, String.valueOf(book.year), book.genre,
+            issuedBook.issuedAt, Loan.formatTime(issuedBook.dueAtEpochMillis),
+            getDaysRemaining(issuedBook.daysRemaining(System.currentTimeMillis()))
         };
         
         for (int i = 0; i < labels.length; i++) {
@@ -916,21 +1015,13 @@ public class LibraryManagement extends JFrame {
                 JOptionPane.YES_NO_OPTION);
             
             if (confirm == JOptionPane.YES_OPTION) {
-                for (int i = 0; i < issuedBooks.size(); i++) {
-                    String[] entry = issuedBooks.get(i);
-                    if (entry[ISSUED_BOOK_ID_INDEX].equals(bookId) && 
-                        entry[ISSUED_USER_ID_INDEX].equals(currentUserId)) {
-                        issuedBooks.remove(i);
-                        updateBookCopies(bookId);
-                        saveData();
-                        saveIssuedData();
-                        statusLabel.setText("Book " + bookId + " returned successfully");
-                        dialog.dispose();
-                        
-                        // Refresh the My Issued Books tab
-                        tabbedPane.setComponentAt(1, createMyIssuedBooksPanel());
-                        return;
-                    }
+                Loan entry = issuedBooks.find(bookId, currentUserId);
+                if (entry != null && returnLoan(entry)) {
+                    statusLabel.setText("Book " + bookId + " returned successfully");
+                    dialog.dispose();
+                    
+                    // Refresh the My Issued Books tab
+                    tabbedPane.setComponentAt(1, createMyIssuedBooksPanel());
                 }
             }
         });
@@ -1000,7 +1091,7 @@ public class LibraryManagement extends JFrame {
                 if (text.trim().length() == 0) {
                     sorter.setRowFilter(null);
                 } else {
-                    sorter.setRowFilter(RowFilter.regexFilter("(?i)" + text));
+                    sorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(text)));
                 }
             }
         });
@@ -1027,11 +1118,9 @@ public class LibraryManagement extends JFrame {
             int modelRow = table.convertRowIndexToModel(selectedRow);
             String userId = (String) table.getValueAt(selectedRow, USER_ID_INDEX);
             
-            for (String[] user : users) {
-                if (user[USER_ID_INDEX].equals(userId)) {
-                    showUserDetailsDialog(user);
-                    break;
-                }
+            User user = users.findById(userId);
+            if (user != null) {
+                showUserDetailsDialog(user);
             }
         });
         
@@ -1052,17 +1141,9 @@ public class LibraryManagement extends JFrame {
                 "Confirm Delete", 
                 JOptionPane.YES_NO_OPTION);
                 
-            if (confirm == JOptionPane.YES_OPTION) {
+            if (confirm == JOptionPane.YES_OPTION && canSave()) {
                 // Check if user has issued books
-                boolean hasIssuedBooks = false;
-                for (String[] issuedBook : issuedBooks) {
-                    if (issuedBook[ISSUED_USER_ID_INDEX].equals(userId)) {
-                        hasIssuedBooks = true;
-                        break;
-                    }
-                }
-                
-                if (hasIssuedBooks) {
+                if (!issuedBooks.findByUser(userId).isEmpty()) {
                     JOptionPane.showMessageDialog(this, 
                         "Cannot delete user with issued books.\nPlease return all books first.", 
                         "Delete Failed", 
@@ -1070,16 +1151,21 @@ public class LibraryManagement extends JFrame {
                     return;
                 }
                 
-                users.removeIf(user -> user[USER_ID_INDEX].equals(userId));
-                saveUsersData();
+                users.removeById(userId);
+                logMutation(LibraryJournal.USER_DELETE, userId);
                 model.fireTableDataChanged();
                 statusLabel.setText("User " + userId + " deleted successfully");
             }
         });
         
+        JButton importButton = createStyledButton("Import Users", 130, 40, "Import users from a CSV or TSV file");
+        importButton.addActionListener(e -> importFile(false));
+        
         buttonPanel.add(addButton);
         buttonPanel.add(viewButton);
         buttonPanel.add(deleteButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(createExportButton(EXPORT_USERS));
         
         panel.add(titlePanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
@@ -1089,7 +1175,7 @@ public class LibraryManagement extends JFrame {
     }
     
     // Show user details dialog
-    private void showUserDetailsDialog(String[] user) {
+    private void showUserDetailsDialog(User user) {
         JDialog dialog = new JDialog(this, "User Details", true);
         dialog.setLayout(new BorderLayout());
         
@@ -1109,6 +1195,7 @@ public class LibraryManagement extends JFrame {
         gbc.anchor = GridBagConstraints.WEST;
         
         String[] labels = {"User ID:", "Full Name:", "Contact Number:"};
+        String[] values = {user.id, user.name, user.contact};
         
         for (int i = 0; i < labels.length; i++) {
             gbc.gridx = 0;
@@ -1118,18 +1205,13 @@ public class LibraryManagement extends JFrame {
             detailsPanel.add(label, gbc);
             
             gbc.gridx = 1;
-            JLabel value = new JLabel(user[i]);
+            JLabel value = new JLabel(values[i]);
             value.setFont(new Font("Arial", Font.PLAIN, 14));
             detailsPanel.add(value, gbc);
         }
         
         // Count issued books
-        int issuedCount = 0;
-        for (String[] issuedBook : issuedBooks) {
-            if (issuedBook[ISSUED_USER_ID_INDEX].equals(user[USER_ID_INDEX])) {
-                issuedCount++;
-            }
-        }
+        int issuedCount = issuedBooks.findByUser(user.id).size();
         
         gbc.gridx = 0;
         gbc.gridy = 3;
@@ -1176,9 +1258,13 @@ public class LibraryManagement extends JFrame {
         JLabel titleLabel = new JLabel("Dashboard");
         titleLabel.setFont(new Font("Arial", Font.BOLD, 18));
         titlePanel.add(titleLabel, BorderLayout.WEST);
+
+        JButton memoryButton = createStyledButton("Memory Report", 150, 35, "Show memory use and string sharing");
+        memoryButton.addActionListener(e -> showMemoryReport());
+        titlePanel.add(memoryButton, BorderLayout.EAST);
         
         // Stats panel
-        JPanel statsPanel = new JPanel(new GridLayout(2, 2, 20, 20));
+        JPanel statsPanel = new JPanel(new GridLayout(2, 3, 20, 20));
         statsPanel.setBackground(BACKGROUND_COLOR);
         statsPanel.setBorder(new EmptyBorder(20, 20, 20, 20));
         
@@ -1188,23 +1274,20 @@ public class LibraryManagement extends JFrame {
         // Total users
         JPanel totalUsersPanel = createStatPanel("Total Users", String.valueOf(users.size()), SECONDARY_COLOR);
         
-        // Books issued
-        JPanel booksIssuedPanel = createStatPanel("Books Issued", String.valueOf(issuedBooks.size()), SUCCESS_COLOR);
-        
-        // Overdue books
-        int overdueCount = 0;
-        for (String[] issuedBook : issuedBooks) {
-            String daysRemaining = getDaysRemaining(issuedBook[ISSUED_DATE_TIME_INDEX]);
-            if (daysRemaining.contains("overdue")) {
-                overdueCount++;
-            }
-        }
-        JPanel overdueBooksPanel = createStatPanel("Overdue Books", String.valueOf(overdueCount), ERROR_COLOR);
+        // Loan figures are filled in by updateDueFigures and kept current by the due schedule
+        issuedCountLabel = new JLabel();
+        overdueCountLabel = new JLabel();
+        dueTodayCountLabel = new JLabel();
+        dueSoonCountLabel = new JLabel();
+        dueSoonListModel = new DefaultListModel<>();
         
         statsPanel.add(totalBooksPanel);
         statsPanel.add(totalUsersPanel);
-        statsPanel.add(booksIssuedPanel);
-        statsPanel.add(overdueBooksPanel);
+        statsPanel.add(createStatPanel("Books Issued", issuedCountLabel, SUCCESS_COLOR));
+        statsPanel.add(createStatPanel("Overdue Books", overdueCountLabel, ERROR_COLOR));
+        statsPanel.add(createStatPanel("Due Today", dueTodayCountLabel, WARNING_COLOR));
+        statsPanel.add(createStatPanel("Due in Next " + DUE_SOON_HOURS + " Hours", dueSoonCountLabel, PRIMARY_COLOR));
+        updateDueFigures();
         
         // Recent activity panel
         JPanel activityPanel = new JPanel(new BorderLayout());
@@ -1218,8 +1301,8 @@ public class LibraryManagement extends JFrame {
         ));
         
         // Sort issued books by date (most recent first)
-        ArrayList<String[]> recentActivity = new ArrayList<>(issuedBooks);
-        recentActivity.sort((a, b) -> b[ISSUED_DATE_TIME_INDEX].compareTo(a[ISSUED_DATE_TIME_INDEX]));
+        ArrayList<Loan> recentActivity = new ArrayList<>(issuedBooks);
+        recentActivity.sort((a, b) -> Long.compare(b.issuedAtEpochMillis, a.issuedAtEpochMillis));
         
         // Take only the 5 most recent
         if (recentActivity.size() > 5) {
@@ -1228,21 +1311,16 @@ public class LibraryManagement extends JFrame {
         
         // Create activity list
         DefaultListModel<String> activityListModel = new DefaultListModel<>();
-        for (String[] activity : recentActivity) {
-            String bookId = activity[ISSUED_BOOK_ID_INDEX];
-            String bookTitle = "";
-            for (String[] book : books) {
-                if (book[BOOK_ID_INDEX].equals(bookId)) {
-                    bookTitle = book[BOOK_TITLE_INDEX];
-                    break;
-                }
-            }
+        for (Loan activity : recentActivity) {
+            String bookId = activity.bookId;
+            Book book = findBook(bookId);
+            String bookTitle = book == null ? "" : book.title;
             
             activityListModel.addElement(String.format(
                 "<html><b>%s</b> issued to <b>%s</b> on %s</html>",
                 bookTitle.isEmpty() ? bookId : bookTitle,
-                activity[ISSUED_USER_NAME_INDEX],
-                activity[ISSUED_DATE_TIME_INDEX]
+                activity.userName,
+                activity.issuedAt
             ));
         }
         
@@ -1255,15 +1333,110 @@ public class LibraryManagement extends JFrame {
         
         activityPanel.add(activityScrollPane, BorderLayout.CENTER);
         
+        // Loans coming due, soonest first
+        JPanel dueSoonPanel = new JPanel(new BorderLayout());
+        dueSoonPanel.setBackground(BACKGROUND_COLOR);
+        dueSoonPanel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createLineBorder(ACCENT_COLOR),
+            "Due in Next " + DUE_SOON_HOURS + " Hours",
+            javax.swing.border.TitledBorder.DEFAULT_JUSTIFICATION,
+            javax.swing.border.TitledBorder.DEFAULT_POSITION,
+            new Font("Arial", Font.BOLD, 14)
+        ));
+        
+        JList<String> dueSoonList = new JList<>(dueSoonListModel);
+        dueSoonList.setFont(new Font("Arial", Font.PLAIN, 14));
+        dueSoonList.setFixedCellHeight(40);
+        
+        JScrollPane dueSoonScrollPane = new JScrollPane(dueSoonList);
+        dueSoonScrollPane.setBorder(BorderFactory.createEmptyBorder());
+        dueSoonPanel.add(dueSoonScrollPane, BorderLayout.CENTER);
+        
+        JPanel listsPanel = new JPanel(new GridLayout(1, 2, 10, 10));
+        listsPanel.setBackground(BACKGROUND_COLOR);
+        listsPanel.add(activityPanel);
+        listsPanel.add(dueSoonPanel);
+        
         panel.add(titlePanel, BorderLayout.NORTH);
         panel.add(statsPanel, BorderLayout.CENTER);
-        panel.add(activityPanel, BorderLayout.SOUTH);
+        panel.add(listsPanel, BorderLayout.SOUTH);
         
         return panel;
     }
     
+    // Due schedule listener. A batch of changes (an import, the schedule catching up) is shown
+    // once, after the batch.
+    private void dueChanged() {
+        if (!dueUpdateQueued) {
+            dueUpdateQueued = true;
+            SwingUtilities.invokeLater(this::updateDueFigures);
+        }
+    }
+    
+    // Copy the due schedule's counts and due-soon loans to the dashboard
+    private void updateDueFigures() {
+        dueUpdateQueued = false;
+        if (issuedCountLabel == null) {
+            return;
+        }
+        DueSchedule schedule = issuedBooks.getDueSchedule();
+        issuedCountLabel.setText(String.valueOf(issuedBooks.size()));
+        overdueCountLabel.setText(String.valueOf(schedule.getOverdueCount()));
+        dueTodayCountLabel.setText(String.valueOf(schedule.getDueTodayCount()));
+        Collection<Loan> dueSoon = schedule.getDueSoon();
+        dueSoonCountLabel.setText(String.valueOf(dueSoon.size()));
+        
+        dueSoonListModel.clear();
+        for (Loan loan : dueSoon) {
+            if (dueSoonListModel.size() == DUE_SOON_SHOWN) {
+                break;
+            }
+            Book book = findBook(loan.bookId);
+            dueSoonListModel.addElement(String.format(
+                "<html><b>%s</b> from <b>%s</b> due %s</html>",
+                book == null ? loan.bookId : book.title,
+                loan.userName,
+                Loan.formatTime(loan.dueAtEpochMillis)
+            ));
+        }
+    }
+    
+    // Move the due schedule on as time passes; changes reach the dashboard through dueChanged
+    private void startDueTimer() {
+        if (dueTimer == null) {
+            dueTimer = new javax.swing.Timer(DUE_CHECK_MS, e -> issuedBooks.getDueSchedule().advance());
+            dueTimer.start();
+        }
+    }
+    
+    // Heap in use and what sharing repeated strings saves
+    private void showMemoryReport() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        String report = String.format("Heap in use: %,d MB of %,d MB%n%n%s",
+            used / (1024 * 1024), runtime.maxMemory() / (1024 * 1024), StringPool.SHARED.summary(pooledFields()));
+        JOptionPane.showMessageDialog(this, report, "Memory Report", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    // Fields of the users and loans held now that pass through the string pool
+    private java.util.List<String> pooledFields() {
+        java.util.List<String> fields = new ArrayList<>(users.size() * 3 + issuedBooks.size() * 4);
+        for (User user : users) {
+            Collections.addAll(fields, user.id, user.name, user.contact);
+        }
+        for (Loan loan : issuedBooks) {
+            Collections.addAll(fields, loan.bookId, loan.userId, loan.userName, loan.contact);
+        }
+        return fields;
+    }
+
     // Create a stat panel for dashboard
     private JPanel createStatPanel(String title, String value, Color color) {
+        return createStatPanel(title, new JLabel(value), color);
+    }
+    
+    // Stat panel showing a label that is updated later
+    private JPanel createStatPanel(String title, JLabel valueLabel, Color color) {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(Color.WHITE);
         panel.setBorder(BorderFactory.createLineBorder(color, 2));
@@ -1273,7 +1446,6 @@ public class LibraryManagement extends JFrame {
         titleLabel.setForeground(color);
         titleLabel.setBorder(new EmptyBorder(10, 15, 5, 15));
         
-        JLabel valueLabel = new JLabel(value);
         valueLabel.setFont(new Font("Arial", Font.BOLD, 36));
         valueLabel.setHorizontalAlignment(JLabel.CENTER);
         valueLabel.setForeground(ACCENT_COLOR);
@@ -1307,20 +1479,14 @@ public class LibraryManagement extends JFrame {
         gbc.anchor = GridBagConstraints.WEST;
         
         // Find current user
-        String[] currentUser = null;
-        for (String[] user : users) {
-            if (user[USER_ID_INDEX].equals(currentUserId)) {
-                currentUser = user;
-                break;
-            }
-        }
+        User currentUser = users.findById(currentUserId);
         
         if (currentUser != null) {
             String[] labels = {"User ID:", "Full Name:", "Contact Number:"};
             String[] values = {
-                currentUser[USER_ID_INDEX],
-                currentUser[USER_NAME_INDEX],
-                currentUser[USER_CONTACT_INDEX]
+                currentUser.id,
+                currentUser.name,
+                currentUser.contact
             };
             
             for (int i = 0; i < labels.length; i++) {
@@ -1337,12 +1503,7 @@ public class LibraryManagement extends JFrame {
             }
             
             // Count issued books
-            int issuedCount = 0;
-            for (String[] issuedBook : issuedBooks) {
-                if (issuedBook[ISSUED_USER_ID_INDEX].equals(currentUserId)) {
-                    issuedCount++;
-                }
-            }
+            int issuedCount = issuedBooks.findByUser(currentUserId).size();
             
             gbc.gridx = 0;
             gbc.gridy = 3;
@@ -1442,16 +1603,10 @@ public class LibraryManagement extends JFrame {
             String confirmPass = new String(confirmPassField.getPassword());
             
             // Find current user
-            String[] currentUser = null;
-            for (String[] user : users) {
-                if (user[USER_ID_INDEX].equals(currentUserId)) {
-                    currentUser = user;
-                    break;
-                }
-            }
+            User currentUser = users.findById(currentUserId);
             
             if (currentUser != null) {
-                if (!currentUser[USER_PASSWORD_INDEX].equals(currentPass)) {
+                if (!currentUser.password.equals(currentPass)) {
                     JOptionPane.showMessageDialog(dialog, 
                         "Current password is incorrect!", 
                         "Password Error", 
@@ -1475,8 +1630,11 @@ public class LibraryManagement extends JFrame {
                     return;
                 }
                 
-                currentUser[USER_PASSWORD_INDEX] = newPass;
-                saveUsersData();
+                if (!canSave()) {
+                    return;
+                }
+                currentUser.password = newPass;
+                logMutation(LibraryJournal.USER_PUT, currentUser.toRow());
                 JOptionPane.showMessageDialog(dialog, 
                     "Password changed successfully!", 
                     "Success", 
@@ -1590,9 +1748,11 @@ public class LibraryManagement extends JFrame {
             for (int i = 0; i < fields.length; i++) {
                 book[i] = fields[i].getText().trim();
             }
-            if (validateBook(book)) {
-                books.add(book);
-                saveData();
+            if (validateBook(book, true) && canSave()) {
+                Book added = Book.fromRow(book);
+                books.add(added);
+                suggestions.add(added);
+                logMutation(LibraryJournal.BOOK_PUT, added.toRow());
                 booksTableModel.fireTableDataChanged();
                 statusLabel.setText("Book added successfully");
                 dialog.dispose();
@@ -1624,14 +1784,7 @@ public class LibraryManagement extends JFrame {
         
         int modelRow = table.convertRowIndexToModel(selectedRow);
         String bookId = (String) table.getValueAt(selectedRow, BOOK_ID_INDEX);
-        String[] bookToEdit = null;
-        
-        for (String[] book : books) {
-            if (book[BOOK_ID_INDEX].equals(bookId)) {
-                bookToEdit = book;
-                break;
-            }
-        }
+        Book bookToEdit = findBook(bookId);
         
         if (bookToEdit == null) {
             JOptionPane.showMessageDialog(this, "Book not found.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -1657,6 +1810,7 @@ public class LibraryManagement extends JFrame {
         gbc.fill = GridBagConstraints.HORIZONTAL;
 
         String[] labels = {"Book ID:", "Title:", "Author:", "Publisher:", "Year:", "Copies:", "Genre:"};
+        String[] values = bookToEdit.toRow();
         JTextField[] fields = new JTextField[7];
         
         for (int i = 0; i < labels.length; i++) {
@@ -1666,7 +1820,7 @@ public class LibraryManagement extends JFrame {
             formPanel.add(label, gbc);
             
             gbc.gridx = 1;
-            fields[i] = new JTextField(bookToEdit[i], 20);
+            fields[i] = new JTextField(values[i], 20);
             fields[i].setPreferredSize(new Dimension(250, 35));
             
             if (i == BOOK_ID_INDEX) {
@@ -1695,14 +1849,13 @@ public class LibraryManagement extends JFrame {
             for (int i = 0; i < fields.length; i++) {
                 updatedBook[i] = fields[i].getText().trim();
             }
-            if (validateBook(updatedBook)) {
-                for (int i = 0; i < books.size(); i++) {
-                    if (books.get(i)[BOOK_ID_INDEX].equals(bookId)) {
-                        books.set(i, updatedBook);
-                        break;
-                    }
+            if (validateBook(updatedBook, false) && canSave()) {
+                int index = books.indexOfId(bookId);
+                if (index >= 0) {
+                    Book updated = Book.fromRow(updatedBook);
+                    suggestions.replace(books.set(index, updated), updated);
+                    logMutation(LibraryJournal.BOOK_PUT, updated.toRow());
                 }
-                saveData();
                 booksTableModel.fireTableDataChanged();
                 statusLabel.setText("Book updated successfully");
                 dialog.dispose();
@@ -1725,57 +1878,46 @@ public class LibraryManagement extends JFrame {
     }
 
     // Validate book data
-    private boolean validateBook(String[] book) {
+    private boolean validateBook(String[] book, boolean newBook) {
+        String error = checkBook(book);
+        if (error != null) {
+            JOptionPane.showMessageDialog(this, error, "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        
+        // Check for duplicate book ID (only for new books; an edited book keeps its ID)
+        if (newBook && books.indexOfId(book[BOOK_ID_INDEX]) >= 0) {
+            JOptionPane.showMessageDialog(this, "Book ID already exists!", "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        
+        return true;
+    }
+
+    // Field rules for a book row; returns the problem or null. Also used by the bulk import.
+    private static String checkBook(String[] book) {
         for (String field : book) {
             if (field.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "All fields are mandatory!", "Validation Error", JOptionPane.ERROR_MESSAGE);
-                return false;
+                return "All fields are mandatory!";
             }
         }
+        int year;
         try {
-            Integer.parseInt(book[BOOK_YEAR_INDEX]);
+            year = Integer.parseInt(book[BOOK_YEAR_INDEX]);
             int copies = Integer.parseInt(book[BOOK_COPIES_INDEX]);
             if (copies < 0) {
-                JOptionPane.showMessageDialog(this, "Copies must be non-negative!", "Validation Error", JOptionPane.ERROR_MESSAGE);
-                return false;
+                return "Copies must be non-negative!";
             }
         } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Year and Copies must be numbers!", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return "Year and Copies must be numbers!";
         }
         
         // Check if year is valid
-        int year = Integer.parseInt(book[BOOK_YEAR_INDEX]);
         int currentYear = Calendar.getInstance().get(Calendar.YEAR);
         if (year < 1000 || year > currentYear) {
-            JOptionPane.showMessageDialog(this, "Please enter a valid year (1000-" + currentYear + ")!", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return "Please enter a valid year (1000-" + currentYear + ")!";
         }
-        
-        // Check for duplicate book ID (only for new books)
-        // Fixed: Don't check for duplicate ID when editing an existing book
-        String bookId = book[BOOK_ID_INDEX];
-        boolean isExistingBook = false;
-        
-        // Check if this is an existing book being edited
-        for (int i = 0; i < books.size(); i++) {
-            if (books.get(i)[BOOK_ID_INDEX].equals(bookId)) {
-                isExistingBook = true;
-                break;
-            }
-        }
-        
-        // Only check for duplicate ID if it's a new book
-        if (!isExistingBook) {
-            for (String[] b : books) {
-                if (b[BOOK_ID_INDEX].equals(bookId)) {
-                    JOptionPane.showMessageDialog(this, "Book ID already exists!", "Validation Error", JOptionPane.ERROR_MESSAGE);
-                    return false;
-                }
-            }
-        }
-        
-        return true;
+        return null;
     }
 
     // Delete a selected book
@@ -1790,14 +1932,12 @@ public class LibraryManagement extends JFrame {
         String bookId = (String) table.getValueAt(selectedRow, BOOK_ID_INDEX);
         
         // Check if book is issued
-        for (String[] issuedBook : issuedBooks) {
-            if (issuedBook[ISSUED_BOOK_ID_INDEX].equals(bookId)) {
-                JOptionPane.showMessageDialog(this, 
-                    "Cannot delete a book that is currently issued.\nPlease return all copies first.", 
-                    "Delete Failed", 
-                    JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+        if (!issuedBooks.findByBook(bookId).isEmpty()) {
+            JOptionPane.showMessageDialog(this, 
+                "Cannot delete a book that is currently issued.\nPlease return all copies first.", 
+                "Delete Failed", 
+                JOptionPane.ERROR_MESSAGE);
+            return;
         }
         
         int confirm = JOptionPane.showConfirmDialog(this, 
@@ -1805,9 +1945,12 @@ public class LibraryManagement extends JFrame {
             "Confirm Delete", 
             JOptionPane.YES_NO_OPTION);
             
-        if (confirm == JOptionPane.YES_OPTION) {
-            books.removeIf(book -> book[BOOK_ID_INDEX].equals(bookId));
-            saveData();
+        if (confirm == JOptionPane.YES_OPTION && canSave()) {
+            int index = books.indexOfId(bookId);
+            if (index >= 0) {
+                suggestions.remove(books.remove(index));
+            }
+            logMutation(LibraryJournal.BOOK_DELETE, bookId);
             booksTableModel.fireTableDataChanged();
             statusLabel.setText("Book deleted successfully");
         }
@@ -1825,15 +1968,12 @@ public class LibraryManagement extends JFrame {
         String bookId = (String) table.getValueAt(selectedRow, BOOK_ID_INDEX);
         
         // Check if user already has this book
-        for (String[] issuedBook : issuedBooks) {
-            if (issuedBook[ISSUED_BOOK_ID_INDEX].equals(bookId) && 
-                issuedBook[ISSUED_USER_ID_INDEX].equals(currentUserId)) {
-                JOptionPane.showMessageDialog(this, 
-                    "You already have this book issued.", 
-                    "Issue Failed", 
-                    JOptionPane.WARNING_MESSAGE);
-                return;
-            }
+        if (issuedBooks.find(bookId, currentUserId) != null) {
+            JOptionPane.showMessageDialog(this, 
+                "You already have this book issued.", 
+                "Issue Failed", 
+                JOptionPane.WARNING_MESSAGE);
+            return;
         }
         
         int confirm = JOptionPane.showConfirmDialog(this, 
@@ -1886,8 +2026,8 @@ public class LibraryManagement extends JFrame {
         
         // Create combo box with user IDs and names
         Vector<String> userOptions = new Vector<>();
-        for (String[] user : users) {
-            userOptions.add(user[USER_ID_INDEX] + " - " + user[USER_NAME_INDEX]);
+        for (User user : users) {
+            userOptions.add(user.id + " - " + user.name);
         }
         JComboBox<String> userIdCombo = new JComboBox<>(userOptions);
         userIdCombo.setPreferredSize(new Dimension(250, 35));
@@ -1942,23 +2082,15 @@ public class LibraryManagement extends JFrame {
             }
             
             // Check if book exists and has copies
-            boolean bookFound = false;
-            for (String[] book : books) {
-                if (book[BOOK_ID_INDEX].equals(bookId)) {
-                    bookFound = true;
-                    int copies = Integer.parseInt(book[BOOK_COPIES_INDEX]);
-                    if (copies <= 0) {
-                        JOptionPane.showMessageDialog(dialog, "No copies available for this book!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                    break;
-                }
-            }
-            
-            if (!bookFound) {
+            Book book = findBook(bookId);
+            if (book == null) {
                 JOptionPane.showMessageDialog(dialog, "Book not found!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            if (book.copies <= 0) {
+                JOptionPane.showMessageDialog(dialog, "No copies available for this book!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             
             if (guestCheck.isSelected()) {
                 String name = nameField.getText().trim();
@@ -1967,20 +2099,39 @@ public class LibraryManagement extends JFrame {
                     JOptionPane.showMessageDialog(dialog, "Name and contact are required for guests!", "Validation Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-                issueBook(bookId, "", name, contact);
+                // A registered user's contact number: offer to issue to them instead
+                java.util.List<User> registered = users.findByContact(contact);
+                User chosen = null;
+                if (!registered.isEmpty()) {
+                    String[] choices = new String[registered.size() + 1];
+                    for (int i = 0; i < registered.size(); i++) {
+                        choices[i] = registered.get(i).id + " - " + registered.get(i).name;
+                    }
+                    choices[registered.size()] = "Issue to guest " + name;
+                    String choice = (String) JOptionPane.showInputDialog(dialog,
+                        "This contact number belongs to a registered user. Issue the book to:",
+                        "Registered Contact", JOptionPane.QUESTION_MESSAGE, null, choices, choices[0]);
+                    if (choice == null) {
+                        return;
+                    }
+                    for (int i = 0; i < registered.size(); i++) {
+                        if (choice.equals(choices[i])) {
+                            chosen = registered.get(i);
+                        }
+                    }
+                }
+                if (chosen != null) {
+                    issueBook(bookId, chosen.id, chosen.name, chosen.contact);
+                } else {
+                    issueBook(bookId, "", name, contact);
+                }
             } else {
                 String selectedUser = (String) userIdCombo.getSelectedItem();
                 if (selectedUser != null) {
                     String userId = selectedUser.split(" - ")[0];
-                    String[] user = null;
-                    for (String[] u : users) {
-                        if (u[USER_ID_INDEX].equals(userId)) {
-                            user = u;
-                            break;
-                        }
-                    }
+                    User user = users.findById(userId);
                     if (user != null) {
-                        issueBook(bookId, user[USER_ID_INDEX], user[USER_NAME_INDEX], user[USER_CONTACT_INDEX]);
+                        issueBook(bookId, user.id, user.name, user.contact);
                     }
                 }
             }
@@ -2003,32 +2154,41 @@ public class LibraryManagement extends JFrame {
         dialog.setVisible(true);
     }
 
+    // Book with the given ID, or null; a hash lookup in the books list
+    private Book findBook(String bookId) {
+        int index = books.indexOfId(bookId);
+        return index < 0 ? null : books.get(index);
+    }
+
     // Issue a book with given details
     private void issueBook(String bookId, String userId, String userName, String contact) {
-        for (String[] book : books) {
-            if (book[BOOK_ID_INDEX].equals(bookId)) {
-                int copies = Integer.parseInt(book[BOOK_COPIES_INDEX]);
-                if (copies > 0) {
-                    String issueDateTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-                    issuedBooks.add(new String[]{bookId, userId, userName, contact, issueDateTime});
-                    book[BOOK_COPIES_INDEX] = String.valueOf(copies - 1);
-                    saveData();
-                    saveIssuedData();
-                    statusLabel.setText("Book " + bookId + " issued successfully");
-                    
-                    // Show success message
-                    JOptionPane.showMessageDialog(this, 
-                        "Book issued successfully!\nDue date: " + getDueDate(issueDateTime), 
-                        "Success", 
-                        JOptionPane.INFORMATION_MESSAGE);
-                    return;
-                } else {
-                    JOptionPane.showMessageDialog(this, "No copies available!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-            }
+        if (!canSave()) {
+            return;
+        }
+        int index = books.indexOfId(bookId);
+        if (index < 0) {
+            JOptionPane.showMessageDialog(this, "Book not found!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Book book = books.get(index);
+        if (book.copies > 0) {
+            // Whole seconds, the precision issue times are stored with
+            long issuedAt = System.currentTimeMillis() / 1000 * 1000;
+            Loan loan = new Loan(bookId, userId, userName, contact, issuedAt);
+            issuedBooks.add(loan);
+            books.setCopies(index, book.copies - 1);
+            suggestions.issued(book);
+            logMutation(LibraryJournal.ISSUE, withBook(loan, books.get(index)));
+            statusLabel.setText("Book " + bookId + " issued successfully");
+            
+            // Show success message
+            JOptionPane.showMessageDialog(this, 
+                "Book issued successfully!\nDue date: " + Loan.formatTime(loan.dueAtEpochMillis), 
+                "Success", 
+                JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(this, "No copies available!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
         }
-        JOptionPane.showMessageDialog(this, "Book not found!", "Issue Failed", JOptionPane.ERROR_MESSAGE);
     }
 
     // Admin dialog to return a book
@@ -2079,27 +2239,18 @@ public class LibraryManagement extends JFrame {
                 return;
             }
             
-            ArrayList<String[]> candidates = new ArrayList<>();
-            for (String[] entry : issuedBooks) {
-                if (entry[ISSUED_BOOK_ID_INDEX].equals(bookId)) {
-                    candidates.add(entry);
-                }
-            }
+            java.util.List<Loan> candidates = new ArrayList<>(issuedBooks.findByBook(bookId));
             
             if (candidates.isEmpty()) {
                 JOptionPane.showMessageDialog(dialog, "No issued books found for this Book ID.", "Not Found", JOptionPane.WARNING_MESSAGE);
             } else if (candidates.size() == 1) {
                 int confirm = JOptionPane.showConfirmDialog(dialog, 
-                    "Return book issued to " + candidates.get(0)[ISSUED_USER_NAME_INDEX] + "?", 
+                    "Return book issued to " + candidates.get(0).userName + "?", 
                     "Confirm Return", 
                     JOptionPane.YES_NO_OPTION);
         
                 
-                if (confirm == JOptionPane.YES_OPTION) {
-                    issuedBooks.remove(candidates.get(0));
-                    updateBookCopies(bookId);
-                    saveData();
-                    saveIssuedData();
+                if (confirm == JOptionPane.YES_OPTION && returnLoan(candidates.get(0))) {
                     statusLabel.setText("Book " + bookId + " returned successfully");
                     JOptionPane.showMessageDialog(dialog, "Book returned successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                     dialog.dispose();
@@ -2107,7 +2258,7 @@ public class LibraryManagement extends JFrame {
             } else {
                 // Multiple copies of the same book issued to different users
                 String[] options = candidates.stream()
-                    .map(entry -> "User: " + entry[ISSUED_USER_NAME_INDEX] + ", Issued: " + entry[ISSUED_DATE_TIME_INDEX])
+                    .map(entry -> "User: " + entry.userName + ", Issued: " + entry.issuedAt)
                     .toArray(String[]::new);
                     
                 String selected = (String) JOptionPane.showInputDialog(
@@ -2117,10 +2268,9 @@ public class LibraryManagement extends JFrame {
                 if (selected != null) {
                     for (int i = 0; i < options.length; i++) {
                         if (options[i].equals(selected)) {
-                            issuedBooks.remove(candidates.get(i));
-                            updateBookCopies(bookId);
-                            saveData();
-                            saveIssuedData();
+                            if (!returnLoan(candidates.get(i))) {
+                                break;
+                            }
                             statusLabel.setText("Book " + bookId + " returned successfully");
                             JOptionPane.showMessageDialog(dialog, "Book returned successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                             dialog.dispose();
@@ -2163,41 +2313,340 @@ public class LibraryManagement extends JFrame {
             JOptionPane.YES_NO_OPTION);
             
         if (confirm == JOptionPane.YES_OPTION) {
-            for (int i = 0; i < issuedBooks.size(); i++) {
-                String[] entry = issuedBooks.get(i);
-                if (entry[ISSUED_BOOK_ID_INDEX].equals(bookId) && entry[ISSUED_USER_ID_INDEX].equals(currentUserId)) {
-                    issuedBooks.remove(i);
-                    updateBookCopies(bookId);
-                    saveData();
-                    saveIssuedData();
-                    model.fireTableDataChanged();
-                    statusLabel.setText("Book " + bookId + " returned successfully");
-                    JOptionPane.showMessageDialog(this, "Book returned successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            Loan entry = issuedBooks.find(bookId, currentUserId);
+            if (entry != null) {
+                if (!returnLoan(entry)) {
                     return;
                 }
+                model.fireTableDataChanged();
+                statusLabel.setText("Book " + bookId + " returned successfully");
+                JOptionPane.showMessageDialog(this, "Book returned successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                return;
             }
             JOptionPane.showMessageDialog(this, "Book not found in your issued list.", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    // Update book copies after return
-    private void updateBookCopies(String bookId) {
-        for (String[] book : books) {
-            if (book[BOOK_ID_INDEX].equals(bookId)) {
-                int copies = Integer.parseInt(book[BOOK_COPIES_INDEX]);
-                book[BOOK_COPIES_INDEX] = String.valueOf(copies + 1);
-                break;
+    // Remove a loan, put the copy back on the shelf and record the return; false if changes
+    // cannot be saved yet
+    private boolean returnLoan(Loan loan) {
+        if (!canSave()) {
+            return false;
+        }
+        issuedBooks.remove(loan);
+        logMutation(LibraryJournal.RETURN, withBook(loan, updateBookCopies(loan.bookId)));
+        return true;
+    }
+
+    // Issue and return records carry the book row with its new copies after the loan
+    private static String[] withBook(Loan loan, Book book) {
+        String[] loanRow = loan.toRow();
+        if (book == null) {
+            return loanRow;
+        }
+        String[] bookRow = book.toRow();
+        String[] fields = Arrays.copyOf(loanRow, loanRow.length + bookRow.length);
+        System.arraycopy(bookRow, 0, fields, loanRow.length, bookRow.length);
+        return fields;
+    }
+
+    // Put a copy back on the shelf after a return; null if the book is gone
+    private Book updateBookCopies(String bookId) {
+        int index = books.indexOfId(bookId);
+        if (index < 0) {
+            return null;
+        }
+        books.setCopies(index, books.get(index).copies + 1);
+        return books.get(index);
+    }
+
+    // Facet lists next to the catalog: genres, publishers and decades with the number of books
+    // each would show, and an available-only switch. Values selected in one list are alternatives;
+    // the lists and the switch narrow each other and the search.
+    class FacetPanel extends JPanel {
+        private final BooksTableModel model;
+        private final java.util.List<JList<FacetIndex.Count>> lists = new ArrayList<>();
+        private final JCheckBox availableBox = new JCheckBox();
+        // Set while the lists are refilled, so that does not count as the user selecting
+        private boolean refreshing;
+
+        FacetPanel(BooksTableModel model) {
+            this.model = model;
+            setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+            setBackground(BACKGROUND_COLOR);
+            setPreferredSize(new Dimension(230, 0));
+
+            String[] titles = {"Genre", "Publisher", "Decade"};
+            for (int facet = 0; facet < FacetIndex.FACETS; facet++) {
+                JList<FacetIndex.Count> list = new JList<>(new DefaultListModel<>());
+                list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+                list.setFont(new Font("Arial", Font.PLAIN, 13));
+                list.setVisibleRowCount(6);
+                list.setCellRenderer(new DefaultListCellRenderer() {
+                    @Override
+                    public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                            boolean isSelected, boolean cellHasFocus) {
+                        FacetIndex.Count count = (FacetIndex.Count) value;
+                        String text = (count.value.isEmpty() ? "(none)" : count.value) + " (" + count.count + ")";
+                        return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+                    }
+                });
+                list.addListSelectionListener(e -> {
+                    if (!e.getValueIsAdjusting()) {
+                        selectionChanged();
+                    }
+                });
+                lists.add(list);
+
+                JScrollPane scrollPane = new JScrollPane(list);
+                scrollPane.setBorder(BorderFactory.createTitledBorder(
+                    BorderFactory.createLineBorder(ACCENT_COLOR),
+                    titles[facet],
+                    javax.swing.border.TitledBorder.DEFAULT_JUSTIFICATION,
+                    javax.swing.border.TitledBorder.DEFAULT_POSITION,
+                    new Font("Arial", Font.BOLD, 14)
+                ));
+                add(scrollPane);
+                add(Box.createVerticalStrut(5));
+            }
+
+            availableBox.setFont(new Font("Arial", Font.PLAIN, 13));
+            availableBox.setBackground(BACKGROUND_COLOR);
+            availableBox.addActionListener(e -> selectionChanged());
+            add(availableBox);
+
+            JButton clearButton = createStyledButton("Clear Filters", 130, 30, "Show books of every genre, publisher and decade");
+            clearButton.addActionListener(e -> {
+                refreshing = true;
+                for (JList<FacetIndex.Count> list : lists) {
+                    list.clearSelection();
+                }
+                availableBox.setSelected(false);
+                refreshing = false;
+                selectionChanged();
+            });
+            add(clearButton);
+
+            model.setFacetListener(this::showCounts);
+            showCounts();
+        }
+
+        private void selectionChanged() {
+            if (refreshing) {
+                return;
+            }
+            java.util.List<Set<String>> selection = new ArrayList<>();
+            for (JList<FacetIndex.Count> list : lists) {
+                Set<String> values = new HashSet<>();
+                for (FacetIndex.Count count : list.getSelectedValuesList()) {
+                    values.add(count.value);
+                }
+                selection.add(values);
+            }
+            model.setFacets(selection, availableBox.isSelected());
+        }
+
+        // Refill the lists with the latest counts, keeping the selection
+        private void showCounts() {
+            FacetIndex.Result result = model.getFacetResult();
+            refreshing = true;
+            try {
+                for (int facet = 0; facet < FacetIndex.FACETS; facet++) {
+                    JList<FacetIndex.Count> list = lists.get(facet);
+                    Set<String> selected = new HashSet<>();
+                    for (FacetIndex.Count count : list.getSelectedValuesList()) {
+                        selected.add(count.value);
+                    }
+                    DefaultListModel<FacetIndex.Count> listModel = (DefaultListModel<FacetIndex.Count>) list.getModel();
+                    listModel.clear();
+                    java.util.List<Integer> reselect = new ArrayList<>();
+                    int shown = 0;
+                    for (FacetIndex.Count count : result.counts.get(facet)) {
+                        boolean isSelected = selected.contains(count.value);
+                        if (isSelected || (count.count > 0 && shown < FACET_VALUES_SHOWN)) {
+                            if (isSelected) {
+                                reselect.add(listModel.size());
+                            } else {
+                                shown++;
+                            }
+                            listModel.addElement(count);
+                        }
+                    }
+                    int[] indices = new int[reselect.size()];
+                    for (int i = 0; i < indices.length; i++) {
+                        indices[i] = reselect.get(i);
+                    }
+                    list.setSelectedIndices(indices);
+                }
+                // The facets are still being built while the result is empty
+                boolean ready = result != FacetIndex.EMPTY;
+                availableBox.setEnabled(ready);
+                availableBox.setText(ready ? "Available only (" + result.availableCount + ")" : "Available only");
+            } finally {
+                refreshing = false;
+            }
+        }
+    }
+
+    // Popup of completions under a search field, from the suggestion index. Up and down move
+    // through it, Enter takes the selected completion and Escape closes it.
+    class SearchSuggestions {
+        private final JTextField field;
+        private final DefaultListModel<String> model = new DefaultListModel<>();
+        private final JList<String> list = new JList<>(model);
+        private final JPopupMenu popup = new JPopupMenu();
+        // Set while a completion is put in the field, so it does not open the popup again
+        private boolean choosing;
+
+        SearchSuggestions(JTextField field) {
+            this.field = field;
+            list.setFont(new Font("Arial", Font.PLAIN, 14));
+            list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            list.setFocusable(false);
+            popup.setFocusable(false);
+            popup.add(list);
+
+            list.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    choose();
+                }
+            });
+            field.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    if (!popup.isVisible()) {
+                        return;
+                    }
+                    int selected = list.getSelectedIndex();
+                    switch (e.getKeyCode()) {
+                        case KeyEvent.VK_DOWN:
+                            list.setSelectedIndex(Math.min(selected + 1, model.size() - 1));
+                            e.consume();
+                            break;
+                        case KeyEvent.VK_UP:
+                            list.setSelectedIndex(Math.max(selected - 1, 0));
+                            e.consume();
+                            break;
+                        case KeyEvent.VK_ENTER:
+                            if (selected >= 0) {
+                                choose();
+                                e.consume();
+                            }
+                            break;
+                        case KeyEvent.VK_ESCAPE:
+                            popup.setVisible(false);
+                            e.consume();
+                            break;
+                    }
+                }
+            });
+            field.addFocusListener(new FocusAdapter() {
+                @Override
+                public void focusLost(FocusEvent e) {
+                    popup.setVisible(false);
+                }
+            });
+        }
+
+        // Show the completions of the field's text
+        void update() {
+            if (choosing) {
+                return;
+            }
+            java.util.List<String> completions = suggestions.suggest(field.getText(), SUGGESTIONS_SHOWN);
+            model.clear();
+            for (String completion : completions) {
+                model.addElement(completion);
+            }
+            if (completions.isEmpty() || !field.isShowing()) {
+                popup.setVisible(false);
+                return;
+            }
+            popup.pack();
+            if (!popup.isVisible()) {
+                popup.show(field, 0, field.getHeight());
+            }
+        }
+
+        private void choose() {
+            String completion = list.getSelectedValue();
+            popup.setVisible(false);
+            if (completion != null) {
+                choosing = true;
+                try {
+                    field.setText(completion);
+                } finally {
+                    choosing = false;
+                }
             }
         }
     }
 
     // Table model for books
+    // While a search is active the rows are the matching books, best match first. Facet
+    // selections narrow the rows further.
     class BooksTableModel extends AbstractTableModel {
         private String[] columnNames = {"Book ID", "Title", "Author", "Publisher", "Year", "Copies", "Genre"};
+        private String query = "";
+        private java.util.List<Set<String>> facetSelection = new ArrayList<>();
+        private boolean availableOnly;
+        private FacetIndex.Result facetResult;
+        // Called after the rows and facet counts change
+        private Runnable facetListener;
+        // Book indices of the rows, or null to show every book
+        private int[] hits;
+
+        BooksTableModel() {
+            for (int facet = 0; facet < FacetIndex.FACETS; facet++) {
+                facetSelection.add(new HashSet<>());
+            }
+            update();
+        }
+
+        void setQuery(String text) {
+            query = text.trim().isEmpty() ? "" : text;
+            fireTableDataChanged();
+        }
+
+        void setFacets(java.util.List<Set<String>> selection, boolean availableOnly) {
+            facetSelection = selection;
+            this.availableOnly = availableOnly;
+            fireTableDataChanged();
+        }
+
+        FacetIndex.Result getFacetResult() {
+            return facetResult;
+        }
+
+        void setFacetListener(Runnable listener) {
+            facetListener = listener;
+        }
+
+        // The search and facets are applied again whenever the books change
+        @Override
+        public void fireTableDataChanged() {
+            update();
+            super.fireTableDataChanged();
+            if (facetListener != null) {
+                facetListener.run();
+            }
+        }
+
+        private void update() {
+            int[] found = query.isEmpty() ? null : books.search(query);
+            facetResult = books.selectFacets(facetSelection, availableOnly, found);
+            hits = facetResult.filter(found, books.size());
+        }
+
+        // Index in books of the book shown in a model row
+        int getBookIndex(int row) {
+            return hits == null ? row : hits[row];
+        }
 
         @Override
         public int getRowCount() {
-            return books.size();
+            return hits == null ? books.size() : hits.length;
         }
 
         @Override
@@ -2210,19 +2659,33 @@ public class LibraryManagement extends JFrame {
             return columnNames[col];
         }
 
+        @Override
+        public Class<?> getColumnClass(int col) {
+            // Year and copies sort as numbers
+            return col == BOOK_YEAR_INDEX || col == BOOK_COPIES_INDEX ? Integer.class : String.class;
+        }
+
+        // Reads the one field straight from the catalog columns, without building a Book
         @Override
         public Object getValueAt(int row, int col) {
-            return books.get(row)[col];
+            return books.getField(getBookIndex(row), col);
         }
     }
 
-    // Table model for issued books
+    // Table model for issued books. Due times and the days-remaining status are cached per
+    // row, the status until the minute changes, so repainting, scrolling and sorting the table
+    // neither format dates nor allocate.
     class IssuedBooksTableModel extends AbstractTableModel {
         private String[] columnNames = {"Book ID", "User ID", "User Name", "Contact", "Issue Date/Time", "Due Date", "Days Remaining"};
-        private ArrayList<String[]> issuedBooksList;
+        private ArrayList<Loan> issuedBooksList;
+        private String[] dueTimes;
+        private LoanStatus[] statuses;
+        private long statusMinute = -1;
 
-        public IssuedBooksTableModel(ArrayList<String[]> issuedBooksList) {
+        public IssuedBooksTableModel(java.util.List<Loan> issuedBooksList) {
             this.issuedBooksList = new ArrayList<>(issuedBooksList);
+            dueTimes = new String[this.issuedBooksList.size()];
+            statuses = new LoanStatus[dueTimes.length];
         }
 
         @Override
@@ -2240,20 +2703,74 @@ public class LibraryManagement extends JFrame {
             return columnNames[col];
         }
 
+        @Override
+        public Class<?> getColumnClass(int col) {
+            // Days remaining sorts by the number of days
+            return col == 6 ? LoanStatus.class : String.class;
+        }
+
         @Override
         public Object getValueAt(int row, int col) {
-            String[] issuedBook = issuedBooksList.get(row);
+            Loan issuedBook = issuedBooksList.get(row);
             switch (col) {
-                case 0: return issuedBook[ISSUED_BOOK_ID_INDEX];
-                case 1: return issuedBook[ISSUED_USER_ID_INDEX];
-                case 2: return issuedBook[ISSUED_USER_NAME_INDEX];
-                case 3: return issuedBook[ISSUED_CONTACT_INDEX];
-                case 4: return issuedBook[ISSUED_DATE_TIME_INDEX];
-                case 5: return getDueDate(issuedBook[ISSUED_DATE_TIME_INDEX]);
-                case 6: return getDaysRemaining(issuedBook[ISSUED_DATE_TIME_INDEX]);
+                case 0: return issuedBook.bookId;
+                case 1: return issuedBook.userId;
+                case 2: return issuedBook.userName;
+                case 3: return issuedBook.contact;
+                case 4: return issuedBook.issuedAt;
+                case 5:
+                    if (dueTimes[row] == null) {
+                        dueTimes[row] = Loan.formatTime(issuedBook.dueAtEpochMillis);
+                    }
+                    return dueTimes[row];
+                case 6: return getStatus(row);
                 default: return "";
             }
         }
+
+        // Days remaining on the loan in a row, as of the current minute
+        LoanStatus getStatus(int row) {
+            long minute = System.currentTimeMillis() / 60000;
+            if (minute != statusMinute) {
+                statusMinute = minute;
+                Arrays.fill(statuses, null);
+            }
+            if (statuses[row] == null) {
+                statuses[row] = new LoanStatus(issuedBooksList.get(row).daysRemaining(minute * 60000));
+            }
+            return statuses[row];
+        }
+
+        // Sorter for a table of this model. Times are fixed-width text, so they sort in time order
+        // when compared as plain strings rather than through the locale's collator.
+        TableRowSorter<IssuedBooksTableModel> createSorter() {
+            TableRowSorter<IssuedBooksTableModel> sorter = new TableRowSorter<>(this);
+            Comparator<String> byText = String::compareTo;
+            sorter.setComparator(4, byText);
+            sorter.setComparator(5, byText);
+            return sorter;
+        }
+    }
+
+    // Days remaining on a loan, shown as text and sorted by the number of days
+    static final class LoanStatus implements Comparable<LoanStatus> {
+        final long days;
+        private final String text;
+
+        LoanStatus(long days) {
+            this.days = days;
+            this.text = getDaysRemaining(days);
+        }
+
+        @Override
+        public int compareTo(LoanStatus other) {
+            return Long.compare(days, other.days);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
     }
     
     // Table model for users
@@ -2277,43 +2794,55 @@ public class LibraryManagement extends JFrame {
 
         @Override
         public Object getValueAt(int row, int col) {
-            return users.get(row)[col];
+            User user = users.get(row);
+            switch (col) {
+                case 0: return user.id;
+                case 1: return user.name;
+                case 2: return user.contact;
+                default: return "";
+            }
         }
     }
 
     // Renderer to color-code overdue books
     class IssuedBooksTableRenderer extends DefaultTableCellRenderer {
+        private final Color overdueBackground = new Color(255, 235, 235); // Light red
+        private final Color dueTodayBackground = new Color(255, 252, 235); // Light yellow
+        private Font plainFont;
+        private Font boldFont;
+
         @Override
         public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
             Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            int modelColumn = table.convertColumnIndexToModel(column);
             
             if (!isSelected) {
-                String daysRemaining = (String) table.getValueAt(row, 6);
-                if (daysRemaining.contains("overdue")) {
-                    c.setBackground(new Color(255, 235, 235)); // Light red
-                    if (column == 6) {
+                IssuedBooksTableModel model = (IssuedBooksTableModel) table.getModel();
+                long days = model.getStatus(table.convertRowIndexToModel(row)).days;
+                if (days < 0) {
+                    c.setBackground(overdueBackground);
+                    if (modelColumn == 6) {
                         c.setForeground(ERROR_COLOR);
-                        setFont(getFont().deriveFont(Font.BOLD));
+                        setFont(bold(table.getFont()));
                     } else {
                         c.setForeground(table.getForeground());
                     }
-                } else if (daysRemaining.contains("today")) {
-                    c.setBackground(new Color(255, 252, 235)); // Light yellow
-                    if (column == 6) {
+                } else if (days == 0) {
+                    c.setBackground(dueTodayBackground);
+                    if (modelColumn == 6) {
                         c.setForeground(WARNING_COLOR);
-                        setFont(getFont().deriveFont(Font.BOLD));
+                        setFont(bold(table.getFont()));
                     } else {
                         c.setForeground(table.getForeground());
                     }
                 } else {
                     c.setBackground(table.getBackground());
                     c.setForeground(table.getForeground());
-                    setFont(getFont().deriveFont(Font.PLAIN));
                 }
             }
             
             // Center align certain columns
-            if (column == 0 || column == 1 || column == 6) {
+            if (modelColumn == 0 || modelColumn == 1 || modelColumn == 6) {
                 setHorizontalAlignment(JLabel.CENTER);
             } else {
                 setHorizontalAlignment(JLabel.LEFT);
@@ -2321,127 +2850,483 @@ public class LibraryManagement extends JFrame {
             
             return c;
         }
+
+        // Bold version of the table font, derived once
+        private Font bold(Font font) {
+            if (font != plainFont) {
+                plainFont = font;
+                boldFont = font.deriveFont(Font.BOLD);
+            }
+            return boldFont;
+        }
+    }
+
+    // Text for the days remaining on a loan (see Loan.daysRemaining)
+    private static String getDaysRemaining(long days) {
+        if (days > 0) return days + " days remaining";
+        else if (days < 0) return (-days) + " days overdue";
+        else return "Due today";
     }
 
-    // Calculate due date
-    private String getDueDate(String issueDateTime) {
+    // Save and load methods
+    // Load in the background. The journal and the users snapshot are read first and the users
+    // handed to the Swing thread on their own path, so login does not wait for the catalog;
+    // meanwhile the store is opened and the journal replayed into it.
+    private void startLoading() {
+        String type = System.getProperty("library.store", LibraryStore.FILE);
+        ExecutorService loader = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "library-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<java.util.List<LibraryJournal.Record>> records =
+            CompletableFuture.supplyAsync(() -> readJournal(type), loader);
+        CompletableFuture<LibraryStore.Snapshot> userData = CompletableFuture.supplyAsync(() -> {
+            try {
+                return LibraryStore.readUsers(type, DATA_DIR);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, loader);
+
+        CompletableFuture<Void> usersStage = userData.thenAcceptBoth(records, (data, journalRecords) -> {
+            if (data != null) {
+                publishUsers(replayUsers(data, journalRecords));
+            }
+        });
+        // Without a snapshot of their own the users are read from the opened store
+        CompletableFuture<Boolean> usersFromStore = userData.handle((data, failure) -> data == null && failure == null);
+        CompletableFuture<Void> catalogStage = records.thenAcceptBothAsync(usersFromStore,
+            (journalRecords, fromStore) -> loadStore(type, journalRecords, fromStore), loader);
+
+        CompletableFuture.allOf(usersStage, catalogStage).whenComplete((result, failure) -> {
+            loader.shutdown();
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                if (cause instanceof UncheckedIOException) {
+                    cause = cause.getCause();
+                }
+                showLoadError("Failed to load library data: " + cause.getMessage());
+                SwingUtilities.invokeLater(() -> {
+                    usersLoaded.complete(null);
+                    catalogLoaded.complete(null);
+                });
+            }
+        });
+    }
+
+    // Open the journal and read its records, which checkpoints keep few. Runs on a loader thread.
+    private java.util.List<LibraryJournal.Record> readJournal(String type) {
+        java.util.List<LibraryJournal.Record> records = new ArrayList<>();
+        if (type.equals(LibraryStore.MEMORY)) {
+            return records;
+        }
         try {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            Date issueDate = sdf.parse(issueDateTime);
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(issueDate);
-            cal.add(Calendar.DAY_OF_MONTH, BORROWING_PERIOD_DAYS);
-            return sdf.format(cal.getTime());
-        } catch (ParseException e) {
-            return "Invalid date";
+            journal = new LibraryJournal(new File(DATA_DIR, JOURNAL_FILE));
+            journal.replay((seq, recordType, fields) -> records.add(new LibraryJournal.Record(seq, recordType, fields)));
+        } catch (IOException e) {
+            journal = null;
+            records.clear();
+            showLoadError("Failed to load journal: " + e.getMessage());
         }
+        return records;
     }
 
-    // Calculate days remaining
-    private String getDaysRemaining(String issueDateTime) {
+    // Users of a snapshot with the user changes journalled after it, in ID order
+    private static java.util.List<String[]> replayUsers(LibraryStore.Snapshot data,
+                                                        java.util.List<LibraryJournal.Record> records) {
+        InMemoryLibraryStore replayed = new InMemoryLibraryStore();
+        for (String[] user : data.rows) {
+            replayed.putUser(user);
+        }
         try {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            Date issueDate = sdf.parse(issueDateTime);
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(issueDate);
-            cal.add(Calendar.DAY_OF_MONTH, BORROWING_PERIOD_DAYS);
-            Date dueDate = cal.getTime();
-            Date currentDate = new Date();
-            long diff = dueDate.getTime() - currentDate.getTime();
-            long days = diff / (1000 * 60 * 60 * 24);
-            if (days > 0) return days + " days remaining";
-            else if (days < 0) return (-days) + " days overdue";
-            else return "Due today";
-        } catch (ParseException e) {
-            return "Invalid date";
+            for (LibraryJournal.Record record : records) {
+                if (record.seq > data.seq
+                        && (record.type == LibraryJournal.USER_PUT || record.type == LibraryJournal.USER_DELETE)) {
+                    PersistenceService.apply(replayed, record.type, record.fields);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return replayed.scanUsers(null, null);
     }
 
-    // Save and load methods
-    private void saveData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("books.dat"))) {
-            oos.writeObject(books);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to save books data: " + e.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
+    // Store rows are converted to records here, off the Swing thread
+    private void publishUsers(java.util.List<String[]> userRows) {
+        UserList loadedUsers = new UserList(userRows.size());
+        for (String[] user : userRows) {
+            loadedUsers.add(User.fromRow(user));
         }
+        SwingUtilities.invokeLater(() -> {
+            users = loadedUsers;
+            usersLoaded.complete(null);
+        });
     }
 
-    private void saveIssuedData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("issued_books.dat"))) {
-            oos.writeObject(issuedBooks);
+    // Open the store, apply the journal records its last checkpoint does not contain and hand
+    // the catalog, the loans and then the catalog's indexes to the Swing thread, each as soon
+    // as it is ready. Runs on a loader thread.
+    private void loadStore(String type, java.util.List<LibraryJournal.Record> records, boolean publishUsers) {
+        try {
+            store = LibraryStore.open(type, DATA_DIR);
+            long checkpointSeq = store.getCheckpointSeq();
+            for (LibraryJournal.Record record : records) {
+                if (record.seq > checkpointSeq) {
+                    PersistenceService.apply(store, record.type, record.fields);
+                }
+            }
+            long lastSeq = Math.max(checkpointSeq, journal == null ? 0 : journal.getLastSeq());
+            if (publishUsers) {
+                publishUsers(store.scanUsers(null, null));
+            }
+
+            // The catalog is shown as soon as it is read; the loans follow. Every store is read
+            // into the list, the paged one included, so the catalog has to fit on the heap and ID
+            // lookups go to the list's index rather than to the store.
+            MappedBookList loadedBooks = new MappedBookList(store.scanBooks(null, null));
+            SwingUtilities.invokeLater(() -> {
+                books = loadedBooks;
+                refreshTabs();
+            });
+
+            java.util.List<String[]> loanRows = store.scanLoans(null, null);
+            java.util.List<Loan> loans = new ArrayList<>(loanRows.size());
+            for (String[] loan : loanRows) {
+                loans.add(Loan.fromRow(loan));
+            }
+            LoanList loadedLoans = new LoanList(loans, DUE_SOON_MILLIS);
+            SwingUtilities.invokeLater(() -> {
+                issuedBooks = loadedLoans;
+                issuedBooks.getDueSchedule().setListener(this::dueChanged);
+                startDueTimer();
+                refreshLoanTabs();
+            });
+
+            // The search index, facets and completions are built behind the shown catalog, which
+            // is searched by a scan and offers no facets or completions until then. Changes wait
+            // for them (see canSave), so the list stays as it was read.
+            BookSearchIndex searchIndex = loadedBooks.buildSearchIndex();
+            FacetIndex facetIndex = loadedBooks.buildFacetIndex();
+            SuggestionIndex loadedSuggestions = new SuggestionIndex(loadedBooks, loans);
+            SwingUtilities.invokeLater(() -> {
+                loadedBooks.setSearchIndex(searchIndex);
+                loadedBooks.setFacetIndex(facetIndex);
+                suggestions = loadedSuggestions;
+                if (booksTableModel != null) {
+                    booksTableModel.fireTableDataChanged();
+                }
+                startPersistence(lastSeq);
+                catalogLoaded.complete(null);
+            });
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to save issued books data: " + e.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
+            throw new UncheckedIOException(e);
         }
     }
 
-    private void saveUsersData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("users.dat"))) {
-            oos.writeObject(users);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to save users data: " + e.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadData() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("books.dat"))) {
-            books = (ArrayList<String[]>) ois.readObject();
-        } catch (FileNotFoundException e) {
-            // No data file found, create sample data
-            createSampleBooks();
-        } catch (IOException | ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load books data: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadIssuedData() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("issued_books.dat"))) {
-            issuedBooks = (ArrayList<String[]>) ois.readObject();
-            // Update old format if needed
-            for (int i = 0; i < issuedBooks.size(); i++) {
-                String[] oldEntry = issuedBooks.get(i);
-                if (oldEntry.length == 4) {
-                    String[] newEntry = new String[5];
-                    newEntry[ISSUED_BOOK_ID_INDEX] = oldEntry[0];
-                    newEntry[ISSUED_USER_ID_INDEX] = "";
-                    newEntry[ISSUED_USER_NAME_INDEX] = oldEntry[1];
-                    newEntry[ISSUED_CONTACT_INDEX] = oldEntry[2];
-                    newEntry[ISSUED_DATE_TIME_INDEX] = oldEntry[3];
-                    issuedBooks.set(i, newEntry);
-                }
+    // Loaders run on background threads and report errors on the Swing thread
+    private void showLoadError(String message) {
+        SwingUtilities.invokeLater(() ->
+            JOptionPane.showMessageDialog(this, message, "Load Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    // Rebuild the tabs once the catalog and loans have been loaded behind an open main panel
+    private void refreshTabs() {
+        if (mainPanel == null || tabbedPane == null || tabbedPane.getParent() != mainPanel) {
+            return;
+        }
+        int selected = tabbedPane.getSelectedIndex();
+        mainPanel.remove(tabbedPane);
+        tabbedPane = createMainTabbedPane();
+        if (selected >= 0 && selected < tabbedPane.getTabCount()) {
+            tabbedPane.setSelectedIndex(selected);
+        }
+        mainPanel.add(tabbedPane, BorderLayout.CENTER);
+        updatePendingLabel();
+        mainPanel.revalidate();
+        mainPanel.repaint();
+    }
+
+    // Rebuild the tabs that show loans once the loans have been loaded behind the catalog
+    private void refreshLoanTabs() {
+        if (mainPanel == null || tabbedPane == null || tabbedPane.getParent() != mainPanel) {
+            return;
+        }
+        if (isAdmin) {
+            tabbedPane.setComponentAt(1, createIssuedBooksPanel());
+            tabbedPane.setComponentAt(3, createDashboardPanel());
+        } else {
+            tabbedPane.setComponentAt(1, createMyIssuedBooksPanel());
+        }
+    }
+
+    // Queue a change; the persistence thread writes it to the journal and the store
+    private void logMutation(byte type, String... fields) {
+        if (canSave()) {
+            persistence.log(type, fields);
+        }
+    }
+
+    private boolean canSave() {
+        if (!catalogLoaded.isDone()) {
+            JOptionPane.showMessageDialog(this, "The library is still loading. Please try again in a moment.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (exportsRunning > 0) {
+            JOptionPane.showMessageDialog(this, "An export is in progress. Please try again once it has finished.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (importRunning) {
+            JOptionPane.showMessageDialog(this, "An import is in progress. Please try again once it has finished.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (persistence == null) {
+            JOptionPane.showMessageDialog(this, "Changes cannot be saved: the library store is not available.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+    // Bulk import of books or users from a CSV/TSV file. The file is streamed on a background
+    // thread; each validated chunk is added on the Swing thread and journalled as one batch.
+    // Duplicates are checked against a hash set of IDs rather than validateBook's list scan; the
+    // set is taken when the import starts, so other changes and imports wait for it (see canSave).
+    private void importFile(boolean importBooks) {
+        if (!canSave()) {
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(importBooks ? "Import Books" : "Import Users");
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV or TSV files", "csv", "tsv", "txt"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File input = chooser.getSelectedFile();
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        File errorFile = new File(input.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".errors.csv");
+
+        Set<String> ids = new HashSet<>();
+        if (importBooks) {
+            for (int i = 0; i < books.size(); i++) {
+                ids.add(books.getId(i));
+            }
+        } else {
+            for (User user : users) {
+                ids.add(user.id);
             }
-        } catch (FileNotFoundException e) {
-            // No issued books file found
-        } catch (IOException | ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load issued books data: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
         }
+        BulkImporter importer = importBooks
+            ? new BulkImporter(7, LibraryManagement::checkBook, ids)
+            : new BulkImporter(4, LibraryManagement::checkUser, ids);
+
+        statusLabel.setText("Importing " + name + "...");
+        importRunning = true;
+        Thread thread = new Thread(() -> {
+            try {
+                BulkImporter.Report report = importer.run(input, errorFile,
+                    batch -> SwingUtilities.invokeAndWait(() -> applyImport(importBooks, batch)),
+                    read -> SwingUtilities.invokeLater(() ->
+                        statusLabel.setText(String.format("Importing %s: %,d rows read", name, read))));
+                SwingUtilities.invokeLater(() -> {
+                    importRunning = false;
+                    statusLabel.setText(String.format("Imported %,d rows from %s", report.imported, name));
+                    refreshTabs();
+                    JOptionPane.showMessageDialog(this, report.summary(), "Import Complete", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    importRunning = false;
+                    statusLabel.setText("Import of " + name + " failed");
+                    refreshTabs();
+                    JOptionPane.showMessageDialog(this, "Error importing " + name + ": " + e.getMessage(), "Import Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        }, "library-import");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadUsersData() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("users.dat"))) {
-            users = (ArrayList<String[]>) ois.readObject();
-        } catch (FileNotFoundException e) {
-            // No users file found, create sample users
-            createSampleUsers();
-        } catch (IOException | ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load users data: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+    private JButton createExportButton(int dataset) {
+        JButton button = createStyledButton("Export...", 120, 40, "Export to CSV, TSV or JSON Lines");
+        button.addActionListener(e -> exportData(dataset));
+        return button;
+    }
+
+    // Export books, loans or users. Rows are copied from the Swing thread a chunk at a time and
+    // streamed to the file on a background thread, so the export never holds the whole data set.
+    // Chunks are taken by position, so changes wait until the export has finished (see canSave).
+    private void exportData(int dataset) {
+        if (!catalogLoaded.isDone()) {
+            JOptionPane.showMessageDialog(this, "The library is still loading. Please try again in a moment.", "Export Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (importRunning) {
+            JOptionPane.showMessageDialog(this, "An import is in progress. Please try again once it has finished.", "Export Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JComboBox<String> formatBox = new JComboBox<>(new String[] {"CSV", "TSV", "JSON Lines"});
+        JTextField genreField = new JTextField(15);
+        JCheckBox overdueBox = new JCheckBox("Only overdue loans");
+        JPanel options = new JPanel(new GridLayout(0, 2, 5, 5));
+        options.add(new JLabel("Format:"));
+        options.add(formatBox);
+        if (dataset == EXPORT_BOOKS) {
+            options.add(new JLabel("Genre (optional):"));
+            options.add(genreField);
+        } else if (dataset == EXPORT_LOANS) {
+            options.add(new JLabel("Filter:"));
+            options.add(overdueBox);
+        }
+        if (JOptionPane.showConfirmDialog(this, options, "Export " + EXPORT_NAMES[dataset].replace('_', ' '),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+
+        String extension = new String[] {"csv", "tsv", "jsonl"}[formatBox.getSelectedIndex()];
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export " + EXPORT_NAMES[dataset].replace('_', ' '));
+        chooser.setSelectedFile(new File(EXPORT_NAMES[dataset] + "." + extension));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selected = chooser.getSelectedFile();
+        File output = selected.getName().contains(".") ? selected
+            : new File(selected.getParentFile(), selected.getName() + "." + extension);
+
+        java.util.function.Predicate<String[]> filter = row -> true;
+        String genre = genreField.getText().trim();
+        if (dataset == EXPORT_BOOKS && !genre.isEmpty()) {
+            filter = book -> book[BOOK_GENRE_INDEX].equalsIgnoreCase(genre);
+        } else if (dataset == EXPORT_LOANS && overdueBox.isSelected()) {
+            filter = overdueFilter();
         }
+        BulkExporter exporter = new BulkExporter(EXPORT_COLUMNS[dataset], filter);
+
+        String name = output.getName();
+        statusLabel.setText("Exporting " + name + "...");
+        exportsRunning++;
+        Thread thread = new Thread(() -> {
+            try {
+                BulkExporter.Report report = exporter.run(output,
+                    (from, count) -> {
+                        java.util.List<String[]> chunk = new ArrayList<>(count);
+                        SwingUtilities.invokeAndWait(() -> readExportChunk(dataset, from, count, chunk));
+                        return chunk;
+                    },
+                    read -> SwingUtilities.invokeLater(() ->
+                        statusLabel.setText(String.format("Exporting %s: %,d rows read", name, read))));
+                SwingUtilities.invokeLater(() -> {
+                    exportsRunning--;
+                    statusLabel.setText(String.format("Exported %,d rows to %s", report.written, name));
+                    JOptionPane.showMessageDialog(this, report.summary(), "Export Complete", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    exportsRunning--;
+                    statusLabel.setText("Export to " + name + " failed");
+                    JOptionPane.showMessageDialog(this, "Error exporting " + name + ": " + e.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        }, "library-export");
+        thread.setDaemon(true);
+        thread.start();
     }
-    
-    // Create sample books for first run
-    private void createSampleBooks() {
-        // Don't create any sample books - rely on books.dat file
-        saveData();
+
+    // Copy rows [from, from + count) of a data set. Runs on the Swing thread, which owns the lists.
+    private void readExportChunk(int dataset, int from, int count, java.util.List<String[]> chunk) {
+        if (dataset == EXPORT_BOOKS) {
+            for (int i = from, end = Math.min(books.size(), from + count); i < end; i++) {
+                chunk.add(books.get(i).toRow());
+            }
+        } else if (dataset == EXPORT_LOANS) {
+            for (int i = from, end = Math.min(issuedBooks.size(), from + count); i < end; i++) {
+                chunk.add(issuedBooks.get(i).toRow());
+            }
+        } else {
+            // Passwords are not exported
+            for (int i = from, end = Math.min(users.size(), from + count); i < end; i++) {
+                User user = users.get(i);
+                chunk.add(new String[] {user.id, user.name, user.contact});
+            }
+        }
     }
-    
-    // Create sample users for first run
-    private void createSampleUsers() {
-        // No sample users - they will be created during registration
-        saveUsersData();
+
+    // Matches loan rows that are overdue as of now
+    private static java.util.function.Predicate<String[]> overdueFilter() {
+        long now = System.currentTimeMillis();
+        return loan -> {
+            long issuedAt = Loan.parseTime(loan[ISSUED_DATE_TIME_INDEX]);
+            // As Loan.daysRemaining, without building the loan
+            return issuedAt != 0 && (Loan.dueTime(issuedAt) - now) / Loan.DAY_MILLIS < 0;
+        };
     }
 
+    private void applyImport(boolean importBooks, java.util.List<String[]> batch) {
+        java.util.List<String[]> rows = new ArrayList<>(batch.size());
+        if (importBooks) {
+            for (String[] row : batch) {
+                Book book = Book.fromRow(row);
+                books.add(book);
+                suggestions.add(book);
+                rows.add(book.toRow());
+            }
+            persistence.logAll(LibraryJournal.BOOK_PUT, rows);
+            if (booksTableModel != null) {
+                booksTableModel.fireTableDataChanged();
+            }
+        } else {
+            for (String[] row : batch) {
+                users.add(User.fromRow(row));
+            }
+            persistence.logAll(LibraryJournal.USER_PUT, batch);
+        }
+    }
+
+    // Start the persistence thread once the journal has been replayed. Without a journal only
+    // the in-memory store can take changes, since nothing else would cover them until a checkpoint.
+    private void startPersistence(long lastSeq) {
+        if (journal == null && !(store instanceof InMemoryLibraryStore)) {
+            return;
+        }
+        persistence = new PersistenceService(journal, store, lastSeq, COMMIT_WINDOW_MS, CHECKPOINT_IDLE_MS,
+            this::persistenceChanged);
+        persistence.setCheckpointThresholds(CHECKPOINT_RECORDS, CHECKPOINT_BYTES);
+        persistence.start();
+
+        // Runs on exit (including the window close button): waits for queued writes and checkpoints
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> persistence.shutdown(SHUTDOWN_FLUSH_MS)));
+    }
+
+    // Called on the persistence thread and on the thread that queued the change, so the UI is
+    // updated through invokeLater either way
+    private void persistenceChanged(int pending, String error) {
+        SwingUtilities.invokeLater(() -> {
+            pendingWrites = pending;
+            persistenceError = error;
+            updatePendingLabel();
+        });
+    }
+
+    private void updatePendingLabel() {
+        if (pendingLabel == null) {
+            return;
+        }
+        if (!catalogLoaded.isDone()) {
+            pendingLabel.setText("Loading catalog...");
+            pendingLabel.setForeground(Color.GRAY);
+        } else if (persistenceError != null) {
+            pendingLabel.setText(persistenceError);
+            pendingLabel.setForeground(ERROR_COLOR);
+        } else if (pendingWrites > 0) {
+            pendingLabel.setText("Saving " + pendingWrites + (pendingWrites == 1 ? " change..." : " changes..."));
+            pendingLabel.setForeground(WARNING_COLOR);
+        } else {
+            pendingLabel.setText("All changes saved");
+            pendingLabel.setForeground(Color.GRAY);
+        }
+    }
+    
     // Method to style dialog buttons - fixes the text color issue
     private void styleDialogButtons(JDialog dialog) {
     // Force dark text on all buttons in the dialog
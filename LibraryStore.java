@@ -0,0 +1,118 @@
+import java.io.*;
+import java.util.*;
+
+// Storage backend for the catalog, loans and users.
+//
+// Rows use the String[] layouts of LibraryManagement. Books and users are keyed by their ID,
+// loans by all of their fields (book ID first). Scans return the rows with from <= key < to in
+// key order; a null bound is open. Returned rows and lists must not be modified, and lists are
+// read before the store next changes (a paged store reads them as they are iterated).
+//
+// A store is used from one thread at a time: the loader at startup, then the persistence
+// thread. Changes only have to survive a crash once checkpoint() returns; until then the
+// journal in front of the store covers them, and records after getCheckpointSeq() are applied
+// again on startup. Every operation is idempotent, so re-applying them is harmless.
+interface LibraryStore extends Closeable {
+    String[] getBook(String id) throws IOException;
+
+    void putBook(String[] book) throws IOException;
+
+    void deleteBook(String id) throws IOException;
+
+    List<String[]> scanBooks(String fromId, String toId) throws IOException;
+
+    void putLoan(String[] loan) throws IOException;
+
+    void deleteLoan(String[] loan) throws IOException;
+
+    // Loans of the books with fromBookId <= book ID < toBookId
+    List<String[]> scanLoans(String fromBookId, String toBookId) throws IOException;
+
+    String[] getUser(String id) throws IOException;
+
+    void putUser(String[] user) throws IOException;
+
+    void deleteUser(String id) throws IOException;
+
+    List<String[]> scanUsers(String fromId, String toId) throws IOException;
+
+    // Make every change so far durable; seq is the last journal record it contains
+    void checkpoint(long seq) throws IOException;
+
+    // Last journal record contained in the durable state (0 if there is none)
+    long getCheckpointSeq();
+
+    // Backends selectable with -Dlibrary.store
+    String MEMORY = "memory";
+    String FILE = "file";
+    String PAGED = "paged";
+
+    static LibraryStore open(String type, File dir) throws IOException {
+        switch (type) {
+            case MEMORY:
+                return new InMemoryLibraryStore();
+            case FILE:
+                return FileLibraryStore.open(dir);
+            case PAGED:
+                return openPaged(dir);
+            default:
+                throw new IOException("Unknown store type: " + type);
+        }
+    }
+
+    // Users of a data directory as of the store's last checkpoint, read without opening the rest
+    // of the store so that logging in does not wait for the catalog. Null for a paged store that
+    // is in use, whose users are only reachable through the store itself (opening it is cheap).
+    static Snapshot readUsers(String type, File dir) throws IOException {
+        switch (type) {
+            case MEMORY:
+                return new Snapshot(0, new ArrayList<>());
+            case FILE:
+                return FileLibraryStore.readUsers(dir);
+            case PAGED:
+                // Until its first checkpoint the paged store is filled from the file store's data
+                return new File(dir, PagedLibraryStore.FILE_NAME).length() > 0 ? null : FileLibraryStore.readUsers(dir);
+            default:
+                throw new IOException("Unknown store type: " + type);
+        }
+    }
+
+    // Rows of one data set and the last journal record they reflect
+    final class Snapshot {
+        final long seq;
+        final List<String[]> rows;
+
+        Snapshot(long seq, List<String[]> rows) {
+            this.seq = seq;
+            this.rows = rows;
+        }
+    }
+
+    // The first time the paged store is used in a data directory, it starts from the data
+    // files of the file store (which in turn picks up an old books.dat)
+    static LibraryStore openPaged(File dir) throws IOException {
+        PagedLibraryStore paged = PagedLibraryStore.open(new File(dir, PagedLibraryStore.FILE_NAME));
+        try {
+            if (paged.isNew()) {
+                try (FileLibraryStore files = FileLibraryStore.open(dir)) {
+                    paged.seed(files);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            paged.close();
+            throw e;
+        }
+        return paged;
+    }
+
+    // Key order of loans: book ID, then the remaining fields
+    Comparator<String[]> LOAN_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int order = a[i].compareTo(b[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    };
+}
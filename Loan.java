@@ -0,0 +1,78 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Calendar;
+
+// An active loan. The issue and due times are held as epoch milliseconds, so tables and overdue
+// checks do not parse or compute them again. The issue time is also kept as stored, and written
+// back as it was read, since loans are keyed on the whole row.
+final class Loan {
+    // Format of issue times in store rows and the journal (local time)
+    static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Loans are due this many calendar days after they are issued
+    static final int BORROWING_PERIOD_DAYS = 14;
+    static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    final String bookId;
+    final String userId;    // empty for guests
+    final String userName;
+    final String contact;
+    final String issuedAt;
+    final long issuedAtEpochMillis;
+    final long dueAtEpochMillis;
+
+    Loan(String bookId, String userId, String userName, String contact, long issuedAtEpochMillis) {
+        this(bookId, userId, userName, contact, formatTime(issuedAtEpochMillis), issuedAtEpochMillis);
+    }
+
+    private Loan(String bookId, String userId, String userName, String contact, String issuedAt,
+                 long issuedAtEpochMillis) {
+        // Shared with the user's record and the other loans of the same user and book
+        this.bookId = StringPool.SHARED.intern(bookId);
+        this.userId = StringPool.SHARED.intern(userId);
+        this.userName = StringPool.SHARED.intern(userName);
+        this.contact = StringPool.SHARED.intern(contact);
+        this.issuedAt = issuedAt;
+        this.issuedAtEpochMillis = issuedAtEpochMillis;
+        this.dueAtEpochMillis = dueTime(issuedAtEpochMillis);
+    }
+
+    // Convert a store row: book ID, user ID, user name, contact, issue time. Issue times are
+    // always written by formatTime; one that still does not parse reads as the epoch, but keeps
+    // its text so that returning the loan deletes the row it came from.
+    static Loan fromRow(String[] row) {
+        return new Loan(row[0], row[1], row[2], row[3], row[4], parseTime(row[4]));
+    }
+
+    String[] toRow() {
+        return new String[] {bookId, userId, userName, contact, issuedAt};
+    }
+
+    // Whole days from now until the due time: positive while days remain, 0 on the last day and
+    // negative once the loan is overdue
+    long daysRemaining(long now) {
+        return (dueAtEpochMillis - now) / DAY_MILLIS;
+    }
+
+    // The borrowing period in calendar days after the issue time
+    static long dueTime(long issuedAt) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(issuedAt);
+        cal.add(Calendar.DAY_OF_MONTH, BORROWING_PERIOD_DAYS);
+        return cal.getTimeInMillis();
+    }
+
+    static long parseTime(String text) {
+        try {
+            return LocalDateTime.parse(text, TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    static String formatTime(long epochMillis) {
+        return TIME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()));
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.*;
+
+// List of active loans with multimap indexes by user ID and by book ID, kept up to date by
+// every change made through the list, so per-user and per-book checks only look at that
+// user's or book's loans. The list's due schedule is kept up to date the same way.
+class LoanList extends AbstractList<Loan> implements RandomAccess {
+    private final ArrayList<Loan> rows;
+    private final HashMap<String, List<Loan>> byUser = new HashMap<>();
+    private final HashMap<String, List<Loan>> byBook = new HashMap<>();
+    private final DueSchedule schedule;
+
+    LoanList(Collection<Loan> loans, long dueSoonMillis) {
+        rows = new ArrayList<>(loans);
+        schedule = new DueSchedule(dueSoonMillis, System::currentTimeMillis);
+        for (Loan loan : rows) {
+            index(loan);
+        }
+    }
+
+    @Override
+    public Loan get(int index) {
+        return rows.get(index);
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void add(int index, Loan loan) {
+        rows.add(index, loan);
+        modCount++;
+        index(loan);
+    }
+
+    @Override
+    public Loan set(int index, Loan loan) {
+        Loan previous = rows.set(index, loan);
+        unindex(previous);
+        index(loan);
+        return previous;
+    }
+
+    @Override
+    public Loan remove(int index) {
+        Loan previous = rows.remove(index);
+        modCount++;
+        unindex(previous);
+        return previous;
+    }
+
+    // Remove this loan (compared by identity)
+    @Override
+    public boolean remove(Object loan) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            if (rows.get(i) == loan) {
+                remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Loans of a user, in list order
+    List<Loan> findByUser(String userId) {
+        return view(byUser.get(userId));
+    }
+
+    // Loans of a book, in list order
+    List<Loan> findByBook(String bookId) {
+        return view(byBook.get(bookId));
+    }
+
+    // A loan of this book to this user, or null
+    Loan find(String bookId, String userId) {
+        List<Loan> ofBook = byBook.get(bookId);
+        List<Loan> ofUser = byUser.get(userId);
+        if (ofBook == null || ofUser == null) {
+            return null;
+        }
+        // Either list will do; search the shorter one
+        boolean searchBook = ofBook.size() <= ofUser.size();
+        for (Loan loan : searchBook ? ofBook : ofUser) {
+            if (searchBook ? loan.userId.equals(userId) : loan.bookId.equals(bookId)) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    DueSchedule getDueSchedule() {
+        return schedule;
+    }
+
+    private static List<Loan> view(List<Loan> loans) {
+        return loans == null ? Collections.<Loan>emptyList() : Collections.unmodifiableList(loans);
+    }
+
+    private void index(Loan loan) {
+        byUser.computeIfAbsent(loan.userId, u -> new ArrayList<>(2)).add(loan);
+        byBook.computeIfAbsent(loan.bookId, b -> new ArrayList<>(2)).add(loan);
+        schedule.add(loan);
+    }
+
+    private void unindex(Loan loan) {
+        unindex(byUser, loan.userId, loan);
+        unindex(byBook, loan.bookId, loan);
+        schedule.remove(loan);
+    }
+
+    private static void unindex(HashMap<String, List<Loan>> index, String key, Loan loan) {
+        List<Loan> loans = index.get(key);
+        if (loans == null) {
+            return;
+        }
+        for (int i = 0; i < loans.size(); i++) {
+            if (loans.get(i) == loan) {
+                loans.remove(i);
+                break;
+            }
+        }
+        if (loans.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+import java.util.*;
+import java.util.function.IntPredicate;
+
+// Editable list of books on top of a store scan.
+// Books from the mapped catalog file stay there and are read a field at a time; books added or
+// changed afterwards, and all books of stores without a catalog file, are kept in BookColumns.
+// get returns a new Book each time, so changes go through set or setCopies.
+class MappedBookList extends AbstractList<Book> implements RandomAccess {
+    // Set when the scan comes from the mapped catalog file
+    private final FileLibraryStore.CatalogView view;
+    private final BookColumns columns;
+    // Row in view for books still in the catalog file, or ~slot in columns
+    private int[] positions;
+    private int size;
+    // Hash index from book ID to list index, built on the first lookup and kept up to date by
+    // every change after that. Open addressing with linear probing: slots hold index + 1 (0 is
+    // empty) and hashes the ID hash of each slot, so IDs are only read on a hash match.
+    private int[] slots;
+    private int[] hashes;
+    private int indexed;
+    // Full-text index, attached once built and kept up to date in the same way
+    private BookSearchIndex search;
+    // Genre, publisher, decade and availability bitmaps, likewise
+    private FacetIndex facets;
+
+    MappedBookList(List<String[]> base) {
+        view = base instanceof FileLibraryStore.CatalogView ? (FileLibraryStore.CatalogView) base : null;
+        if (view != null) {
+            size = base.size();
+            positions = new int[Math.max(size, 16)];
+            columns = new BookColumns(16);
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+        } else {
+            // Rows are read in one pass, as a store that reads them lazily is best walked once
+            int expected = base instanceof RandomAccess ? base.size() : 16;
+            positions = new int[Math.max(expected, 16)];
+            columns = new BookColumns(expected);
+            for (String[] row : base) {
+                if (size == positions.length) {
+                    positions = Arrays.copyOf(positions, size + (size >> 1));
+                }
+                positions[size++] = ~columns.add(Book.fromRow(row));
+            }
+        }
+    }
+
+    @Override
+    public Book get(int index) {
+        checkIndex(index);
+        int position = positions[index];
+        return position < 0 ? columns.get(~position) : Book.fromRow(view.get(position));
+    }
+
+    @Override
+    public Book set(int index, Book book) {
+        Book previous = get(index);
+        int position = positions[index];
+        if (position < 0) {
+            columns.set(~position, book);
+        } else {
+            positions[index] = ~columns.add(book);
+        }
+        if (slots != null && !previous.id.equals(book.id)) {
+            unindex(index, hash(previous.id));
+            index(index, hash(book.id));
+        }
+        if (search != null) {
+            search.replace(index, previous, book);
+        }
+        if (facets != null) {
+            facets.replace(index, previous, book);
+        }
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Book book) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length + (positions.length >> 1));
+        }
+        if (slots != null && index < size) {
+            renumber(index, 1);
+        }
+        System.arraycopy(positions, index, positions, index + 1, size - index);
+        positions[index] = ~columns.add(book);
+        size++;
+        modCount++;
+        if (slots != null) {
+            index(index, hash(book.id));
+        }
+        if (search != null) {
+            search.insert(index, book);
+        }
+        if (facets != null) {
+            facets.insert(index, book);
+        }
+    }
+
+    @Override
+    public Book remove(int index) {
+        Book previous = get(index);
+        if (slots != null) {
+            unindex(index, hash(previous.id));
+            renumber(index + 1, -1);
+        }
+        if (search != null) {
+            search.remove(index, previous);
+        }
+        if (facets != null) {
+            facets.remove(index, previous);
+        }
+        if (positions[index] < 0) {
+            columns.remove(~positions[index]);
+        }
+        System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Change the copies of the book at index; a book still in the catalog file moves to columns
+    void setCopies(int index, int copies) {
+        checkIndex(index);
+        if (positions[index] >= 0) {
+            positions[index] = ~columns.add(get(index));
+        }
+        columns.setCopies(~positions[index], copies);
+        if (facets != null) {
+            facets.setCopies(index, copies);
+        }
+    }
+
+    // One field of the book at index (see MappedCatalogStore for the columns), as a String or,
+    // for year and copies, an Integer. Nothing else of the book is decoded.
+    Object getField(int index, int column) {
+        checkIndex(index);
+        int position = positions[index];
+        return position < 0 ? columns.getField(~position, column) : view.getField(position, column);
+    }
+
+    // Find a book by ID in constant time, without decoding rows that are still in the mapped file
+    int indexOfId(String id) {
+        if (slots == null) {
+            buildIndex();
+        }
+        int hash = hash(id);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && getId(slots[slot] - 1).equals(id)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // ID of the book at index, read without decoding the rest of its row
+    String getId(int index) {
+        checkIndex(index);
+        int position = positions[index];
+        return position < 0 ? columns.getId(~position) : view.getId(position);
+    }
+
+    // List indices of the books matching a query, best match first (see BookSearchIndex).
+    // Until an index is attached the books are scanned, and matches come in list order.
+    int[] search(String query) {
+        if (search != null) {
+            return search.search(query);
+        }
+        java.util.function.Predicate<Book> matcher = BookSearchIndex.matcher(query);
+        int[] found = new int[16];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (matcher.test(get(i))) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = i;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // The query with misspelled words corrected, or null (see BookSearchIndex.correct); always
+    // null until an index is attached
+    String correct(String query) {
+        return search == null ? null : search.correct(query);
+    }
+
+    // A search index over the books as they are now, which setSearchIndex attaches. It only reads
+    // the list, so it may be built on another thread while the list is not changed. Books the
+    // catalog file's index describes are loaded from it rather than read and tokenized.
+    BookSearchIndex buildSearchIndex() {
+        IndexFile stored = view == null ? null : view.getIndex();
+        if (stored == null) {
+            BookSearchIndex index = new BookSearchIndex();
+            for (int i = 0; i < size; i++) {
+                index.add(get(i));
+            }
+            index.trim();
+            return index;
+        }
+        int[] documents = storedDocuments();
+        BookSearchIndex index = new BookSearchIndex(size);
+        stored.forEach(FileLibraryStore.TERMS_SECTION, (term, postings) -> index.load(term, postings, documents));
+        for (int i = 0; i < size; i++) {
+            if (!isStored(i)) {
+                index.fill(i, get(i));
+            }
+        }
+        index.trim();
+        return index;
+    }
+
+    // Attach an index from buildSearchIndex; later changes keep it up to date
+    void setSearchIndex(BookSearchIndex index) {
+        search = index;
+    }
+
+    // Books matching a facet selection, within the given list indices or all books if null, and
+    // the counts of every facet value (see FacetIndex.select); FacetIndex.EMPTY until an index
+    // is attached
+    FacetIndex.Result selectFacets(List<? extends Set<String>> selected, boolean availableOnly, int[] within) {
+        return facets == null ? FacetIndex.EMPTY : facets.select(selected, availableOnly, within);
+    }
+
+    // Facet bitmaps over the books as they are now, which setFacetIndex attaches; like
+    // buildSearchIndex, may be built on another thread while the list is not changed, and takes
+    // publishers and genres from the catalog file's index. Decades and copies are read from the
+    // file's number columns.
+    FacetIndex buildFacetIndex() {
+        FacetIndex index = new FacetIndex(size);
+        IndexFile stored = view == null ? null : view.getIndex();
+        if (stored == null) {
+            for (int i = 0; i < size; i++) {
+                index.insert(i, get(i));
+            }
+            return index;
+        }
+        int[] documents = storedDocuments();
+        index.extend(size);
+        int[][] sections = {
+            {FileLibraryStore.PUBLISHER_SECTION, FacetIndex.PUBLISHER}, {FileLibraryStore.GENRE_SECTION, FacetIndex.GENRE}
+        };
+        for (int[] section : sections) {
+            stored.forEach(section[0], (value, slots) -> {
+                for (int slot : slots) {
+                    if (documents[slot] >= 0) {
+                        index.add(section[1], value, documents[slot]);
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < size; i++) {
+            if (isStored(i)) {
+                index.add(FacetIndex.DECADE, FacetIndex.decade((Integer) getField(i, MappedCatalogStore.YEAR)), i);
+                index.setCopies(i, (Integer) getField(i, MappedCatalogStore.COPIES));
+            } else {
+                index.fill(i, get(i));
+            }
+        }
+        return index;
+    }
+
+    // List index of each book the catalog file's index describes, by slot; -1 for other slots
+    private int[] storedDocuments() {
+        int[] documents = new int[view.getSlotCount()];
+        Arrays.fill(documents, -1);
+        for (int i = 0; i < size; i++) {
+            if (isStored(i)) {
+                documents[view.getSlot(positions[i])] = i;
+            }
+        }
+        return documents;
+    }
+
+    // Whether the catalog file's index describes the book at index
+    private boolean isStored(int index) {
+        return positions[index] >= 0 && view.getSlot(positions[index]) >= 0;
+    }
+
+    // Attach an index from buildFacetIndex; later changes keep it up to date
+    void setFacetIndex(FacetIndex index) {
+        facets = index;
+    }
+
+    // Predicate on the list indices of rows with the given author, publisher or genre.
+    // Rows still in the mapped file are matched by dictionary code without being decoded.
+    IntPredicate columnFilter(int column, String value) {
+        int code = view == null ? -1 : view.findCode(column, value);
+        return index -> {
+            checkIndex(index);
+            int position = positions[index];
+            if (position < 0) {
+                return columns.getValue(~position, column).equals(value);
+            }
+            int rowCode = view.getCode(position, column);
+            if (rowCode >= 0) {
+                return rowCode == code;
+            }
+            return view.get(position)[column].equals(value);
+        };
+    }
+
+    private void buildIndex() {
+        int capacity = 16;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        hashes = new int[capacity];
+        indexed = 0;
+        for (int i = 0; i < size; i++) {
+            index(i, hash(getId(i)));
+        }
+    }
+
+    private void index(int index, int hash) {
+        if ((indexed + 1) * 2 > slots.length) {
+            int[] oldSlots = slots;
+            int[] oldHashes = hashes;
+            slots = new int[oldSlots.length * 2];
+            hashes = new int[slots.length];
+            indexed = 0;
+            for (int slot = 0; slot < oldSlots.length; slot++) {
+                if (oldSlots[slot] != 0) {
+                    index(oldSlots[slot] - 1, oldHashes[slot]);
+                }
+            }
+        }
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+        hashes[slot] = hash;
+        indexed++;
+    }
+
+    // Remove the entry for index, moving later entries of the probe run back into the gap
+    private void unindex(int index, int hash) {
+        int mask = slots.length - 1;
+        int gap = hash & mask;
+        while (slots[gap] != index + 1) {
+            if (slots[gap] == 0) {
+                return;
+            }
+            gap = (gap + 1) & mask;
+        }
+        for (int slot = (gap + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hashes[slot] & mask;
+            // The entry may move into the gap unless its home lies cyclically in (gap, slot]
+            boolean movable = gap <= slot ? home <= gap || home > slot : home <= gap && home > slot;
+            if (movable) {
+                slots[gap] = slots[slot];
+                hashes[gap] = hashes[slot];
+                gap = slot;
+            }
+        }
+        slots[gap] = 0;
+        indexed--;
+    }
+
+    // Shift the indexed list indices >= from by delta after an insert or removal
+    private void renumber(int from, int delta) {
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] > from) {
+                slots[slot] += delta;
+            }
+        }
+    }
+
+    private static int hash(String id) {
+        int hash = id.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
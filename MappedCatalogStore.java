@@ -0,0 +1,457 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Memory-mapped binary catalog file (books-<seq>.bin).
+//
+// Layout is columnar: a fixed header, one dictionary per low-cardinality column (author,
+// publisher, genre), then one array per column and a UTF-8 string heap. Year and copies are
+// stored as ints, the dictionary columns as int codes and ID and title as (offset, length)
+// pairs into the heap. Opening the file maps it read-only and decodes the dictionaries; rows are
+// decoded on demand and share the dictionary strings.
+//
+// Copies are the one thing changed in place: issues and returns overwrite a slot's copies, and
+// the header records the journal sequence the copies column is current to, so a checkpoint of
+// copy changes writes a few ints instead of the catalog. Anything else is written as a new
+// generation next to the mapped one rather than over it, since a mapped file cannot be replaced
+// on every platform. Files of version 3 have no copies sequence and are only read.
+class MappedCatalogStore implements Closeable {
+    // Column order matches the String[] rows used by LibraryManagement
+    static final int ID = 0;
+    static final int TITLE = 1;
+    static final int AUTHOR = 2;
+    static final int PUBLISHER = 3;
+    static final int YEAR = 4;
+    static final int COPIES = 5;
+    static final int GENRE = 6;
+    static final int COLUMNS = 7;
+
+    private static final int[] TEXT_COLUMNS = {ID, TITLE};
+    private static final int[] DICTIONARY_COLUMNS = {AUTHOR, PUBLISHER, GENRE};
+
+    private static final int MAGIC = 0x4C4D4331; // "LMC1"
+    static final int VERSION = 4;
+    private static final int READ_ONLY_VERSION = 3;
+    // magic, version, count, body checksum, snapshot sequence, heap offset, dictionary sizes,
+    // padding, copies sequence (version 3 ends before the copies sequence)
+    private static final int HEADER_SIZE = 56;
+    private static final int READ_ONLY_HEADER_SIZE = 48;
+    private static final int HEADER_DICTIONARIES = 32;
+    private static final int HEADER_COPIES_SEQ = 48;
+    private static final int REF_SIZE = 8;       // offset and length of a string in the heap
+
+    private static final String LEGACY_FILE = "books.bin";
+    private static final Pattern GENERATION_NAME = Pattern.compile("books-(\\d+)\\.bin");
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int version;
+    private final int count;
+    private final long snapshotSeq;
+    private final int heapOffset;
+    // Start of each column's array, indexed by column
+    private final int[] columnOffset = new int[COLUMNS];
+    // Decoded dictionaries, indexed by column (null for other columns)
+    private final String[][] dictionaries = new String[COLUMNS][];
+
+    private MappedCatalogStore(File file, FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < READ_ONLY_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog file");
+        }
+        this.version = buffer.getInt(4);
+        if (version != VERSION && version != READ_ONLY_VERSION) {
+            throw new IOException("Unsupported catalog version " + version);
+        }
+        this.count = buffer.getInt(8);
+        this.snapshotSeq = buffer.getLong(16);
+        this.heapOffset = (int) buffer.getLong(24);
+
+        int[] dictionarySizes = new int[DICTIONARY_COLUMNS.length];
+        int headerSize = version == VERSION ? HEADER_SIZE : READ_ONLY_HEADER_SIZE;
+        long position = headerSize;
+        for (int i = 0; i < DICTIONARY_COLUMNS.length; i++) {
+            dictionarySizes[i] = buffer.getInt(HEADER_DICTIONARIES + i * 4);
+            position += (long) dictionarySizes[i] * REF_SIZE;
+        }
+        long end = layout(position, count, columnOffset);
+        if (count < 0 || end != heapOffset || heapOffset > buffer.capacity()) {
+            throw new IOException("Catalog file is truncated");
+        }
+
+        int ref = headerSize;
+        for (int i = 0; i < DICTIONARY_COLUMNS.length; i++) {
+            String[] dictionary = new String[dictionarySizes[i]];
+            for (int code = 0; code < dictionary.length; code++) {
+                dictionary[code] = readText(ref);
+                ref += REF_SIZE;
+            }
+            dictionaries[DICTIONARY_COLUMNS[i]] = dictionary;
+        }
+    }
+
+    // Compute where each column array starts when the arrays begin at position.
+    // Returns the end of the last array, which is where the heap starts.
+    private static long layout(long position, int count, int[] offsets) {
+        int[] order = {YEAR, COPIES, AUTHOR, PUBLISHER, GENRE, ID, TITLE};
+        for (int column : order) {
+            offsets[column] = (int) position;
+            position += (long) count * (column == ID || column == TITLE ? REF_SIZE : 4);
+        }
+        return position;
+    }
+
+    // Map an existing catalog file; mapped for writing so copies can be changed in place
+    static MappedCatalogStore open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Catalog file is too large to map");
+            }
+            return new MappedCatalogStore(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Map the newest readable generation in dir, or return null if there is none
+    static MappedCatalogStore openLatest(File dir) throws IOException {
+        IOException failure = null;
+        for (File generation : findGenerations(dir)) {
+            try {
+                return open(generation);
+            } catch (IOException e) {
+                // Fall back to an older generation
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    static File generationFile(File dir, long snapshotSeq) {
+        return new File(dir, "books-" + snapshotSeq + ".bin");
+    }
+
+    // Catalog generations in dir, newest first
+    static List<File> findGenerations(File dir) {
+        List<File> generations = new ArrayList<>();
+        Map<File, Long> seqs = new HashMap<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File candidate : files) {
+                Matcher matcher = GENERATION_NAME.matcher(candidate.getName());
+                if (matcher.matches()) {
+                    seqs.put(candidate, Long.parseLong(matcher.group(1)));
+                    generations.add(candidate);
+                } else if (candidate.getName().equals(LEGACY_FILE)) {
+                    seqs.put(candidate, -1L);
+                    generations.add(candidate);
+                }
+            }
+        }
+        generations.sort((a, b) -> Long.compare(seqs.get(b), seqs.get(a)));
+        return generations;
+    }
+
+    // Remove every generation in dir except the given files
+    static void deleteGenerations(File dir, File... keep) {
+        List<File> kept = Arrays.asList(keep);
+        for (File generation : findGenerations(dir)) {
+            if (!kept.contains(generation)) {
+                generation.delete();
+            }
+        }
+    }
+
+    // Write a complete catalog file; snapshotSeq is the last journal record it reflects.
+    // The file is replaced atomically, so readers only ever see a complete catalog.
+    static void write(File file, List<String[]> rows, long snapshotSeq) throws IOException {
+        AtomicFiles.write(file, channel -> writeTo(channel, rows, snapshotSeq));
+    }
+
+    // The string heap is written in a second pass over the rows, after the refs into it, so it is
+    // never held in memory
+    private static void writeTo(FileChannel channel, List<String[]> rows, long snapshotSeq) throws IOException {
+        int count = rows.size();
+
+        // Assign dictionary codes in order of first use
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        int[][] codes = new int[DICTIONARY_COLUMNS.length][count];
+        for (int i = 0; i < DICTIONARY_COLUMNS.length; i++) {
+            Map<String, Integer> dictionary = new LinkedHashMap<>();
+            for (int row = 0; row < count; row++) {
+                String value = rows.get(row)[DICTIONARY_COLUMNS[i]];
+                Integer code = dictionary.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(value, code);
+                }
+                codes[i][row] = code;
+            }
+            dictionaries.add(dictionary);
+        }
+
+        long position = HEADER_SIZE;
+        for (Map<String, Integer> dictionary : dictionaries) {
+            position += (long) dictionary.size() * REF_SIZE;
+        }
+        long heapOffset = layout(position, count, new int[COLUMNS]);
+        long heapSize = 0;
+        for (Map<String, Integer> dictionary : dictionaries) {
+            for (String value : dictionary.keySet()) {
+                heapSize += utf8Length(value);
+            }
+        }
+        for (int column : TEXT_COLUMNS) {
+            for (String[] row : rows) {
+                heapSize += utf8Length(row[column]);
+            }
+        }
+        if (heapOffset + heapSize > Integer.MAX_VALUE) {
+            throw new IOException("Catalog is too large for a single catalog file");
+        }
+
+        BufferedOutputStream raw = new BufferedOutputStream(Channels.newOutputStream(channel));
+        DataOutputStream header = new DataOutputStream(raw);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(count);
+        header.writeInt(0); // checksum, filled in below
+        header.writeLong(snapshotSeq);
+        header.writeLong(heapOffset);
+        for (Map<String, Integer> dictionary : dictionaries) {
+            header.writeInt(dictionary.size());
+        }
+        header.writeInt(0);
+        header.writeLong(snapshotSeq);
+
+        // Everything after the header but the copies is checksummed, so indexes can tell which
+        // file they belong to while copies change in place
+        CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+
+        long heapPosition = 0;
+        for (Map<String, Integer> dictionary : dictionaries) {
+            for (String value : dictionary.keySet()) {
+                heapPosition = writeRef(out, heapPosition, value);
+            }
+        }
+        for (String[] row : rows) {
+            out.writeInt(parseInt(row[YEAR]));
+        }
+        DataOutputStream copies = new DataOutputStream(raw);
+        for (String[] row : rows) {
+            copies.writeInt(parseInt(row[COPIES]));
+        }
+        for (int[] columnCodes : codes) {
+            for (int code : columnCodes) {
+                out.writeInt(code);
+            }
+        }
+        for (int column : TEXT_COLUMNS) {
+            for (String[] row : rows) {
+                heapPosition = writeRef(out, heapPosition, row[column]);
+            }
+        }
+        for (Map<String, Integer> dictionary : dictionaries) {
+            for (String value : dictionary.keySet()) {
+                out.write(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        for (int column : TEXT_COLUMNS) {
+            for (String[] row : rows) {
+                out.write(row[column].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        out.flush();
+
+        ByteBuffer checksum = ByteBuffer.allocate(4);
+        checksum.putInt((int) checked.getChecksum().getValue());
+        checksum.flip();
+        channel.write(checksum, 12);
+    }
+
+    // Write the ref of a string stored at heapPosition and return the position after it
+    private static long writeRef(DataOutputStream out, long heapPosition, String value) throws IOException {
+        int length = utf8Length(value);
+        out.writeInt((int) heapPosition);
+        out.writeInt(length);
+        return heapPosition + length;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // encoded as '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    // CRC32 of everything after the header but the copies, recorded when the file was written
+    int getChecksum() {
+        return buffer.getInt(12);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    // Whether copies can be changed in place
+    boolean isWritable() {
+        return version == VERSION;
+    }
+
+    // Last journal record the copies reflect; the rest of the file reflects getSnapshotSeq()
+    long getCopiesSeq() {
+        return isWritable() ? buffer.getLong(HEADER_COPIES_SEQ) : snapshotSeq;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getSnapshotSeq() {
+        return snapshotSeq;
+    }
+
+    // Decode a full row; dictionary columns share their String instances across rows
+    String[] readRow(int slot) {
+        checkSlot(slot);
+        String[] row = new String[COLUMNS];
+        for (int column : TEXT_COLUMNS) {
+            row[column] = readText(columnOffset[column] + slot * REF_SIZE);
+        }
+        for (int column : DICTIONARY_COLUMNS) {
+            row[column] = dictionaries[column][getCode(slot, column)];
+        }
+        row[YEAR] = String.valueOf(buffer.getInt(columnOffset[YEAR] + slot * 4));
+        row[COPIES] = String.valueOf(getCopies(slot));
+        return row;
+    }
+
+    // Decode only the book ID of a slot
+    String readId(int slot) {
+        checkSlot(slot);
+        return readText(columnOffset[ID] + slot * REF_SIZE);
+    }
+
+    // Decode one field of a slot: ID and title from the heap, the others from their dictionary
+    String readString(int slot, int column) {
+        checkSlot(slot);
+        if (column == ID || column == TITLE) {
+            return readText(columnOffset[column] + slot * REF_SIZE);
+        }
+        return dictionaries[column][getCode(slot, column)];
+    }
+
+    // Year or copies of a slot
+    int getInt(int slot, int column) {
+        checkSlot(slot);
+        return buffer.getInt(columnOffset[column] + slot * 4);
+    }
+
+    // Dictionary code of an author, publisher or genre value
+    int getCode(int slot, int column) {
+        checkSlot(slot);
+        return buffer.getInt(columnOffset[column] + slot * 4);
+    }
+
+    // Code of a value in a column's dictionary, or -1 if no row in the file has it
+    int findCode(int column, String value) {
+        String[] dictionary = dictionaries[column];
+        for (int code = 0; code < dictionary.length; code++) {
+            if (dictionary[code].equals(value)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    String getDictionaryValue(int column, int code) {
+        return dictionaries[column][code];
+    }
+
+    int getCopies(int slot) {
+        checkSlot(slot);
+        return buffer.getInt(columnOffset[COPIES] + slot * 4);
+    }
+
+    // Overwrite the copies of a slot. Not durable until commitCopies.
+    void writeCopies(int slot, int copies) {
+        checkSlot(slot);
+        buffer.putInt(columnOffset[COPIES] + slot * 4, copies);
+    }
+
+    // Make the copies written so far durable and record seq as the journal record they reflect.
+    // The copies reach the disk before the sequence does, so after a crash the header still
+    // names an older record and replaying the journal from there writes the same copies again.
+    void commitCopies(long seq) {
+        buffer.force();
+        buffer.putLong(HEADER_COPIES_SEQ, seq);
+        buffer.force();
+    }
+
+    private String readText(int ref) {
+        int start = heapOffset + buffer.getInt(ref);
+        int length = buffer.getInt(ref + 4);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException("Slot " + slot);
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
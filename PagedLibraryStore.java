@@ -0,0 +1,782 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Embedded page-based store for large catalogs (-Dlibrary.store=paged), kept in library.db.
+//
+// The file is a sequence of fixed-size pages. Books, loans and users each live in a B+tree
+// keyed on the book ID, the loan itself and the user ID: leaf pages hold the rows in key order
+// and are chained for range scans, internal pages hold separator keys. Lookups and range scans
+// read one page per level, and only recently used pages are kept decoded in memory (the buffer
+// pool, -Dlibrary.pageCache pages), so neither the rows nor the keys have to fit on the heap.
+//
+// Pages are never overwritten while they are part of the committed state (shadow paging).
+// A checkpoint writes every changed page, and a new page directory mapping logical to physical
+// pages, to free physical pages, then commits by writing one of the two header pages. A crash
+// at any point leaves the previous checkpoint intact. A changed page that has to leave the
+// buffer pool before the checkpoint is written early to a free page of its own (a shadow page),
+// which the checkpoint then takes over, so changes between checkpoints are not bounded by the
+// pool either.
+class PagedLibraryStore implements LibraryStore {
+    static final String FILE_NAME = "library.db";
+
+    static final int PAGE_SIZE = 4096;
+    private static final int MAGIC = 0x4C4D5031; // "LMP1"
+    private static final int VERSION = 2;
+    private static final int HEADER_PAGES = 2;
+    private static final int HEADER_SIZE = 48;   // checksummed part of a header page
+    private static final int NO_PAGE = -1;
+    private static final int NODE_HEADER = 9;    // type, entry count, next leaf or first child
+    private static final int DIRECTORY_HEADER = 8; // next directory page, entry count
+    private static final int DIRECTORY_ENTRIES = (PAGE_SIZE - DIRECTORY_HEADER) / 4;
+    // Any half of a full node must fit in a page when it is split
+    private static final int MAX_ENTRY_SIZE = (PAGE_SIZE - NODE_HEADER) / 4;
+    private static final int CACHED_PAGES = Math.max(16, Integer.getInteger("library.pageCache", 1024));
+    // Rows filled in from another store between checkpoints (see seed)
+    private static final int SEED_BATCH = 10000;
+    // Checkpoint sequence of a store that seed has not finished filling
+    private static final long SEEDING = -1;
+
+    // Trees
+    private static final int BOOKS = 0;
+    private static final int LOANS = 1;
+    private static final int USERS = 2;
+
+    // Node types
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+
+    // A decoded B+tree page. Leaf entries are rows; internal entries are separator keys, where
+    // children[i] holds the keys below entries[i] and children[i + 1] those from entries[i] on.
+    private static final class Node {
+        final boolean leaf;
+        final ArrayList<String[]> entries = new ArrayList<>();
+        final ArrayList<Integer> children = new ArrayList<>();
+        int next = NO_PAGE;
+        int used = NODE_HEADER;
+        boolean dirty;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int entrySize(String[] entry) {
+            return size(entry) + (leaf ? 0 : 4);
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private long generation;
+    private long checkpointSeq;
+    private final int[] roots = {NO_PAGE, NO_PAGE, NO_PAGE};
+
+    // Physical page of every logical page, and the physical pages in use by the committed state
+    private int[] physical = new int[16];
+    private int logicalPages;
+    private final BitSet committedPages = new BitSet();
+    private final List<Integer> directoryPages = new ArrayList<>();
+    private int physicalPages = HEADER_PAGES;
+    // Shadow pages written since the last checkpoint, and the committed pages they replace
+    private final BitSet shadowPages = new BitSet();
+    private final BitSet replacedPages = new BitSet();
+
+    // Buffer pool of decoded pages, least recently used first; changed pages are written to
+    // shadow pages when they are evicted
+    private final LinkedHashMap<Integer, Node> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<Integer> dirtyPages = new HashSet<>();
+
+    private PagedLibraryStore(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static PagedLibraryStore open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PagedLibraryStore store = new PagedLibraryStore(file, channel);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    // Read the newest valid header and the page directory; tree pages are read on demand
+    private void load() throws IOException {
+        if (channel.size() == 0) {
+            return;
+        }
+        ByteBuffer header = null;
+        for (int slot = 0; slot < HEADER_PAGES; slot++) {
+            ByteBuffer candidate = readHeader(slot);
+            if (candidate != null && (header == null || candidate.getLong(8) > header.getLong(8))) {
+                header = candidate;
+            }
+        }
+        if (header == null) {
+            // Pages spilled before the first checkpoint, which never committed: a new store
+            if (isBlank(0) && isBlank(1)) {
+                return;
+            }
+            throw new IOException(file.getName() + " has no valid header");
+        }
+        generation = header.getLong(8);
+        checkpointSeq = header.getLong(16);
+        int directory = header.getInt(24);
+        logicalPages = header.getInt(28);
+        physicalPages = header.getInt(32);
+        for (int tree = 0; tree < roots.length; tree++) {
+            roots[tree] = header.getInt(36 + tree * 4);
+        }
+
+        physical = new int[Math.max(16, logicalPages)];
+        int logical = 0;
+        while (directory != NO_PAGE) {
+            ByteBuffer page = readPage(directory);
+            directoryPages.add(directory);
+            committedPages.set(directory);
+            int entries = page.getInt(4);
+            for (int i = 0; i < entries; i++) {
+                physical[logical++] = page.getInt(DIRECTORY_HEADER + i * 4);
+            }
+            directory = page.getInt(0);
+        }
+        if (logical != logicalPages) {
+            throw new IOException(file.getName() + " has a damaged page directory");
+        }
+        for (int page = 0; page < logicalPages; page++) {
+            committedPages.set(physical[page]);
+        }
+    }
+
+    private ByteBuffer readHeader(int slot) throws IOException {
+        if (channel.size() < (long) (slot + 1) * PAGE_SIZE) {
+            return null;
+        }
+        ByteBuffer header = readPage(slot);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                || header.getInt(HEADER_SIZE) != (int) crc.getValue()) {
+            return null;
+        }
+        return header;
+    }
+
+    // Whether a header page was never written
+    private boolean isBlank(int slot) throws IOException {
+        if (channel.size() < (long) (slot + 1) * PAGE_SIZE) {
+            return true;
+        }
+        ByteBuffer page = readPage(slot);
+        while (page.hasRemaining()) {
+            if (page.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(file.getName() + " is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    // Encoded size of a row or key: field count, then each field as modified UTF-8
+    private static int size(String[] fields) {
+        int size = 1;
+        for (String field : fields) {
+            size += 2;
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                size += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+            }
+        }
+        return size;
+    }
+
+    private static void writeFields(DataOutputStream out, String[] fields) throws IOException {
+        out.writeByte(fields.length);
+        for (String field : fields) {
+            out.writeUTF(field);
+        }
+    }
+
+    private static String[] readFields(DataInputStream in) throws IOException {
+        String[] fields = new String[in.readUnsignedByte()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = in.readUTF();
+        }
+        return fields;
+    }
+
+    private static Node decode(ByteBuffer buffer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        Node node = new Node(in.readByte() == LEAF);
+        int count = in.readInt();
+        if (node.leaf) {
+            node.next = in.readInt();
+        } else {
+            node.children.add(in.readInt());
+        }
+        for (int i = 0; i < count; i++) {
+            String[] entry = readFields(in);
+            node.entries.add(entry);
+            if (!node.leaf) {
+                node.children.add(in.readInt());
+            }
+            node.used += node.entrySize(entry);
+        }
+        return node;
+    }
+
+    private static ByteBuffer encode(Node node) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(node.leaf ? LEAF : INTERNAL);
+        out.writeInt(node.entries.size());
+        out.writeInt(node.leaf ? node.next : node.children.get(0));
+        for (int i = 0; i < node.entries.size(); i++) {
+            writeFields(out, node.entries.get(i));
+            if (!node.leaf) {
+                out.writeInt(node.children.get(i + 1));
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put(bytes.toByteArray());
+        buffer.clear();
+        return buffer;
+    }
+
+    private Node node(int logical) throws IOException {
+        Node node = cache.get(logical);
+        if (node == null) {
+            node = decode(readPage(physical[logical]));
+            cache.put(logical, node);
+            evict();
+        }
+        return node;
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Integer, Node>> entries = cache.entrySet().iterator();
+        while (cache.size() > CACHED_PAGES && entries.hasNext()) {
+            Map.Entry<Integer, Node> entry = entries.next();
+            if (entry.getValue().dirty) {
+                spill(entry.getKey(), entry.getValue());
+            }
+            entries.remove();
+        }
+    }
+
+    // Write a changed page to its shadow page, taking a free one the first time. The page is
+    // clean afterwards; the next checkpoint only has to record where it is.
+    private void spill(int logical, Node node) throws IOException {
+        int page = physical[logical];
+        boolean shadowed = page != NO_PAGE && shadowPages.get(page);
+        if (!shadowed) {
+            BitSet inUse = (BitSet) committedPages.clone();
+            inUse.or(shadowPages);
+            page = allocate(inUse);
+        }
+        writePage(page, encode(node));
+        if (!shadowed) {
+            if (physical[logical] != NO_PAGE) {
+                replacedPages.set(physical[logical]);
+            }
+            physical[logical] = page;
+            shadowPages.set(page);
+        }
+        node.dirty = false;
+        dirtyPages.remove(logical);
+    }
+
+    // Called after every change to a node. Pages changed while cached, and new ones, would
+    // otherwise only leave the pool at the next read that misses it. A node spilled here by a
+    // later call while still being changed is put back by the markDirty that follows the change.
+    private void markDirty(int logical, Node node) throws IOException {
+        node.dirty = true;
+        dirtyPages.add(logical);
+        cache.put(logical, node);
+        evict();
+    }
+
+    // Start a new logical page; it gets a physical page at the next checkpoint or when spilled
+    private int newPage(Node node) throws IOException {
+        if (logicalPages == physical.length) {
+            physical = Arrays.copyOf(physical, logicalPages * 2);
+        }
+        int logical = logicalPages++;
+        physical[logical] = NO_PAGE;
+        markDirty(logical, node);
+        return logical;
+    }
+
+    // Books and users are keyed on their first field, loans on all of them
+    private static int compare(int tree, String[] entry, String[] key) {
+        return tree == LOANS ? LOAN_ORDER.compare(entry, key) : entry[0].compareTo(key[0]);
+    }
+
+    private static String[] key(int tree, String[] row) {
+        return tree == LOANS ? row : new String[] {row[0]};
+    }
+
+    // First entry >= key (upper == false) or > key (upper == true)
+    private static int search(int tree, Node node, String[] key, boolean upper) {
+        int low = 0;
+        int high = node.entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int order = compare(tree, node.entries.get(middle), key);
+            if (order < 0 || (upper && order == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Walk from the root to the leaf that holds key (the leftmost leaf for a null key),
+    // recording the internal pages passed and the child taken in each
+    private int descend(int tree, String[] key, Deque<int[]> path) throws IOException {
+        int logical = roots[tree];
+        Node node = node(logical);
+        while (!node.leaf) {
+            int child = key == null ? 0 : search(tree, node, key, true);
+            if (path != null) {
+                path.push(new int[] {logical, child});
+            }
+            logical = node.children.get(child);
+            node = node(logical);
+        }
+        return logical;
+    }
+
+    private String[] get(int tree, String[] key) throws IOException {
+        if (roots[tree] == NO_PAGE) {
+            return null;
+        }
+        Node leaf = node(descend(tree, key, null));
+        int index = search(tree, leaf, key, false);
+        if (index < leaf.entries.size() && compare(tree, leaf.entries.get(index), key) == 0) {
+            return leaf.entries.get(index);
+        }
+        return null;
+    }
+
+    // Insert or replace a row, splitting the pages that overflow on the way back up
+    private void put(int tree, String[] row) throws IOException {
+        if (size(row) > MAX_ENTRY_SIZE) {
+            throw new IOException("Row " + row[0] + " is too large for a page");
+        }
+        if (roots[tree] == NO_PAGE) {
+            roots[tree] = newPage(new Node(true));
+        }
+        String[] key = key(tree, row);
+        Deque<int[]> path = new ArrayDeque<>();
+        int logical = descend(tree, key, path);
+        Node leaf = node(logical);
+        int index = search(tree, leaf, key, false);
+        if (index < leaf.entries.size() && compare(tree, leaf.entries.get(index), key) == 0) {
+            leaf.used -= leaf.entrySize(leaf.entries.set(index, row));
+        } else {
+            leaf.entries.add(index, row);
+        }
+        leaf.used += leaf.entrySize(row);
+        markDirty(logical, leaf);
+
+        Node node = leaf;
+        while (node.used > PAGE_SIZE) {
+            int[] parent = path.poll();
+            node = split(tree, logical, node, parent);
+            logical = parent == null ? roots[tree] : parent[0];
+        }
+    }
+
+    // Move the upper half of an overflowing page to a new page and add the separator to the
+    // parent (a new root if there is none). Returns the parent.
+    private Node split(int tree, int logical, Node node, int[] parent) throws IOException {
+        int half = (node.used - NODE_HEADER) / 2;
+        int middle = 0;
+        for (int bytes = 0; middle < node.entries.size() - 1 && bytes < half; middle++) {
+            bytes += node.entrySize(node.entries.get(middle));
+        }
+        middle = Math.max(1, middle);
+
+        Node right = new Node(node.leaf);
+        String[] separator;
+        if (node.leaf) {
+            separator = key(tree, node.entries.get(middle));
+            right.entries.addAll(node.entries.subList(middle, node.entries.size()));
+            right.next = node.next;
+        } else {
+            // The middle key moves up; its right child becomes the new page's first child
+            separator = node.entries.get(middle);
+            right.entries.addAll(node.entries.subList(middle + 1, node.entries.size()));
+            right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+            node.children.subList(middle + 1, node.children.size()).clear();
+        }
+        node.entries.subList(middle, node.entries.size()).clear();
+        node.used = NODE_HEADER;
+        for (String[] entry : node.entries) {
+            node.used += node.entrySize(entry);
+        }
+        for (String[] entry : right.entries) {
+            right.used += right.entrySize(entry);
+        }
+        int rightPage = newPage(right);
+        if (node.leaf) {
+            node.next = rightPage;
+        }
+        markDirty(logical, node);
+
+        Node parentNode;
+        int parentPage;
+        int position;
+        if (parent == null) {
+            parentNode = new Node(false);
+            parentNode.children.add(logical);
+            parentPage = newPage(parentNode);
+            roots[tree] = parentPage;
+            position = 0;
+        } else {
+            parentPage = parent[0];
+            parentNode = node(parentPage);
+            position = parent[1];
+        }
+        parentNode.entries.add(position, separator);
+        parentNode.children.add(position + 1, rightPage);
+        parentNode.used += parentNode.entrySize(separator);
+        markDirty(parentPage, parentNode);
+        return parentNode;
+    }
+
+    // Remove a row from its leaf. Pages are not merged: an emptied leaf stays in the chain and
+    // is reused by later inserts into its key range.
+    private void remove(int tree, String[] key) throws IOException {
+        if (roots[tree] == NO_PAGE) {
+            return;
+        }
+        int logical = descend(tree, key, null);
+        Node leaf = node(logical);
+        int index = search(tree, leaf, key, false);
+        if (index < leaf.entries.size() && compare(tree, leaf.entries.get(index), key) == 0) {
+            leaf.used -= leaf.entrySize(leaf.entries.remove(index));
+            markDirty(logical, leaf);
+        }
+    }
+
+    // Rows with from <= key < to, following the leaf chain from the first leaf in range
+    private List<String[]> scan(int tree, String[] from, String[] to) {
+        return new Scan(tree, from, to);
+    }
+
+    // Leaves are read as the list is iterated, so a scan of a whole tree does not hold every row
+    // at once. size() walks the leaves once to count; get() continues from the previous row, or
+    // starts over for any other. Like every scan, the list is read before the store changes.
+    private final class Scan extends AbstractList<String[]> {
+        private final int tree;
+        private final String[] from, to;
+        private int size = -1;
+        private Iterator<String[]> cursor;
+        private int cursorIndex;
+
+        Scan(int tree, String[] from, String[] to) {
+            this.tree = tree;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<String[]> iterator() {
+            return new Iterator<String[]>() {
+                private int logical = NO_PAGE;
+                private int index;
+                private String[] next;
+
+                {
+                    if (roots[tree] != NO_PAGE && (from == null || to == null || compare(tree, from, to) < 0)) {
+                        try {
+                            logical = descend(tree, from, null);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        index = from == null ? 0 : search(tree, read(logical), from, false);
+                        advance();
+                    }
+                }
+
+                // Find the next row in range, moving along the leaf chain
+                private void advance() {
+                    next = null;
+                    while (logical != NO_PAGE) {
+                        Node leaf = read(logical);
+                        if (index < leaf.entries.size()) {
+                            String[] row = leaf.entries.get(index++);
+                            if (to == null || compare(tree, row, to) < 0) {
+                                next = row;
+                            } else {
+                                logical = NO_PAGE;
+                            }
+                            return;
+                        }
+                        logical = leaf.next;
+                        index = 0;
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public String[] next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    String[] row = next;
+                    advance();
+                    return row;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int count = 0;
+                for (Iterator<String[]> rows = iterator(); rows.hasNext(); rows.next()) {
+                    count++;
+                }
+                size = count;
+            }
+            return size;
+        }
+
+        @Override
+        public String[] get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            if (cursor == null || index < cursorIndex) {
+                cursor = iterator();
+                cursorIndex = 0;
+            }
+            for (; cursorIndex < index; cursorIndex++) {
+                cursor.next();
+            }
+            cursorIndex++;
+            return cursor.next();
+        }
+    }
+
+    // Iterators cannot throw IOException
+    private Node read(int logical) {
+        try {
+            return node(logical);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String[] bound(String id) {
+        return id == null ? null : new String[] {id};
+    }
+
+    // True until the first checkpoint, and while seed has not finished
+    boolean isNew() {
+        return generation == 0 || checkpointSeq == SEEDING;
+    }
+
+    // Fill the store with the rows of another one, checkpointing every SEED_BATCH rows so the
+    // pages changed between checkpoints stay few. Until the last checkpoint, which records the
+    // other store's sequence, the store stays new and a restart fills it again from the start.
+    void seed(LibraryStore from) throws IOException {
+        int rows = 0;
+        for (int tree = 0; tree < roots.length; tree++) {
+            List<String[]> scan = tree == BOOKS ? from.scanBooks(null, null)
+                : tree == LOANS ? from.scanLoans(null, null) : from.scanUsers(null, null);
+            for (String[] row : scan) {
+                put(tree, row);
+                if (++rows % SEED_BATCH == 0) {
+                    checkpoint(SEEDING);
+                }
+            }
+        }
+        checkpoint(from.getCheckpointSeq());
+    }
+
+    @Override
+    public String[] getBook(String id) throws IOException {
+        return get(BOOKS, bound(id));
+    }
+
+    @Override
+    public void putBook(String[] book) throws IOException {
+        put(BOOKS, book);
+    }
+
+    @Override
+    public void deleteBook(String id) throws IOException {
+        remove(BOOKS, bound(id));
+    }
+
+    @Override
+    public List<String[]> scanBooks(String fromId, String toId) throws IOException {
+        return scan(BOOKS, bound(fromId), bound(toId));
+    }
+
+    @Override
+    public void putLoan(String[] loan) throws IOException {
+        put(LOANS, loan);
+    }
+
+    @Override
+    public void deleteLoan(String[] loan) throws IOException {
+        remove(LOANS, loan);
+    }
+
+    // A single-field key sorts before every loan of that book, so it bounds the range
+    @Override
+    public List<String[]> scanLoans(String fromBookId, String toBookId) throws IOException {
+        return scan(LOANS, bound(fromBookId), bound(toBookId));
+    }
+
+    @Override
+    public String[] getUser(String id) throws IOException {
+        return get(USERS, bound(id));
+    }
+
+    @Override
+    public void putUser(String[] user) throws IOException {
+        put(USERS, user);
+    }
+
+    @Override
+    public void deleteUser(String id) throws IOException {
+        remove(USERS, bound(id));
+    }
+
+    @Override
+    public List<String[]> scanUsers(String fromId, String toId) throws IOException {
+        return scan(USERS, bound(fromId), bound(toId));
+    }
+
+    // Write the changed pages and a new directory to free pages, then commit with the header.
+    // The page map is only replaced once the header is written, so a failed checkpoint leaves
+    // the store as it was and the next one starts over.
+    @Override
+    public void checkpoint(long seq) throws IOException {
+        if (dirtyPages.isEmpty() && shadowPages.isEmpty() && seq == checkpointSeq) {
+            return;
+        }
+        BitSet inUse = (BitSet) committedPages.clone();
+        inUse.or(shadowPages);
+        BitSet freed = (BitSet) replacedPages.clone();
+        int[] newPhysical = physical.clone();
+        for (int logical : dirtyPages) {
+            // Shadow pages are not part of the committed state and are written in place
+            int page = newPhysical[logical];
+            if (page == NO_PAGE || !shadowPages.get(page)) {
+                page = allocate(inUse);
+                if (newPhysical[logical] != NO_PAGE) {
+                    freed.set(newPhysical[logical]);
+                }
+                newPhysical[logical] = page;
+            }
+            writePage(page, encode(cache.get(logical)));
+        }
+
+        List<Integer> newDirectory = new ArrayList<>();
+        int directorySize = Math.max(1, (logicalPages + DIRECTORY_ENTRIES - 1) / DIRECTORY_ENTRIES);
+        for (int i = 0; i < directorySize; i++) {
+            newDirectory.add(allocate(inUse));
+        }
+        for (int i = 0; i < newDirectory.size(); i++) {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+            int start = i * DIRECTORY_ENTRIES;
+            int entries = Math.min(DIRECTORY_ENTRIES, logicalPages - start);
+            page.putInt(i + 1 < newDirectory.size() ? newDirectory.get(i + 1) : NO_PAGE);
+            page.putInt(entries);
+            for (int e = 0; e < entries; e++) {
+                page.putInt(newPhysical[start + e]);
+            }
+            page.clear();
+            writePage(newDirectory.get(i), page);
+        }
+        channel.force(false);
+
+        // Commit
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation + 1).putLong(seq)
+            .putInt(newDirectory.get(0)).putInt(logicalPages).putInt(physicalPages);
+        for (int root : roots) {
+            header.putInt(root);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE);
+        header.putInt((int) crc.getValue());
+        header.clear();
+        writePage((int) ((generation + 1) % HEADER_PAGES), header);
+        channel.force(false);
+
+        generation++;
+        checkpointSeq = seq;
+        physical = newPhysical;
+        for (int page : directoryPages) {
+            freed.set(page);
+        }
+        inUse.andNot(freed);
+        directoryPages.clear();
+        directoryPages.addAll(newDirectory);
+        committedPages.clear();
+        committedPages.or(inUse);
+        shadowPages.clear();
+        replacedPages.clear();
+        for (int logical : dirtyPages) {
+            cache.get(logical).dirty = false;
+        }
+        dirtyPages.clear();
+        evict();
+    }
+
+    // First physical page that is neither committed nor already taken by this checkpoint
+    private int allocate(BitSet inUse) {
+        int page = inUse.nextClearBit(HEADER_PAGES);
+        inUse.set(page);
+        physicalPages = Math.max(physicalPages, page + 1);
+        return page;
+    }
+
+    @Override
+    public long getCheckpointSeq() {
+        return checkpointSeq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Background writer in front of the LibraryStore.
+// Changes are queued from the Swing thread and handled by a single persistence thread, which
+// appends them to the journal and then applies them to the store. Everything that queues up
+// while a write is in progress, or within the group commit window after the first change, goes
+// out in the next write: a burst of changes (e.g. a barcode scanner returning 30 books) costs a
+// single journal write and a single fsync.
+//
+// Once no change has been made for a while, or the journal grows past the configured record
+// count or size, the store is checkpointed and the journal truncated behind it.
+class PersistenceService {
+    // Notified whenever the pending count or error changes: on the thread that queued changes
+    // (log and logAll, usually the Swing thread) and on the persistence thread as they are written
+    interface Listener {
+        void persistenceChanged(int pending, String error);
+    }
+
+    private static final long POLL_MS = 250;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final int SHUTDOWN_ATTEMPTS = 3;
+    // ISSUE and RETURN records hold the loan followed by the book row with its new copies
+    private static final int LOAN_FIELDS = 5;
+
+    private final LibraryJournal journal;
+    private final LibraryStore store;
+    private final long commitWindowMs;
+    private final long idleCheckpointMs;
+    private final Listener listener;
+    private final LinkedBlockingQueue<LibraryJournal.Record> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile String error;
+    private long lastSeq;
+    private long checkpointRecords = Long.MAX_VALUE;
+    private long checkpointBytes = Long.MAX_VALUE;
+
+    // Only used on the persistence thread
+    private long appliedSeq;
+    private long checkpointedSeq;
+    private long lastWrite = System.nanoTime();
+    // Set when the store rejected a change; the journal is then kept until the next startup
+    private boolean storeFailed;
+
+    // journal may be null for stores that do not need to survive a restart
+    PersistenceService(LibraryJournal journal, LibraryStore store, long lastSeq,
+                       long commitWindowMs, long idleCheckpointMs, Listener listener) {
+        this.journal = journal;
+        this.store = store;
+        this.lastSeq = lastSeq;
+        this.appliedSeq = lastSeq;
+        this.checkpointedSeq = store.getCheckpointSeq();
+        this.commitWindowMs = commitWindowMs;
+        this.idleCheckpointMs = idleCheckpointMs;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "library-persistence");
+        thread.setDaemon(true);
+    }
+
+    // Journal record count and size at which a checkpoint is taken; call before start()
+    void setCheckpointThresholds(long records, long bytes) {
+        this.checkpointRecords = records;
+        this.checkpointBytes = bytes;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // Queue a change and return its journal sequence number
+    synchronized long log(byte type, String... fields) {
+        long seq = ++lastSeq;
+        pending.incrementAndGet();
+        queue.add(new LibraryJournal.Record(seq, type, fields.clone()));
+        listener.persistenceChanged(pending.get(), error);
+        return seq;
+    }
+
+    // Queue one record per row (e.g. a bulk import) and return the last sequence number.
+    // The rows are written by the same group commits as changes queued with log.
+    synchronized long logAll(byte type, List<String[]> rows) {
+        for (String[] row : rows) {
+            queue.add(new LibraryJournal.Record(++lastSeq, type, row.clone()));
+        }
+        listener.persistenceChanged(pending.addAndGet(rows.size()), error);
+        return lastSeq;
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    int getPending() {
+        return pending.get();
+    }
+
+    // Apply a journal record to a store; also used to replay the journal on startup
+    static void apply(LibraryStore store, byte type, String[] fields) throws IOException {
+        switch (type) {
+            case LibraryJournal.BOOK_PUT:
+                store.putBook(fields);
+                break;
+            case LibraryJournal.BOOK_DELETE:
+                store.deleteBook(fields[0]);
+                break;
+            case LibraryJournal.ISSUE:
+                store.putLoan(Arrays.copyOf(fields, LOAN_FIELDS));
+                if (fields.length > LOAN_FIELDS) {
+                    store.putBook(Arrays.copyOfRange(fields, LOAN_FIELDS, fields.length));
+                }
+                break;
+            case LibraryJournal.RETURN:
+                store.deleteLoan(Arrays.copyOf(fields, LOAN_FIELDS));
+                if (fields.length > LOAN_FIELDS) {
+                    store.putBook(Arrays.copyOfRange(fields, LOAN_FIELDS, fields.length));
+                }
+                break;
+            case LibraryJournal.USER_PUT:
+                store.putUser(fields);
+                break;
+            case LibraryJournal.USER_DELETE:
+                store.deleteUser(fields[0]);
+                break;
+        }
+    }
+
+    // Write everything still queued, checkpoint, then close the journal and the store.
+    // Returns false if the queue could not be drained in time.
+    boolean shutdown(long timeoutMs) {
+        running = false;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean drained = !thread.isAlive() && queue.isEmpty();
+        if (drained && appliedSeq > checkpointedSeq) {
+            checkpoint();
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            store.close();
+        } catch (IOException e) {
+            // Nothing left to report to at this point
+        }
+        return drained;
+    }
+
+    private void run() {
+        List<LibraryJournal.Record> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                LibraryJournal.Record first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (running && appliedSeq > checkpointedSeq
+                            && System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(idleCheckpointMs)) {
+                        checkpoint();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collectGroup(batch);
+                queue.drainTo(batch);
+                write(batch);
+                if (overThreshold()) {
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                // Keep draining until shutdown clears the running flag
+            }
+            batch.clear();
+        }
+    }
+
+    // Wait out the group commit window so changes arriving close together share one commit.
+    // Not while shutting down, when everything queued is written straight away.
+    private void collectGroup(List<LibraryJournal.Record> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitWindowMs);
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            LibraryJournal.Record next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void write(List<LibraryJournal.Record> records) {
+        int attempts = 0;
+        while (journal != null) {
+            try {
+                journal.appendAll(records);
+                break;
+            } catch (IOException e) {
+                attempts++;
+                report("Could not save changes: " + e.getMessage());
+                if (!running && attempts >= SHUTDOWN_ATTEMPTS) {
+                    completed(records.size(), error);
+                    return;
+                }
+                sleepBeforeRetry();
+            }
+        }
+
+        // The records are in the journal now; if the store cannot take them, replay will
+        String failure = null;
+        for (LibraryJournal.Record record : records) {
+            try {
+                apply(store, record.type, record.fields);
+            } catch (IOException | RuntimeException e) {
+                failure = "Could not update the library store: " + e.getMessage();
+                storeFailed = true;
+            }
+            appliedSeq = record.seq;
+        }
+        lastWrite = System.nanoTime();
+        completed(records.size(), failure);
+    }
+
+    private boolean overThreshold() {
+        if (journal == null) {
+            return false;
+        }
+        try {
+            return journal.getRecordCount() >= checkpointRecords || journal.size() >= checkpointBytes;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Make the store durable up to the last applied record and drop those records from the journal
+    private void checkpoint() {
+        if (storeFailed) {
+            return;
+        }
+        long seq = appliedSeq;
+        try {
+            store.checkpoint(seq);
+            if (journal != null) {
+                journal.truncate(seq);
+            }
+            checkpointedSeq = seq;
+        } catch (IOException | RuntimeException e) {
+            report("Could not write checkpoint: " + e.getMessage());
+        }
+        lastWrite = System.nanoTime();
+    }
+
+    private void completed(int count, String failure) {
+        error = failure;
+        listener.persistenceChanged(pending.addAndGet(-count), failure);
+    }
+
+    private void report(String failure) {
+        error = failure;
+        listener.persistenceChanged(pending.get(), failure);
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            // Retry straight away
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+// Canonical instances of strings that repeat across records: IDs, user names and contact
+// numbers (every loan repeats those of its user and book). Users and loans pass their fields
+// through the shared pool when they are created, whether loaded or entered in a dialog, so each
+// value is held once however many records use it. Entries are weak: once no record uses a value
+// it can be collected and drops out of the pool.
+final class StringPool {
+    static final StringPool SHARED = new StringPool();
+
+    private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+
+    // Keys are weak; the value refers to the same String weakly as well, so it does not keep
+    // its own key alive
+    private final WeakHashMap<String, WeakReference<String>> pool = new WeakHashMap<>();
+    // Since startup
+    private long lookups;
+    private long duplicates;
+
+    // The pooled instance equal to value, which becomes the pooled one if there is none yet
+    synchronized String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        lookups++;
+        WeakReference<String> entry = pool.get(value);
+        String canonical = entry == null ? null : entry.get();
+        if (canonical == null) {
+            pool.put(value, new WeakReference<>(value));
+            return value;
+        }
+        if (canonical != value) {
+            duplicates++;
+        }
+        return canonical;
+    }
+
+    // fields are the pooled fields of the records alive now, from which the saving is counted
+    synchronized String summary(Collection<String> fields) {
+        return String.format("Pooled strings: %,d%nLookups since startup: %,d%nDuplicates replaced since startup: %,d%n"
+                + "Saved by sharing now: about %,d KB",
+            pool.size(), lookups, duplicates, savedBytes(fields) / 1024);
+    }
+
+    // Heap saved by the given fields sharing instances: every reference to an instance after the
+    // first would otherwise be a string of its own
+    static long savedBytes(Collection<String> fields) {
+        IdentityHashMap<String, Boolean> seen = new IdentityHashMap<>();
+        long saved = 0;
+        for (String field : fields) {
+            if (seen.put(field, Boolean.TRUE) != null) {
+                saved += stringBytes(field);
+            }
+        }
+        return saved;
+    }
+
+    // Approximate heap taken by a String: object header and fields plus its character array,
+    // which since Java 9 holds one byte per character for Latin-1 text
+    static long stringBytes(String value) {
+        int bytesPerChar = 2;
+        if (COMPACT_STRINGS) {
+            bytesPerChar = 1;
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0xFF) {
+                    bytesPerChar = 2;
+                    break;
+                }
+            }
+        }
+        return 24 + align(16 + (long) bytesPerChar * value.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,433 @@
+import java.util.*;
+
+// Completions for the catalog search field: titles and author names starting with what has
+// been typed, most borrowed first.
+//
+// Entries are kept in one array sorted by normalized text (lower case, words separated by single
+// spaces), so the completions of a prefix are a contiguous range found by binary search. Only
+// the display text is stored; keys are normalized again when compared. A max segment tree over
+// the entry weights gives the heaviest entries of a range in O(K log n). Entries added since the
+// array was built wait in a sorted map and are merged in once there are enough of them.
+//
+// A title weighs the circulation of the books with that title, an author that of their books.
+// There is no issue history in the store, so circulation counts the loans present at load plus
+// every issue since. Not thread-safe.
+final class SuggestionIndex {
+    // Appended to normalized text to make an entry key; below any character of normalized text,
+    // so keys sort by text first
+    private static final char TITLE = '\u0001';
+    private static final char AUTHOR = '\u0002';
+    private static final int MIN_MERGE = 4096;
+
+    private final HashMap<String, Integer> circulation = new HashMap<>();
+    // Sorted entries: display text, kind, number of books using the entry and weight (-1 once no
+    // book uses it, until the next merge drops it)
+    private String[] texts;
+    private char[] kinds;
+    private int[] uses;
+    private int[] weights;
+    private int size;
+    // Segment tree of the entry with the highest weight below each node; leaves at size + i
+    private int[] heaviest;
+    // Entries added since the last merge, by key
+    private final TreeMap<String, Entry> added = new TreeMap<>();
+
+    SuggestionIndex(java.util.List<Book> books, Collection<Loan> loans) {
+        for (Loan loan : loans) {
+            circulation.merge(loan.bookId, 1, Integer::sum);
+        }
+        HashMap<String, Entry> entries = new HashMap<>();
+        for (Book book : books) {
+            int weight = circulation.getOrDefault(book.id, 0);
+            for (char kind : new char[] {TITLE, AUTHOR}) {
+                String text = kind == TITLE ? book.title : book.author;
+                if (!text.isEmpty()) {
+                    Entry entry = entries.computeIfAbsent(key(kind, text), k -> new Entry(text, kind, 0, 0));
+                    entry.uses++;
+                    entry.weight += weight;
+                }
+            }
+        }
+        String[] keys = new String[entries.size()];
+        Entry[] values = new Entry[keys.length];
+        int count = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            keys[count] = entry.getKey();
+            values[count++] = entry.getValue();
+        }
+        entries = null;
+        int[] order = sortedOrder(keys);
+        size = keys.length;
+        texts = new String[size];
+        kinds = new char[size];
+        uses = new int[size];
+        weights = new int[size];
+        for (int i = 0; i < size; i++) {
+            Entry entry = values[order[i]];
+            texts[i] = entry.text;
+            kinds[i] = entry.kind;
+            uses[i] = entry.uses;
+            weights[i] = entry.weight;
+        }
+        buildTree();
+    }
+
+    void add(Book book) {
+        add(book, TITLE, book.title, 1);
+        add(book, AUTHOR, book.author, 1);
+        mergeIfFull();
+    }
+
+    void remove(Book book) {
+        add(book, TITLE, book.title, -1);
+        add(book, AUTHOR, book.author, -1);
+    }
+
+    void replace(Book previous, Book book) {
+        remove(previous);
+        add(book);
+    }
+
+    // Count an issue of the book
+    void issued(Book book) {
+        circulation.merge(book.id, 1, Integer::sum);
+        addWeight(key(TITLE, book.title), 1);
+        addWeight(key(AUTHOR, book.author), 1);
+    }
+
+    // Up to limit titles and authors completing typed, most borrowed first
+    java.util.List<String> suggest(String typed, int limit) {
+        String prefix = normalizePrefix(typed);
+        java.util.List<String> result = new ArrayList<>(limit);
+        if (prefix.isEmpty()) {
+            return result;
+        }
+
+        // Candidates: the heaviest entries of the range in the array, until limit different texts
+        // have been found (a title and an author may read the same), and all recent ones
+        ArrayList<Entry> candidates = new ArrayList<>();
+        HashSet<String> found = new HashSet<>();
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + '\uffff');
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compareWeights(b[2], a[2]));
+        if (from < to) {
+            ranges.add(new int[] {from, to, heaviest(from, to)});
+        }
+        while (!ranges.isEmpty() && found.size() < limit) {
+            int[] range = ranges.poll();
+            int best = range[2];
+            if (weights[best] < 0) {
+                break;
+            }
+            candidates.add(new Entry(texts[best], kinds[best], uses[best], weights[best]));
+            found.add(normalize(texts[best]));
+            if (range[0] < best) {
+                ranges.add(new int[] {range[0], best, heaviest(range[0], best)});
+            }
+            if (best + 1 < range[1]) {
+                ranges.add(new int[] {best + 1, range[1], heaviest(best + 1, range[1])});
+            }
+        }
+        for (Entry entry : added.subMap(prefix, prefix + '\uffff').values()) {
+            if (entry.uses > 0) {
+                candidates.add(entry);
+            }
+        }
+
+        candidates.sort((a, b) -> b.weight != a.weight ? Integer.compare(b.weight, a.weight)
+            : normalize(a.text).compareTo(normalize(b.text)));
+        found.clear();
+        for (Entry entry : candidates) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (found.add(normalize(entry.text))) {
+                result.add(entry.text);
+            }
+        }
+        return result;
+    }
+
+    // Lower case letters and digits, words separated by single spaces
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    // As normalize, keeping a separator typed after the last word so "war " does not match "warp"
+    private static String normalizePrefix(String typed) {
+        String normalized = normalize(typed);
+        boolean separated = !typed.isEmpty() && !Character.isLetterOrDigit(typed.charAt(typed.length() - 1));
+        return separated && !normalized.isEmpty() ? normalized + ' ' : normalized;
+    }
+
+    private static String key(char kind, String text) {
+        return normalize(text) + kind;
+    }
+
+    // Indices of keys in key order. Keys are compared by their first four characters packed into
+    // a long, moved along with the indices so partitioning reads memory in order, and only
+    // compared as strings when those are equal; sorting strings directly spends most of its time
+    // fetching them from memory.
+    private static int[] sortedOrder(String[] keys) {
+        long[] prefixes = new long[keys.length];
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            long prefix = 0;
+            for (int c = 0; c < 4; c++) {
+                prefix = prefix << 16 | (c < keys[i].length() ? keys[i].charAt(c) : 0);
+            }
+            // Flip the sign bit so signed comparison orders the characters as unsigned
+            prefixes[i] = prefix ^ Long.MIN_VALUE;
+            order[i] = i;
+        }
+        sort(prefixes, order, 0, order.length, keys);
+        return order;
+    }
+
+    // Quicksort of [from, to) with the middle of three as pivot, insertion sort for short ranges
+    private static void sort(long[] prefixes, int[] order, int from, int to, String[] keys) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            int pivot = from;
+            if (compare(prefixes, order, middle, pivot, keys) < 0) {
+                pivot = middle;
+            }
+            // pivot is now the smaller of from and middle; take the middle of the three
+            int larger = pivot == from ? middle : from;
+            if (compare(prefixes, order, to - 1, larger, keys) < 0) {
+                larger = compare(prefixes, order, to - 1, pivot, keys) < 0 ? pivot : to - 1;
+            }
+            // Keys are only read when prefixes are equal
+            long pivotPrefix = prefixes[larger];
+            String pivotKey = keys[order[larger]];
+
+            int low = from;
+            int high = to - 1;
+            while (low <= high) {
+                while (prefixes[low] < pivotPrefix
+                        || (prefixes[low] == pivotPrefix && keys[order[low]].compareTo(pivotKey) < 0)) {
+                    low++;
+                }
+                while (prefixes[high] > pivotPrefix
+                        || (prefixes[high] == pivotPrefix && keys[order[high]].compareTo(pivotKey) > 0)) {
+                    high--;
+                }
+                if (low <= high) {
+                    swap(prefixes, order, low++, high--);
+                }
+            }
+            // Recurse into the smaller part, loop on the larger
+            if (high - from < to - low) {
+                sort(prefixes, order, from, high + 1, keys);
+                from = low;
+            } else {
+                sort(prefixes, order, low, to, keys);
+                to = high + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compare(prefixes, order, j - 1, j, keys) > 0; j--) {
+                swap(prefixes, order, j - 1, j);
+            }
+        }
+    }
+
+    private static int compare(long[] prefixes, int[] order, int a, int b, String[] keys) {
+        return prefixes[a] != prefixes[b] ? Long.compare(prefixes[a], prefixes[b]) : keys[order[a]].compareTo(keys[order[b]]);
+    }
+
+    private static void swap(long[] prefixes, int[] order, int a, int b) {
+        long prefix = prefixes[a];
+        prefixes[a] = prefixes[b];
+        prefixes[b] = prefix;
+        int index = order[a];
+        order[a] = order[b];
+        order[b] = index;
+    }
+
+    private String keyAt(int index) {
+        return key(kinds[index], texts[index]);
+    }
+
+    // Count one more (or one fewer) book using an entry
+    private void add(Book book, char kind, String text, int delta) {
+        if (text.isEmpty()) {
+            return;
+        }
+        String key = key(kind, text);
+        int weight = delta * circulation.getOrDefault(book.id, 0);
+        int index = find(key);
+        if (index >= 0) {
+            uses[index] += delta;
+            weights[index] = uses[index] > 0 ? Math.max(weights[index], 0) + weight : -1;
+            update(index);
+            return;
+        }
+        Entry entry = added.get(key);
+        if (entry == null) {
+            if (delta < 0) {
+                return;
+            }
+            entry = new Entry(text, kind, 0, 0);
+            added.put(key, entry);
+        }
+        entry.uses += delta;
+        entry.weight += weight;
+        if (entry.uses <= 0) {
+            added.remove(key);
+        }
+    }
+
+    private void addWeight(String key, int delta) {
+        int index = find(key);
+        if (index >= 0) {
+            if (weights[index] >= 0) {
+                weights[index] += delta;
+                update(index);
+            }
+        } else {
+            Entry entry = added.get(key);
+            if (entry != null) {
+                entry.weight += delta;
+            }
+        }
+    }
+
+    // Index of the entry with this key in the array, or -1
+    private int find(String key) {
+        int index = lowerBound(key);
+        return index < size && keyAt(index).equals(key) ? index : -1;
+    }
+
+    // First index whose key is not below key
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keyAt(middle).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void mergeIfFull() {
+        if (added.size() > Math.max(MIN_MERGE, size / 32)) {
+            merge();
+        }
+    }
+
+    // Rebuild the array from its live entries and the added ones
+    private void merge() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            if (uses[i] > 0) {
+                total++;
+            }
+        }
+        total += added.size();
+        String[] mergedTexts = new String[total];
+        char[] mergedKinds = new char[total];
+        int[] mergedUses = new int[total];
+        int[] mergedWeights = new int[total];
+        int count = 0;
+        int i = 0;
+        Iterator<Map.Entry<String, Entry>> recent = added.entrySet().iterator();
+        Map.Entry<String, Entry> next = recent.hasNext() ? recent.next() : null;
+        while (i < size || next != null) {
+            if (i < size && uses[i] <= 0) {
+                i++;
+            } else if (next == null || (i < size && keyAt(i).compareTo(next.getKey()) < 0)) {
+                mergedTexts[count] = texts[i];
+                mergedKinds[count] = kinds[i];
+                mergedUses[count] = uses[i];
+                mergedWeights[count++] = weights[i++];
+            } else {
+                Entry entry = next.getValue();
+                mergedTexts[count] = entry.text;
+                mergedKinds[count] = entry.kind;
+                mergedUses[count] = entry.uses;
+                mergedWeights[count++] = entry.weight;
+                next = recent.hasNext() ? recent.next() : null;
+            }
+        }
+        added.clear();
+        texts = mergedTexts;
+        kinds = mergedKinds;
+        uses = mergedUses;
+        weights = mergedWeights;
+        size = count;
+        buildTree();
+    }
+
+    private void buildTree() {
+        heaviest = new int[Math.max(2 * size, 2)];
+        for (int leaf = 0; leaf < size; leaf++) {
+            heaviest[size + leaf] = leaf;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            heaviest[node] = heavier(heaviest[2 * node], heaviest[2 * node + 1]);
+        }
+    }
+
+    // Refresh the tree above an entry after its weight changed
+    private void update(int index) {
+        for (int node = (size + index) >> 1; node > 0; node >>= 1) {
+            heaviest[node] = heavier(heaviest[2 * node], heaviest[2 * node + 1]);
+        }
+    }
+
+    // Entry with the highest weight in [from, to), the first of equal ones
+    private int heaviest(int from, int to) {
+        int best = from;
+        for (int low = from + size, high = to + size; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                best = heavier(best, heaviest[low++]);
+            }
+            if ((high & 1) == 1) {
+                best = heavier(best, heaviest[--high]);
+            }
+        }
+        return best;
+    }
+
+    private int heavier(int a, int b) {
+        return compareWeights(a, b) > 0 ? a : b;
+    }
+
+    // By weight, then the earlier entry first
+    private int compareWeights(int a, int b) {
+        return weights[a] != weights[b] ? Integer.compare(weights[a], weights[b]) : Integer.compare(b, a);
+    }
+
+    private static final class Entry {
+        final String text;
+        final char kind;
+        int uses;
+        int weight;
+
+        Entry(String text, char kind, int uses, int weight) {
+            this.text = text;
+            this.kind = kind;
+            this.uses = uses;
+            this.weight = weight;
+        }
+    }
+}
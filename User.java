@@ -0,0 +1,24 @@
+// A registered user. ID, name and contact are shared through StringPool.
+final class User {
+    final String id;
+    final String name;
+    final String contact;
+    // Changed in place by the change-password dialog
+    String password;
+
+    User(String id, String name, String contact, String password) {
+        this.id = StringPool.SHARED.intern(id);
+        this.name = StringPool.SHARED.intern(name);
+        this.contact = StringPool.SHARED.intern(contact);
+        this.password = password;
+    }
+
+    // Convert a store row: ID, name, contact, password
+    static User fromRow(String[] row) {
+        return new User(row[0], row[1], row[2], row[3]);
+    }
+
+    String[] toRow() {
+        return new String[] {id, name, contact, password};
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.*;
+
+// List of users with hash indexes by user ID and by normalized contact number, kept up to date
+// by every change made through the list.
+class UserList extends AbstractList<User> implements RandomAccess {
+    private final ArrayList<User> rows;
+    private final HashMap<String, User> byId;
+    // Several users may share a contact number (e.g. a family), so it maps to a list
+    private final HashMap<String, List<User>> byContact;
+
+    UserList(int capacity) {
+        rows = new ArrayList<>(capacity);
+        byId = new HashMap<>(Math.max(16, capacity * 2));
+        byContact = new HashMap<>(Math.max(16, capacity * 2));
+    }
+
+    @Override
+    public User get(int index) {
+        return rows.get(index);
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void add(int index, User user) {
+        rows.add(index, user);
+        modCount++;
+        index(user);
+    }
+
+    @Override
+    public User set(int index, User user) {
+        User previous = rows.set(index, user);
+        unindex(previous);
+        index(user);
+        return previous;
+    }
+
+    @Override
+    public User remove(int index) {
+        User previous = rows.remove(index);
+        modCount++;
+        unindex(previous);
+        return previous;
+    }
+
+    // User with the given ID, or null
+    User findById(String id) {
+        return byId.get(id);
+    }
+
+    // Users registered with this contact number, ignoring spaces, dashes and other formatting
+    List<User> findByContact(String contact) {
+        List<User> found = byContact.get(normalizeContact(contact));
+        return found == null ? Collections.<User>emptyList() : Collections.unmodifiableList(found);
+    }
+
+    boolean removeById(String id) {
+        User user = byId.get(id);
+        if (user == null) {
+            return false;
+        }
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            if (rows.get(i) == user) {
+                remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Digits of a contact number, e.g. "+1 (555) 010-2030" -> "15550102030"
+    static String normalizeContact(String contact) {
+        StringBuilder digits = new StringBuilder(contact.length());
+        for (int i = 0; i < contact.length(); i++) {
+            char c = contact.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    private void index(User user) {
+        // Keep the first user for a duplicated ID, as a scan from the start of the list would; the
+        // new one may have been inserted ahead of the one indexed
+        User indexed = byId.get(user.id);
+        if (indexed == null || indexed != user && rows.indexOf(user) < rows.indexOf(indexed)) {
+            byId.put(user.id, user);
+        }
+        byContact.computeIfAbsent(normalizeContact(user.contact), c -> new ArrayList<>(1)).add(user);
+    }
+
+    private void unindex(User user) {
+        if (byId.get(user.id) == user) {
+            byId.remove(user.id);
+            for (User other : rows) {
+                if (other.id.equals(user.id)) {
+                    byId.put(user.id, other);
+                    break;
+                }
+            }
+        }
+        String contact = normalizeContact(user.contact);
+        List<User> sharing = byContact.get(contact);
+        if (sharing != null) {
+            sharing.removeIf(other -> other == user);
+            if (sharing.isEmpty()) {
+                byContact.remove(contact);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+// Round trips of random sorted rows through BlockFile.encode, read back with wrap and open.
+// Row counts range from none to enough for a few dozen blocks, and rows from a few bytes to a
+// few kilobytes, so blocks end on and next to row boundaries. readAll and every block must
+// return the rows in order; find must return each row looked up by key, and null for keys
+// before, between and after them.
+public class BlockFileTest {
+    // Users by ID, loans by all of their fields
+    private static final Comparator<String[]> BY_ID = (a, b) -> a[0].compareTo(b[0]);
+
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        Random random = new Random(seed);
+        File file = Files.createTempFile("block-test", ".dat").toFile();
+        int blocks = 0;
+        try {
+            for (int f = 0; f < files; f++) {
+                boolean loans = random.nextBoolean();
+                int count = f == 0 ? 0 : f == 1 ? 1 : random.nextInt(random.nextInt(3) == 0 ? 20000 : 3000);
+                java.util.List<String[]> rows = randomRows(random, count, loans);
+                Comparator<String[]> order = loans ? LibraryStore.LOAN_ORDER : BY_ID;
+                long seq = random.nextInt(1000000);
+                byte[] bytes = BlockFile.encode(seq, rows);
+
+                check(f, BlockFile.wrap(bytes), seq, rows, order, random);
+                Files.write(file.toPath(), bytes);
+                BlockFile opened = BlockFile.open(file);
+                check(f, opened, seq, rows, order, random);
+                blocks += opened.getBlockCount();
+            }
+        } finally {
+            file.delete();
+        }
+        System.out.println("BlockFileTest: " + files + " files passed (" + blocks + " blocks)");
+    }
+
+    private static void check(int f, BlockFile blockFile, long seq, java.util.List<String[]> rows,
+            Comparator<String[]> order, Random random) throws IOException {
+        if (blockFile.getSeq() != seq || blockFile.size() != rows.size()) {
+            throw new AssertionError("File " + f + ": sequence " + blockFile.getSeq() + ", " + blockFile.size()
+                + " rows, expected " + seq + ", " + rows.size());
+        }
+        checkRows(f, "readAll", blockFile.readAll(), rows);
+        java.util.List<String[]> blocks = new ArrayList<>();
+        for (int block = 0; block < blockFile.getBlockCount(); block++) {
+            java.util.List<String[]> blockRows = blockFile.readBlock(block);
+            if (blockRows.isEmpty()) {
+                throw new AssertionError("File " + f + ": block " + block + " is empty");
+            }
+            blocks.addAll(blockRows);
+        }
+        checkRows(f, "blocks", blocks, rows);
+        // A block is closed by the row that takes it to BLOCK_SIZE
+        long total = rows.stream().mapToLong(BlockFileTest::encodedSize).sum();
+        long largest = rows.stream().mapToLong(BlockFileTest::encodedSize).max().orElse(0);
+        long minimum = total / (BlockFile.BLOCK_SIZE + largest);
+        long maximum = total / BlockFile.BLOCK_SIZE + 1;
+        if (blockFile.getBlockCount() < minimum || blockFile.getBlockCount() > maximum || rows.isEmpty() != (blockFile.getBlockCount() == 0)) {
+            throw new AssertionError("File " + f + ": " + blockFile.getBlockCount() + " blocks for " + rows.size() + " rows");
+        }
+
+        for (int i = 0; i < Math.min(rows.size(), 200); i++) {
+            String[] row = rows.get(random.nextInt(rows.size()));
+            String[] key = order == BY_ID ? new String[] {row[0]} : row;
+            if (!Arrays.equals(blockFile.find(key, order), row)) {
+                throw new AssertionError("File " + f + ": find did not return " + Arrays.toString(row));
+            }
+        }
+        // Keys that sort before every row, after every row and between neighbours
+        java.util.List<String[]> missing = new ArrayList<>();
+        missing.add(new String[] {""});
+        missing.add(new String[] {"\uffff"});
+        for (int i = 0; i < Math.min(rows.size(), 100); i++) {
+            String[] row = rows.get(random.nextInt(rows.size()));
+            missing.add(order == BY_ID ? new String[] {row[0] + "\0"} : withLast(row, row[row.length - 1] + "\0"));
+        }
+        for (String[] key : missing) {
+            if (blockFile.find(key, order) != null) {
+                throw new AssertionError("File " + f + ": find returned a row for " + Arrays.toString(key));
+            }
+        }
+    }
+
+    private static void checkRows(int f, String what, java.util.List<String[]> actual, java.util.List<String[]> expected) {
+        if (actual.size() != expected.size()) {
+            throw new AssertionError("File " + f + ": " + what + " has " + actual.size() + " rows, expected " + expected.size());
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            if (!Arrays.equals(actual.get(i), expected.get(i))) {
+                throw new AssertionError("File " + f + ": " + what + " row " + i + " is " + Arrays.toString(actual.get(i))
+                    + ", expected " + Arrays.toString(expected.get(i)));
+            }
+        }
+    }
+
+    // Distinct rows in key order: loans of five fields, users of four
+    private static java.util.List<String[]> randomRows(Random random, int count, boolean loans) {
+        TreeSet<String[]> rows = new TreeSet<>(loans ? LibraryStore.LOAN_ORDER : BY_ID);
+        while (rows.size() < count) {
+            String[] row = new String[loans ? 5 : 4];
+            row[0] = (loans ? "BOOK-" : "USER-") + random.nextInt(Math.max(1, count * (loans ? 1 : 4)));
+            for (int i = 1; i < row.length; i++) {
+                row[i] = randomText(random, random.nextInt(50) == 0 ? 3000 : 30);
+            }
+            rows.add(row);
+        }
+        return new ArrayList<>(rows);
+    }
+
+    // Letters, with some repeated text so blocks compress by different amounts
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        while (text.length() < length) {
+            if (random.nextInt(4) == 0) {
+                text.append("Library ");
+            } else {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+
+    private static String[] withLast(String[] row, String last) {
+        String[] copy = row.clone();
+        copy[copy.length - 1] = last;
+        return copy;
+    }
+
+    // Bytes of a row in a block: field count, then each field's length and text (ASCII here)
+    private static long encodedSize(String[] row) {
+        long size = 1;
+        for (String field : row) {
+            size += 2 + field.length();
+        }
+        return size;
+    }
+}
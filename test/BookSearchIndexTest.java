@@ -0,0 +1,253 @@
+import java.util.*;
+
+// Random insert, replace and remove steps on a BookSearchIndex. Every few steps random queries
+// are run against it and checked against an index built afresh from the books, one loaded the
+// way a stored index file is, and a brute-force matcher.
+//
+// Titles and authors mix short words, which have no variants, with longer ones. Queries of
+// short words only are compared with the matcher; all queries, misspelled ones included, are
+// compared with the other indexes, ranking and corrections as well as hits.
+public class BookSearchIndexTest {
+    private static final String[] SHORT = {
+        "sea", "war", "the", "of", "cat", "sun", "red", "art", "age", "day", "old", "new", "sky", "ice", "owl", "fox"
+    };
+    private static final String[] LONG = {
+        "history", "mountain", "garden", "shadows", "winter", "kingdom", "river", "letters", "midnight", "empire",
+        "stranger", "harvest", "silence", "journey", "islands", "machine", "orchard", "lantern", "tolkien", "austen"
+    };
+    private static final String[] PUBLISHERS = {"Penguin", "Harper Collins", "Vintage", "Faber & Faber"};
+    private static final String[] GENRES = {"Fiction", "History", "Science", "Poetry", "Sci-Fi"};
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        Random random = new Random(seed);
+        BookSearchIndex index = new BookSearchIndex();
+        java.util.List<Book> books = new ArrayList<>();
+        int checked = 0;
+
+        for (int step = 0; step < steps; step++) {
+            int action = random.nextInt(10);
+            if (books.isEmpty() || action < 5) {
+                int at = random.nextInt(books.size() + 1);
+                Book book = randomBook(random, step);
+                books.add(at, book);
+                if (at == books.size() - 1 && random.nextBoolean()) {
+                    index.add(book);
+                } else {
+                    index.insert(at, book);
+                }
+            } else if (action < 8) {
+                int at = random.nextInt(books.size());
+                Book book = randomBook(random, step);
+                index.replace(at, books.set(at, book), book);
+            } else {
+                int at = random.nextInt(books.size());
+                index.remove(at, books.remove(at));
+            }
+
+            if (step % 10 == 0 || step == steps - 1) {
+                BookSearchIndex fresh = new BookSearchIndex();
+                for (Book book : books) {
+                    fresh.add(book);
+                }
+                BookSearchIndex loaded = load(books, random);
+                for (int q = 0; q < 20; q++) {
+                    String query = randomQuery(random);
+                    check(query, index, fresh, loaded, books, step);
+                    checked++;
+                }
+            }
+        }
+        System.out.println("BookSearchIndexTest: " + steps + " steps, " + checked + " queries passed (seed " + seed + ")");
+    }
+
+    // An index of the books built through load and fill, as MappedBookList does from an index
+    // file: stored terms for some books, the rest filled in. Stored positions are shuffled.
+    private static BookSearchIndex load(java.util.List<Book> books, Random random) {
+        int[] slotOf = new int[books.size()];
+        java.util.List<Integer> slots = new ArrayList<>();
+        for (int doc = 0; doc < books.size(); doc++) {
+            slots.add(doc);
+        }
+        Collections.shuffle(slots, random);
+        int[] positions = new int[books.size()];
+        Arrays.fill(positions, -1);
+        boolean[] stored = new boolean[books.size()];
+        Map<String, java.util.List<Integer>> postings = new TreeMap<>();
+        for (int doc = 0; doc < books.size(); doc++) {
+            slotOf[doc] = slots.get(doc);
+            stored[doc] = random.nextInt(4) != 0;
+            if (stored[doc]) {
+                positions[slotOf[doc]] = doc;
+            }
+            // Every book has entries; positions skips those of books not stored, as for edited rows
+            for (Map.Entry<String, Integer> term : BookSearchIndex.frequencies(books.get(doc).toRow()).entrySet()) {
+                java.util.List<Integer> pairs = postings.computeIfAbsent(term.getKey(), k -> new ArrayList<>());
+                pairs.add(slotOf[doc]);
+                pairs.add(term.getValue());
+            }
+        }
+        BookSearchIndex loaded = new BookSearchIndex(books.size());
+        for (Map.Entry<String, java.util.List<Integer>> term : postings.entrySet()) {
+            loaded.load(term.getKey(), term.getValue().stream().mapToInt(Integer::intValue).toArray(), positions);
+        }
+        for (int doc = 0; doc < books.size(); doc++) {
+            if (!stored[doc]) {
+                loaded.fill(doc, books.get(doc));
+            }
+        }
+        return loaded;
+    }
+
+    private static void check(String query, BookSearchIndex index, BookSearchIndex fresh, BookSearchIndex loaded,
+            java.util.List<Book> books, int step) {
+        int[] hits = index.search(query);
+        if (!Arrays.equals(hits, fresh.search(query))) {
+            throw new AssertionError("Step " + step + ": \"" + query + "\" differs from a fresh index");
+        }
+        if (!Arrays.equals(hits, loaded.search(query))) {
+            throw new AssertionError("Step " + step + ": \"" + query + "\" differs from a loaded index");
+        }
+        if (!Objects.equals(index.correct(query), fresh.correct(query))
+                || !Objects.equals(index.correct(query), loaded.correct(query))) {
+            throw new AssertionError("Step " + step + ": correction of \"" + query + "\" differs");
+        }
+        if (isShortOnly(query)) {
+            Set<Integer> expected = new TreeSet<>();
+            for (int doc = 0; doc < books.size(); doc++) {
+                if (matches(query, books.get(doc))) {
+                    expected.add(doc);
+                }
+            }
+            Set<Integer> actual = new TreeSet<>();
+            for (int doc : hits) {
+                actual.add(doc);
+            }
+            if (!actual.equals(expected) || actual.size() != hits.length) {
+                throw new AssertionError("Step " + step + ": \"" + query + "\" found " + actual + ", expected " + expected);
+            }
+        }
+    }
+
+    // Whether every word of some OR group is a word of the book; a last word not followed by a
+    // space may start one
+    private static boolean matches(String query, Book book) {
+        Set<String> words = new HashSet<>();
+        for (String field : new String[] {book.title, book.author, book.publisher, book.genre}) {
+            for (String word : field.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        boolean prefix = !query.endsWith(" ");
+        String[] groups = query.trim().split(" OR ");
+        for (int g = 0; g < groups.length; g++) {
+            String[] tokens = groups[g].trim().toLowerCase(Locale.ROOT).split("[^a-z0-9]+");
+            boolean all = true;
+            for (int t = 0; t < tokens.length && all; t++) {
+                String token = tokens[t];
+                boolean last = prefix && g == groups.length - 1 && t == tokens.length - 1;
+                all = words.contains(token) || last && words.stream().anyMatch(word -> word.startsWith(token));
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isShortOnly(String query) {
+        for (String word : query.trim().split(" ")) {
+            if (!word.equals("OR") && word.length() >= 4) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Book randomBook(Random random, int step) {
+        return new Book("B" + step, words(random, 1 + random.nextInt(4)), words(random, 1 + random.nextInt(2)),
+            PUBLISHERS[random.nextInt(PUBLISHERS.length)], 1900 + random.nextInt(120), 1 + random.nextInt(3),
+            GENRES[random.nextInt(GENRES.length)]);
+    }
+
+    // Words in mixed case, some repeated, separated by spaces or punctuation
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(random.nextInt(4) == 0 ? ", " : " ");
+            }
+            String word = random.nextBoolean() ? SHORT[random.nextInt(SHORT.length)] : LONG[random.nextInt(LONG.length)];
+            text.append(random.nextInt(3) == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return text.toString();
+    }
+
+    // One or two OR groups of one to three words. Words may be misspelled, cut short at the end
+    // while still being typed, or be publisher and genre words.
+    private static String randomQuery(Random random) {
+        StringBuilder query = new StringBuilder();
+        int groups = random.nextInt(4) == 0 ? 2 : 1;
+        boolean shortOnly = random.nextBoolean();
+        for (int g = 0; g < groups; g++) {
+            if (g > 0) {
+                query.append(" OR ");
+            }
+            int count = 1 + random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    query.append(' ');
+                }
+                String word;
+                int kind = random.nextInt(10);
+                if (shortOnly || kind < 4) {
+                    word = SHORT[random.nextInt(SHORT.length)];
+                } else if (kind < 7) {
+                    word = LONG[random.nextInt(LONG.length)];
+                } else if (kind < 9) {
+                    word = misspell(LONG[random.nextInt(LONG.length)], random);
+                } else {
+                    String[] other = random.nextBoolean() ? PUBLISHERS : GENRES;
+                    word = other[random.nextInt(other.length)].split("[^A-Za-z]+")[0].toLowerCase(Locale.ROOT);
+                }
+                query.append(word);
+            }
+        }
+        int length = query.length();
+        if (random.nextInt(3) == 0) {
+            // Still typing the last word
+            int lastSpace = query.lastIndexOf(" ");
+            int cut = length - (lastSpace + 1) > 1 ? 1 + random.nextInt(length - (lastSpace + 1) - 1) : 0;
+            query.setLength(length - cut);
+        } else if (random.nextBoolean()) {
+            query.append(' ');
+        }
+        return query.toString();
+    }
+
+    // The word with one or two random insertions, deletions, substitutions or swaps
+    private static String misspell(String word, Random random) {
+        StringBuilder text = new StringBuilder(word);
+        int edits = 1 + random.nextInt(2);
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(text.length());
+            char letter = (char) ('a' + random.nextInt(26));
+            int kind = random.nextInt(4);
+            if (kind == 0) {
+                text.insert(at, letter);
+            } else if (kind == 1 && text.length() > 1) {
+                text.deleteCharAt(at);
+            } else if (kind == 2) {
+                text.setCharAt(at, letter);
+            } else if (kind == 3 && at + 1 < text.length()) {
+                char swapped = text.charAt(at);
+                text.setCharAt(at, text.charAt(at + 1));
+                text.setCharAt(at + 1, swapped);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.*;
+
+// Random issue, return and advance steps on a DueSchedule with a fake clock, checked after each
+// step against statuses worked out from Loan.daysRemaining for every loan.
+public class DueScheduleTest {
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        Random random = new Random(seed);
+        long dueSoonMillis = 3 * Loan.DAY_MILLIS;
+        long[] now = {Loan.parseTime("2024-01-01 00:00:00")};
+        DueSchedule schedule = new DueSchedule(dueSoonMillis, () -> now[0]);
+        java.util.List<Loan> loans = new ArrayList<>();
+
+        for (int step = 0; step < steps; step++) {
+            int action = random.nextInt(10);
+            if (loans.isEmpty() || action < 4 && loans.size() < 1000) {
+                // Issued up to 20 days ago, so some loans start overdue
+                long issuedAt = now[0] - (long) (random.nextDouble() * 20 * Loan.DAY_MILLIS);
+                Loan loan = new Loan("B" + step, "U" + random.nextInt(50), "User", "user@example.com", issuedAt);
+                loans.add(loan);
+                schedule.add(loan);
+            } else if (action < 7) {
+                Loan loan = loans.remove(random.nextInt(loans.size()));
+                schedule.remove(loan);
+            } else if (action < 8) {
+                // To just before, on or just after a boundary of some loan ahead of the clock
+                Loan loan = loans.get(random.nextInt(loans.size()));
+                long due = loan.dueAtEpochMillis;
+                long[] boundaries = {due - dueSoonMillis, due - Loan.DAY_MILLIS, due, due + Loan.DAY_MILLIS};
+                long target = boundaries[random.nextInt(boundaries.length)] + random.nextInt(3) - 1;
+                now[0] = Math.max(now[0], target);
+                schedule.advance();
+            } else {
+                long delta = random.nextBoolean() ? random.nextInt(3) : (long) (random.nextDouble() * 2 * Loan.DAY_MILLIS);
+                now[0] += delta;
+                schedule.advance();
+            }
+            check(schedule, loans, now[0], dueSoonMillis, step);
+        }
+        System.out.println("DueScheduleTest: " + steps + " steps passed (seed " + seed + ")");
+    }
+
+    private static void check(DueSchedule schedule, java.util.List<Loan> loans, long now, long dueSoonMillis, int step) {
+        Set<Loan> overdue = Collections.newSetFromMap(new IdentityHashMap<>());
+        int dueToday = 0;
+        java.util.List<Loan> dueSoon = new ArrayList<>();
+        for (Loan loan : loans) {
+            long days = loan.daysRemaining(now);
+            if (days < 0) {
+                overdue.add(loan);
+            } else if (days == 0) {
+                dueToday++;
+            }
+            if (now >= loan.dueAtEpochMillis - dueSoonMillis && now < loan.dueAtEpochMillis) {
+                dueSoon.add(loan);
+            }
+        }
+        // Soonest first; loans is in the order they were added
+        dueSoon.sort(Comparator.comparingLong(loan -> loan.dueAtEpochMillis));
+
+        if (schedule.getOverdueCount() != overdue.size() || !schedule.getOverdue().equals(overdue)) {
+            throw new AssertionError("Step " + step + ": overdue " + schedule.getOverdueCount() + ", expected " + overdue.size());
+        }
+        if (schedule.getDueTodayCount() != dueToday) {
+            throw new AssertionError("Step " + step + ": due today " + schedule.getDueTodayCount() + ", expected " + dueToday);
+        }
+        java.util.List<Loan> actual = new ArrayList<>(schedule.getDueSoon());
+        if (actual.size() != dueSoon.size()) {
+            throw new AssertionError("Step " + step + ": due soon " + actual.size() + ", expected " + dueSoon.size());
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            if (actual.get(i) != dueSoon.get(i)) {
+                throw new AssertionError("Step " + step + ": due soon out of order at " + i);
+            }
+        }
+    }
+}
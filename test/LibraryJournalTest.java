@@ -0,0 +1,182 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Random batches appended to a LibraryJournal, replayed after each reopen and compared with the
+// records appended since the last truncate. Between runs the tail is damaged, as by a write the
+// process did not finish or a disk error: cut at a random byte, or one byte changed in a random
+// record. Replay must return the records before the damaged one, drop the rest, and take new
+// appends after them. Truncate must leave only its base sequence, also across a reopen.
+public class LibraryJournalTest {
+    private static final byte[] TYPES = {
+        LibraryJournal.BOOK_PUT, LibraryJournal.BOOK_DELETE, LibraryJournal.ISSUE,
+        LibraryJournal.RETURN, LibraryJournal.USER_PUT, LibraryJournal.USER_DELETE
+    };
+
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        Random random = new Random(seed);
+        File file = Files.createTempFile("journal-test", ".journal").toFile();
+        file.delete();
+        try {
+            check(random, runs, file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(Random random, int runs, File file) throws IOException {
+        // Records since the last truncate, and the journal's size after each of them
+        java.util.List<LibraryJournal.Record> expected = new ArrayList<>();
+        java.util.List<Long> ends = new ArrayList<>();
+        long base = 0;
+        long seq = 0;
+        int damaged = 0;
+
+        for (int run = 0; run < runs; run++) {
+            LibraryJournal journal = new LibraryJournal(file);
+            java.util.List<LibraryJournal.Record> replayed = new ArrayList<>();
+            long count = journal.replay((s, type, fields) -> replayed.add(new LibraryJournal.Record(s, type, fields)));
+            if (count != expected.size()) {
+                throw new AssertionError("Run " + run + ": replay returned " + count + ", expected " + expected.size());
+            }
+            checkRecords(run, replayed, expected);
+            long last = expected.isEmpty() ? base : expected.get(expected.size() - 1).seq;
+            if (journal.getLastSeq() != last || journal.getRecordCount() != expected.size()) {
+                throw new AssertionError("Run " + run + ": last sequence " + journal.getLastSeq() + ", expected " + last);
+            }
+            if (journal.size() != (ends.isEmpty() ? 16 : ends.get(ends.size() - 1))) {
+                throw new AssertionError("Run " + run + ": replay left " + journal.size() + " bytes");
+            }
+            seq = Math.max(seq, last);
+
+            int batches = random.nextInt(4);
+            for (int b = 0; b < batches; b++) {
+                java.util.List<LibraryJournal.Record> batch = new ArrayList<>();
+                int size = 1 + random.nextInt(random.nextInt(4) == 0 ? 50 : 5);
+                for (int i = 0; i < size; i++) {
+                    // Sequences increase but need not be consecutive
+                    seq += 1 + random.nextInt(3);
+                    batch.add(new LibraryJournal.Record(seq, TYPES[random.nextInt(TYPES.length)], randomFields(random)));
+                }
+                journal.appendAll(batch);
+                expected.addAll(batch);
+                // A batch is written at once; the size after it is the end of its last record
+                for (int i = 1; i < batch.size(); i++) {
+                    ends.add(-1L);
+                }
+                ends.add(journal.size());
+            }
+            try {
+                journal.appendAll(Collections.singletonList(new LibraryJournal.Record(journal.getLastSeq(), LibraryJournal.BOOK_PUT, new String[0])));
+                throw new AssertionError("Run " + run + ": the last sequence was appended again");
+            } catch (IOException expectedFailure) {
+                // Rejected before anything is written
+            }
+
+            if (random.nextInt(10) == 0) {
+                base = seq + random.nextInt(3);
+                journal.truncate(base);
+                seq = base;
+                expected.clear();
+                ends.clear();
+            }
+            journal.close();
+
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                damage(random, file, expected, ends);
+                damaged++;
+            }
+        }
+        System.out.println("LibraryJournalTest: " + runs + " reopens passed, " + damaged + " with a damaged tail");
+    }
+
+    // Cut the file at a random byte of the last few records, or change one byte of one of them,
+    // and drop the records that replay will no longer return
+    private static void damage(Random random, File file, java.util.List<LibraryJournal.Record> expected,
+            java.util.List<Long> ends) throws IOException {
+        fillEnds(file, expected, ends);
+        int first = Math.max(0, expected.size() - 5);
+        long from = first == 0 ? 16 : ends.get(first - 1);
+        long to = ends.get(ends.size() - 1);
+        long position = from + (long) (random.nextDouble() * (to - from));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (random.nextBoolean()) {
+                channel.truncate(position);
+            } else {
+                ByteBuffer one = ByteBuffer.allocate(1);
+                channel.read(one, position);
+                one.put(0, (byte) (one.get(0) ^ (1 << random.nextInt(8))));
+                one.clear();
+                channel.write(one, position);
+            }
+        }
+        // Records that end at or before the damaged byte are intact
+        while (!ends.isEmpty() && ends.get(ends.size() - 1) > position) {
+            ends.remove(ends.size() - 1);
+            expected.remove(expected.size() - 1);
+        }
+    }
+
+    // Work out where each record of a batch ends from the frames in the file
+    private static void fillEnds(File file, java.util.List<LibraryJournal.Record> expected, java.util.List<Long> ends)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.skipBytes(16);
+            long position = 16;
+            for (int i = 0; i < ends.size(); i++) {
+                int length = in.readInt();
+                in.skipBytes(4 + length);
+                position += 8 + length;
+                if (ends.get(i) != -1 && ends.get(i) != position) {
+                    throw new AssertionError("Record " + expected.get(i).seq + " ends at " + position + ", expected " + ends.get(i));
+                }
+                ends.set(i, position);
+            }
+        }
+    }
+
+    private static void checkRecords(int run, java.util.List<LibraryJournal.Record> actual,
+            java.util.List<LibraryJournal.Record> expected) {
+        if (actual.size() != expected.size()) {
+            throw new AssertionError("Run " + run + ": replayed " + actual.size() + " records, expected " + expected.size());
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            LibraryJournal.Record a = actual.get(i);
+            LibraryJournal.Record e = expected.get(i);
+            if (a.seq != e.seq || a.type != e.type || !Arrays.equals(a.fields, e.fields)) {
+                throw new AssertionError("Run " + run + ": record " + i + " is " + a.seq + "/" + a.type + " "
+                    + Arrays.toString(a.fields) + ", expected " + e.seq + "/" + e.type + " " + Arrays.toString(e.fields));
+            }
+        }
+    }
+
+    // Up to eight fields of text that modified UTF-8 encodes in one to three bytes a character,
+    // including NUL and characters outside the BMP
+    private static String[] randomFields(Random random) {
+        String[] fields = new String[random.nextInt(9)];
+        for (int i = 0; i < fields.length; i++) {
+            StringBuilder field = new StringBuilder();
+            int length = random.nextInt(random.nextInt(10) == 0 ? 400 : 20);
+            for (int c = 0; c < length; c++) {
+                int kind = random.nextInt(20);
+                if (kind == 0) {
+                    field.append('\0');
+                } else if (kind == 1) {
+                    field.append('\u00e9');
+                } else if (kind == 2) {
+                    field.append('\u4e66');
+                } else if (kind == 3) {
+                    field.appendCodePoint(0x1F4DA);
+                } else {
+                    field.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            fields[i] = field.toString();
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Random puts, removes, lookups and range scans on a PagedLibraryStore, checked against TreeMaps.
+// The buffer pool is kept at its smallest, so changed pages are spilled to shadow pages between
+// checkpoints, and rows are large enough that pages split often.
+//
+// Every so often the store is checkpointed and reopened, and must hold every change. It is
+// also closed without a checkpoint, as if the process had died, and must reopen with the last
+// checkpoint's contents. A crash in the middle of a checkpoint is made by copying the file
+// after the pages are written but with the header slot as it was before, which must open to
+// the previous checkpoint too. Last, seed is interrupted part way through and run again.
+public class PagedLibraryStoreTest {
+    private static final int IDS = 3000;
+
+    public static void main(String[] args) throws IOException {
+        // Read when PagedLibraryStore is first used
+        System.setProperty("library.pageCache", "16");
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 30000;
+        Random random = new Random(seed);
+        File dir = Files.createTempDirectory("paged-test").toFile();
+        try {
+            checkChanges(random, steps, dir);
+            checkSeed(random, dir);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void checkChanges(Random random, int steps, File dir) throws IOException {
+        File file = new File(dir, PagedLibraryStore.FILE_NAME);
+        PagedLibraryStore store = PagedLibraryStore.open(file);
+        TreeMap<String, String[]> books = new TreeMap<>();
+        TreeSet<String[]> loans = new TreeSet<>(LibraryStore.LOAN_ORDER);
+        TreeMap<String, String[]> users = new TreeMap<>();
+        // Contents as of the last checkpoint
+        TreeMap<String, String[]> committedBooks = new TreeMap<>();
+        TreeSet<String[]> committedLoans = new TreeSet<>(LibraryStore.LOAN_ORDER);
+        TreeMap<String, String[]> committedUsers = new TreeMap<>();
+        long seq = 0;
+        int reopened = 0;
+        int crashed = 0;
+
+        // A crash before the first checkpoint, once pages have been spilled, leaves a new store
+        for (int i = 0; i < 2000; i++) {
+            store.putBook(randomRow(random, "B", 7));
+        }
+        store.close();
+        store = PagedLibraryStore.open(file);
+        if (!store.isNew() || file.length() == 0) {
+            throw new AssertionError("No pages were spilled before the first checkpoint");
+        }
+        checkAll(-1, store, seq, books, loans, users);
+
+        for (int step = 0; step < steps; step++) {
+            int action = random.nextInt(100);
+            if (action < 30) {
+                String[] book = randomRow(random, "B", 7);
+                store.putBook(book);
+                books.put(book[0], book);
+            } else if (action < 40) {
+                String id = randomId(random, "B");
+                store.deleteBook(id);
+                books.remove(id);
+            } else if (action < 55) {
+                String[] loan = randomRow(random, "B", 5);
+                store.putLoan(loan);
+                loans.add(loan);
+            } else if (action < 62) {
+                // Mostly loans that exist
+                String[] loan = loans.ceiling(new String[] {randomId(random, "B")});
+                if (loan == null || random.nextInt(4) == 0) {
+                    loan = randomRow(random, "B", 5);
+                }
+                store.deleteLoan(loan);
+                loans.remove(loan);
+            } else if (action < 72) {
+                String[] user = randomRow(random, "U", 4);
+                store.putUser(user);
+                users.put(user[0], user);
+            } else if (action < 77) {
+                String id = randomId(random, "U");
+                store.deleteUser(id);
+                users.remove(id);
+            } else if (action < 87) {
+                String id = randomId(random, "B");
+                check(step, "book " + id, store.getBook(id), books.get(id));
+                id = randomId(random, "U");
+                check(step, "user " + id, store.getUser(id), users.get(id));
+            } else if (action < 97) {
+                String from = random.nextInt(5) == 0 ? null : randomId(random, "B");
+                String to = random.nextInt(5) == 0 ? null : randomId(random, "B");
+                checkScan(step, "books", store.scanBooks(from, to), range(books, from, to).values());
+                checkScan(step, "loans", store.scanLoans(from, to), loanRange(loans, from, to));
+                from = random.nextInt(5) == 0 ? null : randomId(random, "U");
+                to = random.nextInt(5) == 0 ? null : randomId(random, "U");
+                checkScan(step, "users", store.scanUsers(from, to), range(users, from, to).values());
+            } else if (action < 98) {
+                store.checkpoint(++seq);
+                committedBooks = new TreeMap<>(books);
+                committedLoans = new TreeSet<>(loans);
+                committedUsers = new TreeMap<>(users);
+                if (random.nextBoolean()) {
+                    store.close();
+                    store = PagedLibraryStore.open(file);
+                    reopened++;
+                    checkAll(step, store, seq, books, loans, users);
+                }
+            } else if (action < 99) {
+                // Crash: the changes since the checkpoint are lost
+                store.close();
+                store = PagedLibraryStore.open(file);
+                crashed++;
+                books = new TreeMap<>(committedBooks);
+                loans = new TreeSet<>(committedLoans);
+                users = new TreeMap<>(committedUsers);
+                checkAll(step, store, seq, books, loans, users);
+            } else {
+                // Crash during a checkpoint, before its header is written
+                byte[] before = Files.readAllBytes(file.toPath());
+                store.checkpoint(seq + 1);
+                File torn = new File(dir, "torn.db");
+                Files.copy(file.toPath(), torn.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                restoreHeaders(torn, before);
+                try (PagedLibraryStore reopenedTorn = PagedLibraryStore.open(torn)) {
+                    checkAll(step, reopenedTorn, seq, committedBooks, committedLoans, committedUsers);
+                }
+                torn.delete();
+                seq++;
+                committedBooks = new TreeMap<>(books);
+                committedLoans = new TreeSet<>(loans);
+                committedUsers = new TreeMap<>(users);
+                crashed++;
+            }
+        }
+        checkAll(steps, store, seq, books, loans, users);
+        store.close();
+        System.out.println("PagedLibraryStoreTest: " + steps + " steps passed, " + reopened + " reopened after a checkpoint, "
+            + crashed + " after a crash (" + books.size() + " books, " + loans.size() + " loans, " + users.size() + " users, "
+            + file.length() / PagedLibraryStore.PAGE_SIZE + " pages)");
+    }
+
+    // Seed from a store of more than one seed batch, failing part way through the users, then again
+    private static void checkSeed(Random random, File dir) throws IOException {
+        File file = new File(dir, "seeded.db");
+        InMemoryLibraryStore source = new InMemoryLibraryStore();
+        for (int i = 0; i < 12000; i++) {
+            source.putBook(randomRow(random, "B", 7));
+            source.putLoan(randomRow(random, "B", 5));
+            source.putUser(randomRow(random, "U", 4));
+        }
+        source.checkpoint(42);
+
+        LibraryStore failing = new InMemoryLibraryStore() {
+            @Override
+            public List<String[]> scanUsers(String fromId, String toId) {
+                List<String[]> users = source.scanUsers(fromId, toId);
+                return new AbstractList<String[]>() {
+                    @Override
+                    public String[] get(int index) {
+                        if (index == users.size() / 2) {
+                            throw new IllegalStateException("Interrupted");
+                        }
+                        return users.get(index);
+                    }
+
+                    @Override
+                    public int size() {
+                        return users.size();
+                    }
+                };
+            }
+
+            @Override
+            public List<String[]> scanBooks(String fromId, String toId) {
+                return source.scanBooks(fromId, toId);
+            }
+
+            @Override
+            public List<String[]> scanLoans(String fromBookId, String toBookId) {
+                return source.scanLoans(fromBookId, toBookId);
+            }
+        };
+        try (PagedLibraryStore store = PagedLibraryStore.open(file)) {
+            try {
+                store.seed(failing);
+                throw new AssertionError("Seed did not fail");
+            } catch (IllegalStateException expected) {
+                // The batches before the failure were checkpointed
+            }
+        }
+        try (PagedLibraryStore store = PagedLibraryStore.open(file)) {
+            if (!store.isNew()) {
+                throw new AssertionError("An interrupted seed left the store in use");
+            }
+            store.seed(source);
+        }
+        try (PagedLibraryStore store = PagedLibraryStore.open(file)) {
+            if (store.isNew() || store.getCheckpointSeq() != 42) {
+                throw new AssertionError("Seed ended at " + store.getCheckpointSeq() + ", new " + store.isNew());
+            }
+            checkScan(-1, "seeded books", store.scanBooks(null, null), source.scanBooks(null, null));
+            checkScan(-1, "seeded loans", store.scanLoans(null, null), source.scanLoans(null, null));
+            checkScan(-1, "seeded users", store.scanUsers(null, null), source.scanUsers(null, null));
+        }
+        System.out.println("PagedLibraryStoreTest: an interrupted seed was redone from the start");
+    }
+
+    private static void checkAll(int step, PagedLibraryStore store, long seq, TreeMap<String, String[]> books,
+            TreeSet<String[]> loans, TreeMap<String, String[]> users) throws IOException {
+        if (store.getCheckpointSeq() != seq) {
+            throw new AssertionError("Step " + step + ": reopened at " + store.getCheckpointSeq() + ", expected " + seq);
+        }
+        checkScan(step, "all books", store.scanBooks(null, null), books.values());
+        checkScan(step, "all loans", store.scanLoans(null, null), loans);
+        checkScan(step, "all users", store.scanUsers(null, null), users.values());
+    }
+
+    // Compares by iterating, then by size() and get() in order and at random positions
+    private static void checkScan(int step, String what, List<String[]> actual, Collection<String[]> expected) {
+        List<String[]> rows = new ArrayList<>(expected);
+        Iterator<String[]> iterator = actual.iterator();
+        for (int i = 0; i < rows.size(); i++) {
+            if (!iterator.hasNext()) {
+                throw new AssertionError("Step " + step + ": " + what + " ended after " + i + " of " + rows.size() + " rows");
+            }
+            check(step, what + " row " + i, iterator.next(), rows.get(i));
+        }
+        if (iterator.hasNext()) {
+            throw new AssertionError("Step " + step + ": " + what + " has more than " + rows.size() + " rows");
+        }
+        if (actual.size() != rows.size()) {
+            throw new AssertionError("Step " + step + ": " + what + " size " + actual.size() + ", expected " + rows.size());
+        }
+        if (!rows.isEmpty()) {
+            int index = new Random(step).nextInt(rows.size());
+            check(step, what + " get(" + index + ")", actual.get(index), rows.get(index));
+            if (index + 1 < rows.size()) {
+                check(step, what + " get(" + (index + 1) + ")", actual.get(index + 1), rows.get(index + 1));
+            }
+        }
+    }
+
+    private static void check(int step, String what, String[] actual, String[] expected) {
+        if (!Arrays.equals(actual, expected)) {
+            throw new AssertionError("Step " + step + ": " + what + " is " + Arrays.toString(actual)
+                + ", expected " + Arrays.toString(expected));
+        }
+    }
+
+    // Put back the header pages of an earlier copy of the file (blank if it was shorter), so its
+    // last checkpoint has written its pages but not committed
+    private static void restoreHeaders(File file, byte[] before) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            int length = Math.min(before.length, 2 * PagedLibraryStore.PAGE_SIZE);
+            ByteBuffer headers = ByteBuffer.allocate(2 * PagedLibraryStore.PAGE_SIZE);
+            headers.put(before, 0, length);
+            headers.clear();
+            channel.write(headers, 0);
+        }
+    }
+
+    private static <V> SortedMap<String, V> range(TreeMap<String, V> map, String from, String to) {
+        if (from != null && to != null) {
+            return from.compareTo(to) < 0 ? map.subMap(from, to) : new TreeMap<>();
+        }
+        return from != null ? map.tailMap(from) : to != null ? map.headMap(to) : map;
+    }
+
+    private static Collection<String[]> loanRange(TreeSet<String[]> loans, String from, String to) {
+        List<String[]> rows = new ArrayList<>();
+        for (String[] loan : loans) {
+            if ((from == null || loan[0].compareTo(from) >= 0) && (to == null || loan[0].compareTo(to) < 0)) {
+                rows.add(loan);
+            }
+        }
+        return rows;
+    }
+
+    private static String randomId(Random random, String prefix) {
+        return String.format("%s%04d", prefix, random.nextInt(IDS));
+    }
+
+    // An ID and fields of up to 120 characters, so a page holds a few dozen rows at most
+    private static String[] randomRow(Random random, String prefix, int fields) {
+        String[] row = new String[fields];
+        row[0] = randomId(random, prefix);
+        for (int i = 1; i < fields; i++) {
+            char[] text = new char[random.nextInt(random.nextInt(10) == 0 ? 120 : 20)];
+            for (int c = 0; c < text.length; c++) {
+                text[c] = (char) ('a' + random.nextInt(26));
+            }
+            row[i] = new String(text);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+// Random changes queued on a PersistenceService in bursts, with a journal that counts its
+// writes and truncates. Checks that a burst shares a few group commits rather than one write
+// each, that the journal is checkpointed once it reaches the record threshold, that a quiet
+// spell checkpoints it too, and that after shutdown the store holds every change, checked
+// against TreeMaps, and the journal holds no records.
+public class PersistenceServiceTest {
+    private static final long COMMIT_WINDOW_MS = 20;
+    private static final long IDLE_CHECKPOINT_MS = 300;
+    private static final int CHECKPOINT_RECORDS = 200;
+
+    // Journal that counts the group commits and checkpoints it receives
+    private static final class CountingJournal extends LibraryJournal {
+        volatile int writes;
+        volatile int largestWrite;
+        volatile int truncates;
+
+        CountingJournal(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        synchronized void appendAll(java.util.List<Record> records) throws IOException {
+            super.appendAll(records);
+            writes++;
+            largestWrite = Math.max(largestWrite, records.size());
+        }
+
+        @Override
+        synchronized void truncate(long seq) throws IOException {
+            super.truncate(seq);
+            truncates++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        Random random = new Random(seed);
+        File file = Files.createTempFile("persistence-test", ".journal").toFile();
+        try {
+            check(random, changes, file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(Random random, int changes, File file) throws Exception {
+        CountingJournal journal = new CountingJournal(file);
+        journal.replay((seq, type, fields) -> { });
+        InMemoryLibraryStore store = new InMemoryLibraryStore();
+        String[] lastError = new String[1];
+        PersistenceService persistence = new PersistenceService(journal, store, 0, COMMIT_WINDOW_MS, IDLE_CHECKPOINT_MS,
+            (pending, error) -> {
+                if (error != null) {
+                    lastError[0] = error;
+                }
+            });
+        persistence.setCheckpointThresholds(CHECKPOINT_RECORDS, Long.MAX_VALUE);
+        persistence.start();
+
+        TreeMap<String, String[]> books = new TreeMap<>();
+        TreeSet<String[]> loans = new TreeSet<>(LibraryStore.LOAN_ORDER);
+        TreeMap<String, String[]> users = new TreeMap<>();
+        int queued = 0;
+        while (queued < changes) {
+            // A burst, queued faster than the commit window
+            int burst = 1 + random.nextInt(random.nextInt(5) == 0 ? 300 : 20);
+            for (int i = 0; i < burst && queued < changes; i++, queued++) {
+                queueChange(random, persistence, books, loans, users);
+            }
+            Thread.sleep(random.nextInt(2 * (int) COMMIT_WINDOW_MS));
+        }
+        waitUntil(() -> persistence.getPending() == 0, "the queue to drain");
+
+        if (journal.writes > changes / 5) {
+            throw new AssertionError(journal.writes + " journal writes for " + changes + " changes");
+        }
+        // Checkpoints after a write that reaches the threshold, so the journal never holds much more
+        if (journal.truncates == 0 || journal.getRecordCount() >= CHECKPOINT_RECORDS + journal.largestWrite) {
+            throw new AssertionError(journal.truncates + " checkpoints, " + journal.getRecordCount() + " records in the journal");
+        }
+
+        // A quiet spell checkpoints what is left
+        int truncates = journal.truncates;
+        queueChange(random, persistence, books, loans, users);
+        waitUntil(() -> journal.truncates > truncates && journal.getRecordCount() == 0, "an idle checkpoint");
+        if (store.getCheckpointSeq() != persistence.getLastSeq()) {
+            throw new AssertionError("Idle checkpoint at " + store.getCheckpointSeq() + ", expected " + persistence.getLastSeq());
+        }
+
+        // Shutdown writes what is still queued and checkpoints it
+        for (int i = 0; i < 50; i++) {
+            queueChange(random, persistence, books, loans, users);
+        }
+        long lastSeq = persistence.getLastSeq();
+        if (!persistence.shutdown(10000)) {
+            throw new AssertionError("Shutdown did not drain the queue");
+        }
+        if (lastError[0] != null) {
+            throw new AssertionError("Persistence reported: " + lastError[0]);
+        }
+        if (store.getCheckpointSeq() != lastSeq) {
+            throw new AssertionError("Store checkpointed at " + store.getCheckpointSeq() + ", expected " + lastSeq);
+        }
+        checkRows("books", store.scanBooks(null, null), books.values());
+        checkRows("loans", store.scanLoans(null, null), loans);
+        checkRows("users", store.scanUsers(null, null), users.values());
+
+        LibraryJournal reopened = new LibraryJournal(file);
+        long records = reopened.replay((seq, type, fields) -> { });
+        if (records != 0 || reopened.getLastSeq() != lastSeq) {
+            throw new AssertionError("Journal reopened with " + records + " records after " + reopened.getLastSeq());
+        }
+        reopened.close();
+        System.out.println("PersistenceServiceTest: " + (changes + 51) + " changes passed (" + journal.writes + " writes, "
+            + journal.truncates + " checkpoints)");
+    }
+
+    // Queue a random change the way LibraryManagement does, and make it in the TreeMaps too
+    private static void queueChange(Random random, PersistenceService persistence, TreeMap<String, String[]> books,
+            TreeSet<String[]> loans, TreeMap<String, String[]> users) {
+        int action = random.nextInt(10);
+        if (action < 3) {
+            String[] book = {"B" + random.nextInt(500), "Title " + random.nextInt(), "Author", "Publisher", "1999",
+                String.valueOf(random.nextInt(5)), "Fiction"};
+            books.put(book[0], book);
+            persistence.log(LibraryJournal.BOOK_PUT, book);
+        } else if (action < 4) {
+            String id = "B" + random.nextInt(500);
+            books.remove(id);
+            persistence.log(LibraryJournal.BOOK_DELETE, id);
+        } else if (action < 6) {
+            String[] loan = {"B" + random.nextInt(500), "U" + random.nextInt(100), "Name", "555", "2024-01-0" + (1 + random.nextInt(9)) + " 10:00:00"};
+            loans.add(loan);
+            String[] book = {loan[0], "Title", "Author", "Publisher", "2001", String.valueOf(random.nextInt(5)), "Poetry"};
+            books.put(book[0], book);
+            persistence.log(LibraryJournal.ISSUE, concat(loan, book));
+        } else if (action < 7 && !loans.isEmpty()) {
+            String[] loan = loans.ceiling(new String[] {"B" + random.nextInt(500)});
+            loan = loan == null ? loans.first() : loan;
+            loans.remove(loan);
+            String[] book = {loan[0], "Title", "Author", "Publisher", "2001", String.valueOf(random.nextInt(5)), "Poetry"};
+            books.put(book[0], book);
+            persistence.log(LibraryJournal.RETURN, concat(loan, book));
+        } else if (action < 9) {
+            String[] user = {"U" + random.nextInt(100), "Name " + random.nextInt(), "555" + random.nextInt(1000), "secret"};
+            users.put(user[0], user);
+            persistence.log(LibraryJournal.USER_PUT, user);
+        } else {
+            String id = "U" + random.nextInt(100);
+            users.remove(id);
+            persistence.log(LibraryJournal.USER_DELETE, id);
+        }
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    private static void checkRows(String what, java.util.List<String[]> actual, Collection<String[]> expected) {
+        java.util.List<String[]> rows = new ArrayList<>(expected);
+        if (actual.size() != rows.size()) {
+            throw new AssertionError(what + ": " + actual.size() + " rows, expected " + rows.size());
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            if (!Arrays.equals(actual.get(i), rows.get(i))) {
+                throw new AssertionError(what + " row " + i + " is " + Arrays.toString(actual.get(i))
+                    + ", expected " + Arrays.toString(rows.get(i)));
+            }
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
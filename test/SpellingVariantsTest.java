@@ -0,0 +1,156 @@
+import java.util.*;
+
+// Checks the misspelling support of BookSearchIndex against brute force.
+//
+// The bounded edit distance is compared with a full table over random pairs. Corrections of
+// misspelled words are compared with a scan of the whole dictionary for the closest, then most
+// common, term. The trigram filter may miss a variant when an edit changes every trigram of a
+// short word, so a few misses are allowed, but every variant it does find must be within the
+// word's edit limit, and so must every term behind a search hit.
+public class SpellingVariantsTest {
+    // Misses of the trigram filter allowed, as a share of the corrections checked
+    private static final double MAX_MISSES = 0.02;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        Random random = new Random(seed);
+        checkDistance(random, pairs);
+        checkVariants(random, pairs / 100);
+    }
+
+    private static void checkDistance(Random random, int pairs) {
+        for (int i = 0; i < pairs; i++) {
+            // A small alphabet, so pairs share letters and swaps
+            String a = randomWord(random, "abcd", random.nextInt(10));
+            String b = random.nextBoolean() ? randomWord(random, "abcd", random.nextInt(10)) : edit(a, random);
+            int max = random.nextInt(4);
+            int expected = Math.min(fullDistance(a, b), max + 1);
+            int actual = BookSearchIndex.distance(a, b, max);
+            if (actual != expected) {
+                throw new AssertionError("distance(" + a + ", " + b + ", " + max + ") = " + actual + ", expected " + expected);
+            }
+        }
+        System.out.println("SpellingVariantsTest: distance matched on " + pairs + " pairs");
+    }
+
+    private static void checkVariants(Random random, int words) {
+        // Titles of three terms; some terms are in many books, most in a few
+        String[] dictionary = new String[2000];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = randomWord(random, "abcdefghilmnorst", 4 + random.nextInt(7));
+        }
+        BookSearchIndex index = new BookSearchIndex();
+        java.util.List<Set<String>> bookTerms = new ArrayList<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int doc = 0; doc < 5000; doc++) {
+            Set<String> terms = new HashSet<>();
+            while (terms.size() < 3) {
+                int rank = (int) (dictionary.length * Math.pow(random.nextDouble(), 2));
+                terms.add(dictionary[rank]);
+            }
+            for (String term : terms) {
+                counts.merge(term, 1, Integer::sum);
+            }
+            bookTerms.add(terms);
+            index.add(new Book("B" + doc, String.join(" ", terms), "", "", 2000, 1, ""));
+        }
+
+        int checked = 0;
+        int misses = 0;
+        while (checked < words) {
+            String word = edit(dictionary[random.nextInt(dictionary.length)], random);
+            int maxDistance = word.length() < 4 ? 0 : word.length() < 8 ? 1 : 2;
+            if (maxDistance == 0 || counts.containsKey(word)) {
+                continue;
+            }
+            checked++;
+
+            // Closest, then most common, then first in order, as correct picks
+            String expected = null;
+            int expectedDistance = maxDistance + 1;
+            for (String term : counts.keySet()) {
+                int distance = fullDistance(word, term);
+                if (distance < expectedDistance || distance == expectedDistance && expected != null
+                        && (counts.get(term) > counts.get(expected)
+                            || counts.get(term).equals(counts.get(expected)) && term.compareTo(expected) < 0)) {
+                    expected = term;
+                    expectedDistance = distance;
+                }
+            }
+            // A trailing space, so the word is not taken to be still typed
+            String corrected = index.correct(word + " ");
+            if (corrected != null && fullDistance(word, corrected) > maxDistance) {
+                throw new AssertionError("\"" + word + "\" corrected to \"" + corrected + "\", too far");
+            }
+            if (!Objects.equals(corrected, expected)) {
+                misses++;
+            }
+
+            for (int doc : index.search(word + " ")) {
+                boolean near = false;
+                for (String term : bookTerms.get(doc)) {
+                    near |= fullDistance(word, term) <= maxDistance;
+                }
+                if (!near) {
+                    throw new AssertionError("\"" + word + "\" found book " + doc + " with no term near it");
+                }
+            }
+        }
+        System.out.println("SpellingVariantsTest: " + (checked - misses) + " of " + checked + " corrections matched a dictionary scan");
+        if (misses > checked * MAX_MISSES) {
+            throw new AssertionError(misses + " of " + checked + " corrections missed");
+        }
+    }
+
+    // Edit distance counting insertions, deletions, substitutions and swaps of neighbouring
+    // characters, over the whole table
+    private static int fullDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                    continue;
+                }
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static String randomWord(Random random, String letters, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        return word.toString();
+    }
+
+    // The word with one to three random insertions, deletions, substitutions or swaps
+    private static String edit(String word, Random random) {
+        StringBuilder text = new StringBuilder(word);
+        int edits = 1 + random.nextInt(3);
+        for (int e = 0; e < edits; e++) {
+            int at = text.length() == 0 ? 0 : random.nextInt(text.length());
+            char letter = (char) ('a' + random.nextInt(20));
+            int kind = random.nextInt(4);
+            if (kind == 0 || text.length() == 0) {
+                text.insert(at, letter);
+            } else if (kind == 1) {
+                text.deleteCharAt(at);
+            } else if (kind == 2) {
+                text.setCharAt(at, letter);
+            } else if (at + 1 < text.length()) {
+                char swapped = text.charAt(at);
+                text.setCharAt(at, text.charAt(at + 1));
+                text.setCharAt(at + 1, swapped);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.*;
+
+// Random add, insert, set, remove and removeById steps on a UserList, checked after each step
+// against an ArrayList: the rows, findById as a scan from the start of the list would answer
+// it, and findByContact as a scan for the same digits. IDs and contact numbers come from small
+// sets, so IDs are sometimes duplicated and contacts often shared, written in several formats.
+public class UserListTest {
+    private static final String[] CONTACT_FORMATS = {"%s", "+%s", "(%s)", "%s "};
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        Random random = new Random(seed);
+        UserList users = new UserList(0);
+        java.util.List<User> expected = new ArrayList<>();
+
+        for (int step = 0; step < steps; step++) {
+            int action = random.nextInt(10);
+            // Up to a few hundred users, so the reference scans stay quick
+            boolean grow = expected.size() < 300;
+            if (expected.isEmpty() || action < 2 && grow) {
+                User user = randomUser(random);
+                users.add(user);
+                expected.add(user);
+            } else if (action < 4 && grow) {
+                int at = random.nextInt(expected.size() + 1);
+                User user = randomUser(random);
+                users.add(at, user);
+                expected.add(at, user);
+            } else if (action < 6) {
+                int at = random.nextInt(expected.size());
+                User user = randomUser(random);
+                if (users.set(at, user) != expected.set(at, user)) {
+                    throw new AssertionError("Step " + step + ": set returned another user");
+                }
+            } else if (action < 8) {
+                int at = random.nextInt(expected.size());
+                if (users.remove(at) != expected.remove(at)) {
+                    throw new AssertionError("Step " + step + ": remove returned another user");
+                }
+            } else {
+                String id = randomId(random);
+                boolean removed = users.removeById(id);
+                // The user findById returns: the first with the ID
+                int at = -1;
+                for (int i = 0; i < expected.size() && at < 0; i++) {
+                    if (expected.get(i).id.equals(id)) {
+                        at = i;
+                    }
+                }
+                if (at >= 0) {
+                    expected.remove(at);
+                }
+                if (removed != (at >= 0)) {
+                    throw new AssertionError("Step " + step + ": removeById(" + id + ") returned " + removed);
+                }
+            }
+            check(step, users, expected, random);
+        }
+        System.out.println("UserListTest: " + steps + " steps passed (seed " + seed + ")");
+    }
+
+    private static void check(int step, UserList users, java.util.List<User> expected, Random random) {
+        if (users.size() != expected.size()) {
+            throw new AssertionError("Step " + step + ": size " + users.size() + ", expected " + expected.size());
+        }
+        if (!expected.isEmpty()) {
+            int at = random.nextInt(expected.size());
+            if (users.get(at) != expected.get(at)) {
+                throw new AssertionError("Step " + step + ": row " + at + " differs");
+            }
+        }
+
+        String id = randomId(random);
+        User first = null;
+        for (User user : expected) {
+            if (user.id.equals(id)) {
+                first = user;
+                break;
+            }
+        }
+        if (users.findById(id) != first) {
+            throw new AssertionError("Step " + step + ": findById(" + id + ") is not the first user with that ID");
+        }
+
+        String contact = randomContact(random);
+        String digits = contact.replaceAll("[^0-9]", "");
+        Set<User> sharing = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (User user : expected) {
+            if (user.contact.replaceAll("[^0-9]", "").equals(digits)) {
+                sharing.add(user);
+            }
+        }
+        java.util.List<User> found = users.findByContact(contact);
+        Set<User> foundSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        foundSet.addAll(found);
+        if (found.size() != sharing.size() || !foundSet.equals(sharing)) {
+            throw new AssertionError("Step " + step + ": findByContact(" + contact + ") found " + found.size()
+                + " users, expected " + sharing.size());
+        }
+    }
+
+    private static User randomUser(Random random) {
+        return new User(randomId(random), "User " + random.nextInt(1000), randomContact(random), "secret");
+    }
+
+    private static String randomId(Random random) {
+        return "USER-" + random.nextInt(400);
+    }
+
+    private static String randomContact(Random random) {
+        String digits = String.valueOf(5550000 + random.nextInt(150));
+        return String.format(CONTACT_FORMATS[random.nextInt(CONTACT_FORMATS.length)], digits);
+    }
+}